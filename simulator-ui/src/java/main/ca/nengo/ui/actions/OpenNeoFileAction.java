@@ -37,6 +37,7 @@ import org.python.core.PyClass;
 import org.python.util.PythonInterpreter;
 import org.python.util.PythonObjectInputStream;
 
+import ca.nengo.io.BinaryModelFormat;
 import ca.nengo.model.Node;
 import ca.nengo.ui.NengoGraphics;
 import ca.nengo.ui.lib.actions.ActionException;
@@ -107,12 +108,22 @@ public class OpenNeoFileAction extends StandardAction {
                         // loading sometimes fails if a new interpreter is
                         // created, so
                         // we use the one from the NengoGraphics.
+                        // files saved by FileManager keep large arrays outside the 
+                        // serialized structure, where the reader finds them
                         PythonInterpreter pi = NengoGraphics.getInstance().getPythonInterpreter();
-                        pi.set("___inStream",
-                                new PythonObjectInputStream(new FileInputStream(file)));
-                        org.python.core.PyObject obj = pi.eval("___inStream.readObject()");
-                        objLoaded = obj.__tojava__(Class.forName("ca.nengo.model.Node"));
-                        pi.exec("del ___inStream");
+                        BinaryModelFormat.Reader reader = BinaryModelFormat.isBinaryModel(file) 
+                                ? new BinaryModelFormat.Reader(file) : null;
+                        try {
+                            pi.set("___inStream", new PythonObjectInputStream(
+                                    (reader != null) ? reader.getStructure() : new FileInputStream(file)));
+                            org.python.core.PyObject obj = pi.eval("___inStream.readObject()");
+                            objLoaded = obj.__tojava__(Class.forName("ca.nengo.model.Node"));
+                            pi.exec("del ___inStream");
+                        } finally {
+                            if (reader != null) {
+                                reader.close();
+                            }
+                        }
 
                         SwingUtilities.invokeLater(new Runnable() {
                             public void run() {
@@ -0,0 +1,410 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "BinaryModelFormat.java". Description:
+"Saves and loads models in a binary format"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A file format for models (eg Networks and Ensembles) that keeps large numeric arrays out of
+ * Java serialization.</p>
+ *
+ * <p>Object structure is still serialized, but float[] and rectangular float[][] with at least
+ * MIN_ARRAY_LENGTH elements (encoders, decoders, evaluation points, transforms, population
+ * parameters, etc.) are replaced in the object stream by small references. The arrays themselves
+ * are written after the structure as contiguous little-endian floats, and are read back in bulk
+ * from a memory-mapped file. Most of the time needed to load a large model is then spent on I/O
+ * rather than on reflection.</p>
+ *
+ * <p>Arrays that are shared between objects are still shared after loading. This includes rows
+ * of a matrix that are also referenced on their own (or by another matrix), which are written
+ * as references to the row of the loaded matrix. A matrix with a row that has already been
+ * written on its own is left in the structure.</p>
+ *
+ * <p>The file starts with a magic number, a format version, and the length of the structure, all
+ * big-endian. The structure is a serialization stream. Array data start at the next multiple of
+ * eight bytes.</p>
+ */
+public class BinaryModelFormat {
+
+	/**
+	 * Marks the start of a file in this format
+	 */
+	public static final int MAGIC = 0x4E454642; //"NEFB"
+
+	/**
+	 * Format version
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Arrays with fewer elements than this are left in the structure
+	 */
+	public static final int MIN_ARRAY_LENGTH = 256;
+
+	private static final int HEADER_BYTES = 16;
+	private static final int WRITE_BUFFER_BYTES = 1 << 20;
+	private static final long MAP_WINDOW_BYTES = 1 << 28;
+
+	private static final ThreadLocal<Reader> ourCurrentReader = new ThreadLocal<Reader>();
+
+	/**
+	 * @param file Any file
+	 * @return True if the file starts with this format's magic number
+	 * @throws IOException If the file can't be read
+	 */
+	public static boolean isBinaryModel(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return file.length() >= HEADER_BYTES && in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param object A Serializable object
+	 * @param destination File to write
+	 * @throws IOException If there's a problem writing to disk
+	 */
+	public static void write(Object object, File destination) throws IOException {
+		ByteArrayOutputStream structure = new ByteArrayOutputStream(1 << 16);
+		ArrayOutputStream oos = new ArrayOutputStream(structure);
+		oos.writeObject(object);
+		oos.close();
+
+		FileOutputStream fos = new FileOutputStream(destination);
+		try {
+			FileChannel channel = fos.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(structure.size());
+			header.flip();
+			writeFully(channel, header);
+			writeFully(channel, ByteBuffer.wrap(structure.toByteArray()));
+			writeFully(channel, ByteBuffer.allocate(getPadding(structure.size())));
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			FloatBuffer floats = buffer.asFloatBuffer();
+			for (Object array : oos.myArrays) {
+				float[][] rows = (array instanceof float[]) ? new float[][]{(float[]) array} : (float[][]) array;
+				for (float[] row : rows) {
+					for (int i = 0; i < row.length; ) {
+						int n = Math.min(floats.remaining(), row.length - i);
+						floats.put(row, i, n);
+						i += n;
+						if (!floats.hasRemaining()) {
+							flush(channel, buffer, floats);
+						}
+					}
+				}
+			}
+			flush(channel, buffer, floats);
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer, FloatBuffer floats) throws IOException {
+		buffer.limit(floats.position() * 4);
+		buffer.position(0);
+		writeFully(channel, buffer);
+		buffer.clear();
+		floats.clear();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static int getPadding(long structureBytes) {
+		return (int) ((8 - (HEADER_BYTES + structureBytes) % 8) % 8);
+	}
+
+	/**
+	 * @param source A file in this format
+	 * @return The object saved in the file
+	 * @throws IOException If the file can't be read or is in the wrong format
+	 * @throws ClassNotFoundException If the file contains classes not known in this context
+	 */
+	public static Object read(File source) throws IOException, ClassNotFoundException {
+		Reader reader = new Reader(source);
+		try {
+			ObjectInputStream ois = new ObjectInputStream(reader.getStructure());
+			return ois.readObject();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Provides the structure of a file in this format, for reading with any ObjectInputStream (eg
+	 * one that resolves classes differently). Large arrays in the structure are read from the
+	 * file as they are deserialized, on the thread that created the Reader, until it is closed.
+	 */
+	public static class Reader {
+
+		private final File myFile;
+		private final RandomAccessFile myRAF;
+		private final long myDataStart;
+		private FloatBuffer myWindow;
+		private long myWindowStart;
+
+		/**
+		 * @param source A file in this format
+		 * @throws IOException If the file can't be read or is in the wrong format
+		 */
+		public Reader(File source) throws IOException {
+			myFile = source;
+			myRAF = new RandomAccessFile(source, "r");
+			try {
+				if (myRAF.length() < HEADER_BYTES || myRAF.readInt() != MAGIC) {
+					throw new IOException(source + " is not a binary model file");
+				}
+				int version = myRAF.readInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported binary model version " + version + " in " + source);
+				}
+				long structureBytes = myRAF.readLong();
+				myDataStart = HEADER_BYTES + structureBytes + getPadding(structureBytes);
+			} catch (IOException e) {
+				myRAF.close();
+				throw e;
+			}
+			ourCurrentReader.set(this);
+		}
+
+		/**
+		 * @return Stream of serialized structure
+		 * @throws IOException If the file can't be read
+		 */
+		public InputStream getStructure() throws IOException {
+			FileChannel channel = myRAF.getChannel();
+			channel.position(HEADER_BYTES);
+			return new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+		}
+
+		/**
+		 * Releases the file.
+		 *
+		 * @throws IOException If the file can't be closed
+		 */
+		public void close() throws IOException {
+			if (ourCurrentReader.get() == this) {
+				ourCurrentReader.remove();
+			}
+			myWindow = null;
+			myRAF.close();
+		}
+
+		private Object readArray(ArrayRef ref) throws IOException {
+			long position = myDataStart + ref.myOffset;
+			if (ref.myRows < 0) {
+				float[] result = new float[ref.myLength];
+				read(position, result);
+				return result;
+			} else {
+				float[][] result = new float[ref.myRows][];
+				for (int i = 0; i < result.length; i++) {
+					result[i] = new float[ref.myLength];
+					read(position, result[i]);
+					position += 4L * ref.myLength;
+				}
+				return result;
+			}
+		}
+
+		//copies from a mapped window of the file, moving the window as needed
+		private void read(long position, float[] destination) throws IOException {
+			int offset = 0;
+			while (offset < destination.length) {
+				if (myWindow == null || position < myWindowStart || position >= myWindowStart + 4L * myWindow.capacity()) {
+					FileChannel channel = myRAF.getChannel();
+					long size = Math.min(MAP_WINDOW_BYTES, channel.size() - position);
+					if (size < 4) {
+						throw new IOException("Array data in " + myFile + " are truncated");
+					}
+					ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+					myWindow = mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+					myWindowStart = position;
+				}
+
+				int index = (int) ((position - myWindowStart) / 4);
+				int n = Math.min(destination.length - offset, myWindow.capacity() - index);
+				myWindow.position(index);
+				myWindow.get(destination, offset, n);
+				offset += n;
+				position += 4L * n;
+			}
+		}
+	}
+
+	//replaces large arrays with references, and records them so they can be written after the structure
+	private static class ArrayOutputStream extends ObjectOutputStream {
+
+		private final List<Object> myArrays;
+		private final Map<float[], Object> myWrittenVectors; //vectors written on their own
+		private final Map<float[], RowRef> myRows; //rows of matrices that are written in bulk
+		private long myOffset;
+
+		public ArrayOutputStream(OutputStream out) throws IOException {
+			super(out);
+			myArrays = new ArrayList<Object>();
+			myWrittenVectors = new IdentityHashMap<float[], Object>();
+			myRows = new IdentityHashMap<float[], RowRef>();
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			ArrayRef result = null;
+			if (obj instanceof float[]) {
+				float[] vector = (float[]) obj;
+				RowRef row = myRows.get(vector);
+				if (row != null) {
+					return row;
+				}
+				myWrittenVectors.put(vector, Boolean.TRUE);
+				if (vector.length >= MIN_ARRAY_LENGTH) {
+					result = new ArrayRef(myOffset, -1, vector.length);
+				}
+			} else if (obj instanceof float[][] && canWriteInBulk((float[][]) obj)) {
+				float[][] matrix = (float[][]) obj;
+				result = new ArrayRef(myOffset, matrix.length, matrix[0].length);
+				for (int i = 0; i < matrix.length; i++) {
+					myRows.put(matrix[i], new RowRef(matrix, i));
+				}
+			}
+
+			if (result == null) {
+				return obj;
+			} else {
+				myArrays.add(obj);
+				myOffset += 4L * Math.max(1, result.myRows) * result.myLength;
+				return result;
+			}
+		}
+
+		//rectangular and large enough, with rows that haven't been written and aren't repeated
+		private boolean canWriteInBulk(float[][] matrix) {
+			if (matrix.length == 0 || matrix[0] == null
+					|| (long) matrix.length * matrix[0].length < MIN_ARRAY_LENGTH) {
+				return false;
+			}
+			Map<float[], Object> rows = new IdentityHashMap<float[], Object>(matrix.length * 2);
+			for (float[] row : matrix) {
+				if (row == null || row.length != matrix[0].length
+						|| myWrittenVectors.containsKey(row) || myRows.containsKey(row)
+						|| rows.put(row, Boolean.TRUE) != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Stands in for an array in the serialized structure. Resolves to the array when read with a
+	 * Reader open on the same thread.
+	 */
+	private static class ArrayRef implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long myOffset;
+		private final int myRows; //-1 for a vector
+		private final int myLength;
+
+		public ArrayRef(long offset, int rows, int length) {
+			myOffset = offset;
+			myRows = rows;
+			myLength = length;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			Reader reader = ourCurrentReader.get();
+			if (reader == null) {
+				throw new InvalidObjectException("Array data can only be read through a BinaryModelFormat.Reader");
+			}
+			try {
+				return reader.readArray(this);
+			} catch (IOException e) {
+				InvalidObjectException ioe = new InvalidObjectException("Can't read array data: " + e.getMessage());
+				ioe.initCause(e);
+				throw ioe;
+			}
+		}
+	}
+
+	/**
+	 * Stands in for a row of a matrix that is written in bulk. The matrix is written (as an
+	 * ArrayRef) before the row, so it is resolved first.
+	 */
+	private static class RowRef implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object myMatrix; //float[][] after it is read
+		private final int myRow;
+
+		public RowRef(float[][] matrix, int row) {
+			myMatrix = matrix;
+			myRow = row;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			if ( !(myMatrix instanceof float[][]) ) {
+				throw new InvalidObjectException("Expected a matrix but found " + myMatrix);
+			}
+			return ((float[][]) myMatrix)[myRow];
+		}
+	}
+
+}
@@ -113,12 +113,15 @@ public class DelimitedFileExporter {
 	 * @throws IOException if there's a problem writing to disk
 	 */
 	public void export(SpikePattern pattern, File file) throws IOException {
-		int n = pattern.getNumNeurons();
-		float[][] times = new float[n][];
-		for (int i = 0; i < n; i++) {
-			times[i] = pattern.getSpikeTimes(i);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+
+		//one neuron at a time, rather than copying all spike times first
+		for (int i = 0; i < pattern.getNumNeurons(); i++) {
+			writeRow(writer, pattern.getSpikeTimes(i));
 		}
-		export(times, file);
+
+		writer.flush();
+		writer.close();
 	}
 
 	/**
@@ -132,19 +135,23 @@ public class DelimitedFileExporter {
 		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
 
 		for (float[] element : matrix) {
-			for (int j = 0; j < element.length; j++) {
-				writer.write(String.valueOf(element[j]));
-				if (j < element.length - 1) {
-                    writer.write(myColumnDelim);
-                }
-			}
-			writer.write(myRowDelim);
+			writeRow(writer, element);
 		}
 
 		writer.flush();
 		writer.close();
 	}
 
+	private void writeRow(BufferedWriter writer, float[] row) throws IOException {
+		for (int j = 0; j < row.length; j++) {
+			writer.write(String.valueOf(row[j]));
+			if (j < row.length - 1) {
+                writer.write(myColumnDelim);
+            }
+		}
+		writer.write(myRowDelim);
+	}
+
 	/**
 	 * Imports a delimited file as a matrix. Assumes that rows are delimited as lines, and
 	 * items in a row are delimited with one or more of the following: comma, colon, semicolon,
@@ -35,10 +35,8 @@ package ca.nengo.io;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import ca.nengo.model.Node;
 import ca.nengo.model.impl.NetworkImpl;
@@ -80,6 +78,9 @@ public class FileManager {
 	}
 
 	/**
+	 * Saves a Node in BinaryModelFormat, ie serialized but with large numeric arrays stored
+	 * separately in a form that loads quickly.
+	 *
 	 * @param node Node to serialize
 	 * @param destination File to save serialized Node in
 	 * @throws IOException if there's a problem writing to disk
@@ -103,22 +104,21 @@ public class FileManager {
 	}
 
 	private static void saveObject(Object object, File destination) throws IOException {
-		FileOutputStream fos = new FileOutputStream(destination);
-		ObjectOutputStream oos = new ObjectOutputStream(fos);
-		oos.writeObject(object);
-		oos.flush();
-		oos.close();
-		fos.close();
+		BinaryModelFormat.write(object, destination);
 	}
 
 	/**
-	 * @param source Serialized file to load
+	 * @param source Serialized file to load (either in BinaryModelFormat or a plain serialized object)
 	 * @return Object represented by the serialized file
 	 * @throws IOException if there's a problem writing to disk
 	 * @throws ClassNotFoundException if the serialized file contains classes
 	 *   not known in this context
 	 */
 	public Object load(File source) throws IOException, ClassNotFoundException {
+		if (BinaryModelFormat.isBinaryModel(source)) {
+			return BinaryModelFormat.read(source);
+		}
+
 		FileInputStream fis = new FileInputStream(source);
 
 		ObjectInputStream ois = new ObjectInputStream(fis);
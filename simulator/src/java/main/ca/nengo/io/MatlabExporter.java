@@ -33,6 +33,7 @@ import ca.nengo.plot.Plotter;
 import ca.nengo.util.MU;
 import ca.nengo.util.SpikePattern;
 import ca.nengo.util.TimeSeries;
+import ca.nengo.util.impl.SpikePatternImpl;
 
 import com.jmatio.io.MatFileWriter;
 import com.jmatio.types.MLArray;
@@ -95,9 +96,10 @@ public class MatlabExporter {
 		int n = pattern.getNumNeurons();
 		int maxSpikes = 0;
 		for (int i = 0; i < n; i++) {
-			float[] times = pattern.getSpikeTimes(i);
-			if (times.length > maxSpikes) {
-                maxSpikes = times.length;
+			int spikes = (pattern instanceof SpikePatternImpl) 
+				? ((SpikePatternImpl) pattern).getNumSpikes(i) : pattern.getSpikeTimes(i).length;
+			if (spikes > maxSpikes) {
+                maxSpikes = spikes;
             }
 		}
 		float[][] timesMatrix = new float[n][];
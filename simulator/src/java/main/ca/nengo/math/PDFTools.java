@@ -28,15 +28,25 @@ a recipient may use your version of this file under either the MPL or the GPL Li
 package ca.nengo.math;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Convenience methods for using PDFs. 
- * 
+ * <p>Convenience methods for using PDFs.</p>
+ *
+ * <p>Random numbers come from the stream that is current on the calling thread, if there is one,
+ * or otherwise from a shared generator. During a simulation, each Node is run with its own
+ * stream (see setCurrentStream()), derived from a master seed, so that results don't depend on
+ * which threads run which Nodes, and threads don't contend for a shared generator.</p>
+ *
  * @author Bryan Tripp
  */
 public class PDFTools {
 	
 	private static final Random ourRandom = new Random();
+	private static final ThreadLocal<Random> ourCurrentStream = new ThreadLocal<Random>();
+	private static final AtomicLong ourStreamCount = new AtomicLong(0);
+	private static volatile long ourSeed = System.nanoTime();
+	private static volatile int ourSeedCount = 0;
 
 	/**
 	 * Note: PDF treated as univariate (only first dimension considered). 
@@ -76,14 +86,55 @@ public class PDFTools {
 	 * @return A random sample between 0 and 1
 	 */
 	public static double random() {
-		return ourRandom.nextDouble();
+		Random stream = ourCurrentStream.get();
+		return (stream == null) ? ourRandom.nextDouble() : stream.nextDouble();
 	}
 	
 	/**
+	 * Sets the seed of the shared generator, and the master seed from which streams are derived
+	 * (streams that already exist are not changed).
+	 *
 	 * @param seed New random seed for random()
 	 */
 	public static void setSeed(long seed) {
 		ourRandom.setSeed(seed);
+		ourSeed = seed;
+		ourStreamCount.set(0);
+		ourSeedCount++;
+	}
+
+	/**
+	 * @return Number of times setSeed() has been called (so that users of streams derived from
+	 * 		the master seed can tell when they should be replaced)
+	 */
+	public static int getSeedCount() {
+		return ourSeedCount;
+	}
+
+	/**
+	 * @return A new stream, derived from the master seed and the number of streams created this
+	 * 		way since the seed was set (reproducible if streams are created in the same order)
+	 */
+	public static Random createStream() {
+		return new RandomStream(ourSeed, ourStreamCount.getAndIncrement());
+	}
+
+	/**
+	 * @param name Name of the stream's user (eg full name of a Node)
+	 * @return A new stream, derived from the master seed and the given name
+	 */
+	public static Random createStream(String name) {
+		return new RandomStream(ourSeed, name);
+	}
+
+	/**
+	 * @param stream Stream from which random() draws on this thread (null for the shared generator)
+	 * @return The stream that was previously current on this thread (so that it can be restored)
+	 */
+	public static Random setCurrentStream(Random stream) {
+		Random result = ourCurrentStream.get();
+		ourCurrentStream.set(stream);
+		return result;
 	}
 	
 }
@@ -0,0 +1,114 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "RandomStream.java". Description:
+"A splittable stream of random numbers for one component"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.math;
+
+import java.util.Random;
+
+/**
+ * <p>A stream of random numbers for use by a single component (eg one Node) at a time. Unlike
+ * java.util.Random, its state is not atomic, so it is cheap to use from one thread, but must not
+ * be shared among threads without synchronization.</p>
+ *
+ * <p>Numbers are generated with the SplitMix64 algorithm (Steele, Lea & Flood, 2014). Streams can
+ * be split, or derived from a seed and a key (eg a name), so that many statistically independent
+ * streams can be produced reproducibly from one master seed.</p>
+ */
+public class RandomStream extends Random {
+
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long myState;
+
+	/**
+	 * @param seed Seed of the stream
+	 */
+	public RandomStream(long seed) {
+		super(seed);
+		myState = seed;
+	}
+
+	/**
+	 * @param seed A master seed
+	 * @param key Distinguishes this stream from others derived from the same seed
+	 */
+	public RandomStream(long seed, long key) {
+		this(mix(seed ^ mix(key + GOLDEN_GAMMA)));
+	}
+
+	/**
+	 * @param seed A master seed
+	 * @param name Distinguishes this stream from others derived from the same seed
+	 */
+	public RandomStream(long seed, String name) {
+		this(seed, hash(name));
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed); //also called from super constructor, before fields are initialized
+		myState = seed;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		myState += GOLDEN_GAMMA;
+		return mix(myState);
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return A new stream that is independent of this one (this stream is advanced)
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong(), nextLong());
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	//64-bit FNV-1a
+	private static long hash(String name) {
+		long result = 0xCBF29CE484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			result ^= name.charAt(i);
+			result *= 0x100000001B3L;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "CompiledExpression.java". Description:
+"A postfix expression compiled into primitive instructions"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.math.impl;
+
+import java.io.Serializable;
+import java.util.List;
+
+import ca.nengo.math.Function;
+
+/**
+ * <p>A postfix expression (see PostfixFunction) compiled into a flat program of primitive
+ * instructions. Literal operands, operand placeholders, and the operators and functions of
+ * DefaultFunctionInterpreter are evaluated directly on a float stack, without boxing, and other
+ * Functions are called through map() or multiMap().</p>
+ *
+ * <p>Many points can be evaluated at once with multiMap(). In this case each instruction is
+ * applied to a block of points before the next instruction, so that the work per instruction is
+ * a simple loop over primitive arrays.</p>
+ */
+final class CompiledExpression {
+
+	static final int CONSTANT = 0;
+	static final int VARIABLE = 1;
+	static final int FUNCTION = 2;
+	//binary operations are ADD through MIN; everything after is unary
+	static final int ADD = 3;
+	static final int SUBTRACT = 4;
+	static final int MULTIPLY = 5;
+	static final int DIVIDE = 6;
+	static final int MODULO = 7;
+	static final int POWER = 8;
+	static final int LESS_THAN = 9;
+	static final int GREATER_THAN = 10;
+	static final int AND = 11;
+	static final int OR = 12;
+	static final int MAX = 13;
+	static final int MIN = 14;
+	static final int NEGATE = 15;
+	static final int NOT = 16;
+	static final int SIN = 17;
+	static final int COS = 18;
+	static final int TAN = 19;
+	static final int ASIN = 20;
+	static final int ACOS = 21;
+	static final int ATAN = 22;
+	static final int EXP = 23;
+	static final int LN = 24;
+	static final int LOG2 = 25;
+	static final int LOG10 = 26;
+	static final int SQRT = 27;
+	static final int FOLD = 28;
+
+	private static final int BLOCK_SIZE = 256; //points per block in multiMap()
+	private static final double LN2 = Math.log(2.0);
+
+	private final int[] myCodes;
+	private final int[] myArgs; //constant, variable, or function index, depending on code
+	private final float[] myConstants;
+	private final Function[] myFunctions;
+	private final int myDepth;
+
+	/**
+	 * @param expression Postfix expression list (as described in PostfixFunction)
+	 * @throws IllegalArgumentException If the expression is malformed
+	 */
+	public CompiledExpression(List<Serializable> expression) {
+		int n = expression.size();
+		myCodes = new int[n];
+		myArgs = new int[n];
+		float[] constants = new float[n];
+		Function[] functions = new Function[n];
+		int nConstants = 0;
+		int nFunctions = 0;
+
+		int depth = 0;
+		int maxDepth = 0;
+		for (int i = 0; i < n; i++) {
+			Object o = expression.get(i);
+			int arity;
+			if (o instanceof Float) {
+				myCodes[i] = CONSTANT;
+				myArgs[i] = nConstants;
+				constants[nConstants++] = ((Float) o).floatValue();
+				arity = 0;
+			} else if (o instanceof Integer) {
+				myCodes[i] = VARIABLE;
+				myArgs[i] = ((Integer) o).intValue();
+				arity = 0;
+			} else if (o instanceof Function) {
+				Function f = (Function) o;
+				myCodes[i] = DefaultFunctionInterpreter.getOpcode(f);
+				if (myCodes[i] == FUNCTION) {
+					myArgs[i] = nFunctions;
+					functions[nFunctions++] = f;
+				}
+				arity = f.getDimension();
+			} else {
+				throw new IllegalArgumentException("Expression must consist of Integers, Floats, and Functions");
+			}
+
+			if (arity > depth) {
+				throw new IllegalArgumentException("Not enough operands for " + o + " at index " + i);
+			}
+			depth = depth - arity + 1;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		if (depth < 1) {
+			throw new IllegalArgumentException("Expression is empty");
+		}
+
+		myConstants = new float[nConstants];
+		System.arraycopy(constants, 0, myConstants, 0, nConstants);
+		myFunctions = new Function[nFunctions];
+		System.arraycopy(functions, 0, myFunctions, 0, nFunctions);
+		myDepth = maxDepth;
+	}
+
+	/**
+	 * @param from Input vector
+	 * @return Value of the expression at the given input
+	 */
+	public float map(float[] from) {
+		float[] s = new float[myDepth];
+		int sp = 0;
+		int i = 0;
+
+		try {
+			for ( ; i < myCodes.length; i++) {
+				switch (myCodes[i]) {
+				case CONSTANT: s[sp++] = myConstants[myArgs[i]]; break;
+				case VARIABLE: s[sp++] = from[myArgs[i]]; break;
+				case FUNCTION:
+					Function f = myFunctions[myArgs[i]];
+					float[] args = new float[f.getDimension()];
+					sp -= args.length;
+					System.arraycopy(s, sp, args, 0, args.length);
+					s[sp++] = f.map(args);
+					break;
+				case ADD: sp--; s[sp-1] = s[sp-1] + s[sp]; break;
+				case SUBTRACT: sp--; s[sp-1] = s[sp-1] - s[sp]; break;
+				case MULTIPLY: sp--; s[sp-1] = s[sp-1] * s[sp]; break;
+				case DIVIDE: sp--; s[sp-1] = s[sp-1] / s[sp]; break;
+				case MODULO: sp--; s[sp-1] = s[sp-1] % s[sp]; break;
+				case POWER: sp--; s[sp-1] = (float) Math.pow(s[sp-1], s[sp]); break;
+				case LESS_THAN: sp--; s[sp-1] = s[sp-1] < s[sp] ? 1f : 0f; break;
+				case GREATER_THAN: sp--; s[sp-1] = s[sp-1] > s[sp] ? 1f : 0f; break;
+				case AND: sp--; s[sp-1] = (s[sp-1] > .5 && s[sp] > .5) ? 1f : 0f; break;
+				case OR: sp--; s[sp-1] = (s[sp-1] > .5 || s[sp] > .5) ? 1f : 0f; break;
+				case MAX: sp--; s[sp-1] = Math.max(s[sp-1], s[sp]); break;
+				case MIN: sp--; s[sp-1] = Math.min(s[sp-1], s[sp]); break;
+				default: s[sp-1] = unary(myCodes[i], s[sp-1]);
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to evaluate expression list at index " + i, e);
+		}
+
+		return s[sp-1]; //the top of the stack (anything below is ignored)
+	}
+
+	/**
+	 * @param from Input vectors
+	 * @return Value of the expression at each input
+	 */
+	public float[] multiMap(float[][] from) {
+		float[] result = new float[from.length];
+		float[][] s = new float[myDepth][Math.min(BLOCK_SIZE, from.length)];
+
+		for (int start = 0; start < from.length; start += BLOCK_SIZE) {
+			int len = Math.min(BLOCK_SIZE, from.length - start);
+			int sp = 0;
+			int i = 0;
+
+			try {
+				for ( ; i < myCodes.length; i++) {
+					int code = myCodes[i];
+					if (code == CONSTANT) {
+						float c = myConstants[myArgs[i]];
+						float[] r = s[sp++];
+						for (int j = 0; j < len; j++) {
+							r[j] = c;
+						}
+					} else if (code == VARIABLE) {
+						int index = myArgs[i];
+						float[] r = s[sp++];
+						for (int j = 0; j < len; j++) {
+							r[j] = from[start+j][index];
+						}
+					} else if (code == FUNCTION) {
+						Function f = myFunctions[myArgs[i]];
+						int d = f.getDimension();
+						sp -= d;
+						float[][] args = new float[len][d];
+						for (int k = 0; k < d; k++) {
+							float[] a = s[sp+k];
+							for (int j = 0; j < len; j++) {
+								args[j][k] = a[j];
+							}
+						}
+						System.arraycopy(f.multiMap(args), 0, s[sp++], 0, len);
+					} else if (code >= ADD && code <= MIN) {
+						sp--;
+						binary(code, s[sp-1], s[sp], len);
+					} else {
+						float[] r = s[sp-1];
+						for (int j = 0; j < len; j++) {
+							r[j] = unary(code, r[j]);
+						}
+					}
+				}
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to evaluate expression list at index " + i, e);
+			}
+
+			System.arraycopy(s[sp-1], 0, result, start, len);
+		}
+
+		return result;
+	}
+
+	//a = a (op) b, elementwise; one loop per operator so that each loop body is trivial
+	private static void binary(int code, float[] a, float[] b, int len) {
+		switch (code) {
+		case ADD: for (int j = 0; j < len; j++) a[j] = a[j] + b[j]; break;
+		case SUBTRACT: for (int j = 0; j < len; j++) a[j] = a[j] - b[j]; break;
+		case MULTIPLY: for (int j = 0; j < len; j++) a[j] = a[j] * b[j]; break;
+		case DIVIDE: for (int j = 0; j < len; j++) a[j] = a[j] / b[j]; break;
+		case MODULO: for (int j = 0; j < len; j++) a[j] = a[j] % b[j]; break;
+		case POWER: for (int j = 0; j < len; j++) a[j] = (float) Math.pow(a[j], b[j]); break;
+		case LESS_THAN: for (int j = 0; j < len; j++) a[j] = a[j] < b[j] ? 1f : 0f; break;
+		case GREATER_THAN: for (int j = 0; j < len; j++) a[j] = a[j] > b[j] ? 1f : 0f; break;
+		case AND: for (int j = 0; j < len; j++) a[j] = (a[j] > .5 && b[j] > .5) ? 1f : 0f; break;
+		case OR: for (int j = 0; j < len; j++) a[j] = (a[j] > .5 || b[j] > .5) ? 1f : 0f; break;
+		case MAX: for (int j = 0; j < len; j++) a[j] = Math.max(a[j], b[j]); break;
+		case MIN: for (int j = 0; j < len; j++) a[j] = Math.min(a[j], b[j]); break;
+		default: throw new IllegalStateException("Unknown binary operation " + code);
+		}
+	}
+
+	//same arithmetic as the corresponding operators and SimpleFunctions
+	private static float unary(int code, float x) {
+		switch (code) {
+		case NEGATE: return -x;
+		case NOT: return (x > .5) ? 0f : 1f;
+		case SIN: return (float) Math.sin(x);
+		case COS: return (float) Math.cos(x);
+		case TAN: return (float) Math.tan(x);
+		case ASIN: return (float) Math.asin(x);
+		case ACOS: return (float) Math.acos(x);
+		case ATAN: return (float) Math.atan(x);
+		case EXP: return (float) Math.exp(x);
+		case LN: return (float) Math.log(x);
+		case LOG2: return (float) (Math.log(x) / LN2);
+		case LOG10: return (float) Math.log10(x);
+		case SQRT: return (float) Math.sqrt(x);
+		case FOLD: return (float) (x - Math.ceil(x - 0.5f));
+		default: throw new IllegalStateException("Unknown unary operation " + code);
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "DecoderCache.java". Description:
+"An on-disk cache of pseudo-inverted gamma matrices"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.math.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>An on-disk cache of the pseudo-inverted gamma matrices from which WeightedCostApproximator
+ * finds decoders. With the same (noisy) neuron activities, cost function, and singular value
+ * limits, decoders can then be found without building or inverting gamma, which dominates the
+ * time needed to make a large ensemble.</p>
+ *
+ * <p>Entries are addressed by a hash of everything that determines the result (see getKey()),
+ * so identical ensembles (eg made with the same random seed) share an entry, and any change in
+ * neuron parameters, encoders, evaluation points, noise etc. leads to a different entry. When the
+ * total size of the cache exceeds a limit, the least recently used entries are deleted.</p>
+ */
+public class DecoderCache {
+
+	private static Logger ourLogger = Logger.getLogger(DecoderCache.class);
+
+	private static final String EXTENSION = ".ginv";
+	private static final int MAGIC = 0x47494E56; //"GINV"
+	private static final int VERSION = 1;
+
+	private final File myDirectory;
+	private final long myMaxBytes;
+
+	/**
+	 * @param directory Directory in which to store cached matrices (created if it doesn't exist)
+	 * @param maxBytes Maximum total size of cached matrices on disk
+	 */
+	public DecoderCache(File directory, long maxBytes) {
+		myDirectory = directory;
+		myMaxBytes = maxBytes;
+		myDirectory.mkdirs();
+	}
+
+	/**
+	 * @return Directory in which cached matrices are stored
+	 */
+	public File getDirectory() {
+		return myDirectory;
+	}
+
+	/**
+	 * @return Maximum total size of cached matrices on disk
+	 */
+	public long getMaxBytes() {
+		return myMaxBytes;
+	}
+
+	/**
+	 * @param method Identifies the pseudo-inverse method (eg class name)
+	 * @param values Values (with noise) from which gamma is built
+	 * @param weights Cost function at each evaluation point
+	 * @param minSV Smallest singular value used in pseudo-inverse
+	 * @param nSV Maximum number of singular values used in pseudo-inverse
+	 * @return A key that is unique to these arguments (with high probability)
+	 */
+	public static String getKey(String method, float[][] values, float[] weights, float minSV, int nSV) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 14);
+		buffer.putInt(VERSION).putInt(values.length).putInt(weights.length).putFloat(minSV).putInt(nSV);
+		for (float[] row : values) {
+			buffer = putFloats(digest, buffer, row);
+		}
+		buffer = putFloats(digest, buffer, weights);
+		digest.update(buffer.array(), 0, buffer.position());
+		try {
+			digest.update(method.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		StringBuilder result = new StringBuilder(40);
+		for (byte b : digest.digest()) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	private static ByteBuffer putFloats(MessageDigest digest, ByteBuffer buffer, float[] values) {
+		for (float value : values) {
+			if (buffer.remaining() < 4) {
+				digest.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putFloat(value);
+		}
+		return buffer;
+	}
+
+	/**
+	 * @param key Key returned by getKey()
+	 * @param n Expected dimension of the matrix
+	 * @return The cached matrix, or null if there isn't one
+	 */
+	public synchronized double[][] get(String key, int n) {
+		File file = new File(myDirectory, key + EXTENSION);
+		if (!file.exists() || getFileBytes(n) > Integer.MAX_VALUE) {
+			return null;
+		}
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				if (channel.size() != getFileBytes(n)) {
+					throw new IOException("Unexpected size");
+				}
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != n) {
+					throw new IOException("Unexpected header");
+				}
+
+				double[][] result = new double[n][n];
+				for (int i = 0; i < n; i++) {
+					buffer.asDoubleBuffer().get(result[i]);
+					buffer.position(buffer.position() + 8 * n);
+				}
+				file.setLastModified(System.currentTimeMillis()); //for LRU eviction
+				return result;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			ourLogger.warn("Can't read cached matrix " + file + "; removing it", e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a matrix, then removes least recently used matrices as needed to stay under the size
+	 * limit.
+	 *
+	 * @param key Key returned by getKey()
+	 * @param matrix A square matrix
+	 */
+	public synchronized void put(String key, double[][] matrix) {
+		int n = matrix.length;
+		if (getFileBytes(n) > Math.min(myMaxBytes, Integer.MAX_VALUE)) {
+			return;
+		}
+
+		File file = new File(myDirectory, key + EXTENSION);
+		File temp = new File(myDirectory, key + ".tmp");
+		try {
+			RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				channel.truncate(0);
+				ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(getFileBytes(n), 1 << 20)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(n);
+				for (double[] row : matrix) {
+					for (double value : row) {
+						if (buffer.remaining() < 8) {
+							write(channel, buffer);
+						}
+						buffer.putDouble(value);
+					}
+				}
+				write(channel, buffer);
+			} finally {
+				raf.close();
+			}
+
+			//written completely before it becomes visible to get()
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Can't rename " + temp);
+			}
+		} catch (IOException e) {
+			ourLogger.warn("Can't cache matrix in " + file, e);
+			temp.delete();
+			return;
+		}
+
+		evict();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static long getFileBytes(int n) {
+		return 12 + 8L * n * n;
+	}
+
+	//deletes least recently used entries until total size is within limit
+	private void evict() {
+		File[] files = myDirectory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(EXTENSION);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+
+		final long[] lastModified = new long[files.length];
+		long total = 0;
+		for (int i = 0; i < files.length; i++) {
+			total += files[i].length();
+		}
+		if (total <= myMaxBytes) {
+			return;
+		}
+
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (lastModified[a.intValue()] < lastModified[b.intValue()]) ? -1
+						: (lastModified[a.intValue()] == lastModified[b.intValue()] ? 0 : 1);
+			}
+		});
+
+		for (int i = 0; i < order.length && total > myMaxBytes; i++) {
+			File file = files[order[i].intValue()];
+			long length = file.length();
+			if (file.delete()) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Deletes all cached matrices.
+	 */
+	public synchronized void clear() {
+		File[] files = myDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(EXTENSION)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+}
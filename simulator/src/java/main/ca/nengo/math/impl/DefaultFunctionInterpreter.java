@@ -43,7 +43,8 @@ import ca.nengo.math.FunctionInterpreter;
  * <p>Default implementation of FunctionInterpreter. This implementation produces
  * PostfixFunctions.</p>
  *
- * TODO: faster Functions could be produced by compiling expressions into Java classes.
+ * <p>PostfixFunctions compile their expressions (see CompiledExpression), so that the operators
+ * and built-in functions defined here are evaluated without calls through the Function interface.</p>
  *
  * @author Bryan Tripp
  */
@@ -230,6 +231,45 @@ public class DefaultFunctionInterpreter implements FunctionInterpreter {
 	}
 
 
+	/**
+	 * @param f An operator or function that may appear in a postfix expression
+	 * @return The CompiledExpression instruction that evaluates f directly, or
+	 * 		CompiledExpression.FUNCTION if f must be called through the Function interface
+	 */
+	static int getOpcode(Function f) {
+		Class<?> c = f.getClass();
+		int result = CompiledExpression.FUNCTION;
+
+		if (c == AdditionOperator.class) result = CompiledExpression.ADD;
+		else if (c == SubtractionOperator.class) result = CompiledExpression.SUBTRACT;
+		else if (c == MultiplicationOperator.class) result = CompiledExpression.MULTIPLY;
+		else if (c == DivisionOperator.class) result = CompiledExpression.DIVIDE;
+		else if (c == ModuloOperator.class) result = CompiledExpression.MODULO;
+		else if (c == ExponentOperator.class || c == SimpleFunctions.Pow.class) result = CompiledExpression.POWER;
+		else if (c == LessThanOperator.class) result = CompiledExpression.LESS_THAN;
+		else if (c == GreaterThanOperator.class) result = CompiledExpression.GREATER_THAN;
+		else if (c == AndOperator.class) result = CompiledExpression.AND;
+		else if (c == OrOperator.class) result = CompiledExpression.OR;
+		else if (c == SimpleFunctions.Max.class) result = CompiledExpression.MAX;
+		else if (c == SimpleFunctions.Min.class) result = CompiledExpression.MIN;
+		else if (c == NegativeOperator.class) result = CompiledExpression.NEGATE;
+		else if (c == NotOperator.class) result = CompiledExpression.NOT;
+		else if (c == SimpleFunctions.Sin.class) result = CompiledExpression.SIN;
+		else if (c == SimpleFunctions.Cos.class) result = CompiledExpression.COS;
+		else if (c == SimpleFunctions.Tan.class) result = CompiledExpression.TAN;
+		else if (c == SimpleFunctions.Asin.class) result = CompiledExpression.ASIN;
+		else if (c == SimpleFunctions.Acos.class) result = CompiledExpression.ACOS;
+		else if (c == SimpleFunctions.Atan.class) result = CompiledExpression.ATAN;
+		else if (c == SimpleFunctions.Exp.class) result = CompiledExpression.EXP;
+		else if (c == SimpleFunctions.Ln.class) result = CompiledExpression.LN;
+		else if (c == SimpleFunctions.Log2.class) result = CompiledExpression.LOG2;
+		else if (c == SimpleFunctions.Log10.class) result = CompiledExpression.LOG10;
+		else if (c == SimpleFunctions.Sqrt.class) result = CompiledExpression.SQRT;
+		else if (c == SimpleFunctions.Fold.class) result = CompiledExpression.FOLD;
+
+		return result;
+	}
+
 	/************ PRIVATE OPERATOR CLASSES *********************************/
 
 	private abstract static class AbstractOperator implements Function {
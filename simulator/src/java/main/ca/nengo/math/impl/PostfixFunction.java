@@ -31,7 +31,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Stack;
 
 import org.apache.log4j.Logger;
 
@@ -50,6 +49,9 @@ import ca.nengo.math.Function;
  *
  * <p>The expression list must be given in postfix order.</p>
  *
+ * <p>The expression is compiled (see CompiledExpression) the first time it is evaluated, so that
+ * map() and especially multiMap() run without boxing or interpreting the list.</p>
+ *
  * TODO: need a way to manage user-defined functions that ensures they can be accessed from saved networks
  *
  * @author Bryan Tripp
@@ -66,6 +68,7 @@ public class PostfixFunction implements Function {
 	 */
 	private String myExpression;
 	private int myDimension;
+	private transient CompiledExpression myCompiled;
 
 	/**
 	 * @param expressionList Postfix expression list (as described in class docs)
@@ -102,6 +105,7 @@ public class PostfixFunction implements Function {
 		myDimension = dimension;
 		myExpressionList = expressionList;
 		myExpression = expression;
+		myCompiled = null;
 	}
 
 	/**
@@ -148,59 +152,36 @@ public class PostfixFunction implements Function {
 	 * @see ca.nengo.math.Function#map(float[])
 	 */
 	public float map(float[] from) {
-		return doMap(myExpressionList, myDimension, from);
+		checkDimension(from);
+		return getCompiled().map(from);
 	}
 
 	/**
 	 * @see ca.nengo.math.Function#multiMap(float[][])
 	 */
 	public float[] multiMap(float[][] from) {
-		float[] result = new float[from.length];
-
 		for (int i = 0; i < from.length; i++) {
-			result[i] = doMap(myExpressionList, myDimension, from[i]);
+			checkDimension(from[i]);
 		}
-
-		return result;
+		return getCompiled().multiMap(from);
 	}
 
-	private static float doMap(List<Serializable> expression, int dimension, float[] from) {
-		if (dimension != from.length) {
-			throw new IllegalArgumentException("Input dimension " + from.length + ", expected " + dimension);
+	private void checkDimension(float[] from) {
+		if (myDimension != from.length) {
+			throw new IllegalArgumentException("Input dimension " + from.length + ", expected " + myDimension);
 		}
+	}
 
-		float result = 0;
-		int i = 0;
-
-		try {
-			Stack<Object> stack = new Stack<Object>();
-
-			for ( ; i < expression.size(); i++) {
-				Object o = expression.get(i);
-
-				if (o instanceof Float) {
-					stack.push(o);
-				} else if (o instanceof Integer) {
-					int index = ((Integer) o).intValue();
-					stack.push(new Float(from[index]));
-				} else {
-					Function f = (Function) o;
-
-					float[] args = new float[f.getDimension()];
-					for (int dim = args.length-1; dim >= 0; dim--) {
-						args[dim] = ((Float) stack.pop()).floatValue();
-					}
-
-					stack.push(new Float(f.map(args)));
-				}
+	private CompiledExpression getCompiled() {
+		CompiledExpression result = myCompiled;
+		if (result == null) {
+			try {
+				result = new CompiledExpression(myExpressionList);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException("Unable to evaluate expression list " + myExpressionList, e);
 			}
-
-			result = ((Float) stack.pop()).floatValue();
-
-		} catch (Exception e) {
-			throw new RuntimeException("Unable to evaluate expression list at index " + i, e);
+			myCompiled = result;
 		}
-
 		return result;
 	}
 
@@ -243,6 +224,7 @@ public class PostfixFunction implements Function {
 			}
 		}
 		result.myExpressionList = list;
+		result.myCompiled = null;
 
 		return result;
 	}
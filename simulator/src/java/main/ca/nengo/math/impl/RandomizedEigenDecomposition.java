@@ -0,0 +1,279 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "RandomizedEigenDecomposition.java". Description:
+"Randomized low-rank eigendecomposition of symmetric matrices"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.math.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Truncated eigenvalue decomposition of a gamma matrix, GAMMA = A W A' / m, where A holds the
+ * values of n functions (eg neuron firing rates) at m eval points and W is a diagonal matrix of
+ * cost function weights. Only the largest eigenvalues and their eigenvectors are found, using a
+ * randomized range finder (Halko, Martinsson & Tropp, 2011). GAMMA is never formed; it is only
+ * multiplied by blocks of vectors through A, so the extra memory needed is O((n+m)k) rather than
+ * O(n^2), and the time is O(nmk) rather than O(n^2 m + n^3).</p>
+ *
+ * <p>Accuracy is controlled by oversampling (extra random vectors beyond the number of
+ * eigenvalues wanted) and power iterations (each of which sharpens the separation between
+ * retained and discarded eigenvalues at the cost of two more products with A). For the quickly
+ * decaying spectra of typical gamma matrices, about ten extra vectors and one or two power
+ * iterations give eigenvalues that are accurate to several digits.</p>
+ */
+public class RandomizedEigenDecomposition {
+
+	private static final int MIN_PARALLEL_WORK = 1 << 15; //multiply-adds below which work isn't split
+
+	private final int n;
+	private final double[] myEigenvalues;
+	private final double[][] myEigenvectors; //row j is the eigenvector of eigenvalue j
+
+	private transient ExecutorService myExecutor;
+	private transient int myNumThreads;
+
+	/**
+	 * @param values Values of each function at each eval point (n x m)
+	 * @param weights Cost function at each eval point (length m)
+	 * @param rank Number of eigenvalues to find
+	 * @param oversampling Number of random vectors used in addition to rank
+	 * @param powerIterations Number of power iterations
+	 * @param random Source of random vectors
+	 * @param numThreads Number of threads to use
+	 */
+	public RandomizedEigenDecomposition(float[][] values, float[] weights, int rank, int oversampling,
+			int powerIterations, Random random, int numThreads) {
+		n = values.length;
+		if (rank < 1 || oversampling < 0 || powerIterations < 0) {
+			throw new IllegalArgumentException("Rank must be positive, and oversampling and power iterations non-negative");
+		}
+		int k = Math.min(rank, n);
+		int l = Math.min(rank + oversampling, n);
+
+		myNumThreads = Math.max(1, numThreads);
+		if (myNumThreads > 1 && n > 1) {
+			myExecutor = Executors.newFixedThreadPool(myNumThreads - 1);
+		}
+
+		try {
+			double[][] q = new double[l][n];
+			for (int j = 0; j < l; j++) {
+				for (int i = 0; i < n; i++) {
+					q[j][i] = random.nextGaussian();
+				}
+			}
+
+			//range of GAMMA, sharpened by power iterations
+			q = multiply(values, weights, q);
+			orthonormalize(q);
+			for (int p = 0; p < powerIterations; p++) {
+				q = multiply(values, weights, q);
+				orthonormalize(q);
+			}
+
+			//GAMMA projected onto its range: B = Q' GAMMA Q
+			double[][] z = multiply(values, weights, q);
+			double[][] b = new double[l][l];
+			for (int s = 0; s < l; s++) {
+				for (int t = 0; t <= s; t++) {
+					double st = dot(q[s], z[t]);
+					double ts = dot(q[t], z[s]);
+					b[s][t] = (st + ts) / 2;
+					b[t][s] = b[s][t];
+				}
+			}
+
+			SymmetricEigenDecomposition eig = new SymmetricEigenDecomposition(b, 1);
+			double[][] u = eig.getEigenvectors();
+			myEigenvalues = new double[k];
+			System.arraycopy(eig.getEigenvalues(), 0, myEigenvalues, 0, k);
+
+			//eigenvectors of GAMMA are Q U
+			myEigenvectors = new double[k][n];
+			for (int t = 0; t < k; t++) {
+				double[] v = myEigenvectors[t];
+				for (int s = 0; s < l; s++) {
+					double c = u[s][t];
+					double[] qs = q[s];
+					for (int i = 0; i < n; i++) {
+						v[i] += c * qs[i];
+					}
+				}
+			}
+		} finally {
+			if (myExecutor != null) {
+				myExecutor.shutdown();
+				myExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * @return Largest eigenvalues, in order of decreasing absolute value
+	 */
+	public double[] getEigenvalues() {
+		return myEigenvalues;
+	}
+
+	/**
+	 * @return Matrix in which row j is a unit eigenvector corresponding to getEigenvalues()[j]
+	 */
+	public double[][] getEigenvectors() {
+		return myEigenvectors;
+	}
+
+	/**
+	 * @param minSV Smallest singular value to use
+	 * @param nSV Max number of singular values to use (all that were found if <= 0)
+	 * @return Number of singular values (absolute eigenvalues) that should be used in a pseudo-inverse
+	 */
+	public int getNumSingularValues(float minSV, int nSV) {
+		int i = 0;
+		while (i < myEigenvalues.length && Math.abs(myEigenvalues[i]) > minSV && (nSV <= 0 || i < nSV)) {
+			i++;
+		}
+		return i;
+	}
+
+	//GAMMA X, for vectors x (rows of X), as A (W (A' X)) / m
+	private double[][] multiply(final float[][] values, final float[] weights, final double[][] x) {
+		final int m = weights.length;
+		final int l = x.length;
+
+		final double[][] t = new double[l][m];
+		parallelFor(0, l, (long) n * m * l, new RangeTask() {
+			public void run(int from, int to) {
+				for (int s = from; s < to; s++) {
+					double[] xs = x[s];
+					double[] ts = t[s];
+					for (int i = 0; i < n; i++) {
+						double c = xs[i];
+						float[] a = values[i];
+						for (int j = 0; j < m; j++) {
+							ts[j] += c * a[j];
+						}
+					}
+					for (int j = 0; j < m; j++) {
+						ts[j] *= weights[j] / (double) m;
+					}
+				}
+			}
+		});
+
+		final double[][] result = new double[l][n];
+		parallelFor(0, n, (long) n * m * l, new RangeTask() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					float[] a = values[i];
+					for (int s = 0; s < l; s++) {
+						double[] ts = t[s];
+						double sum = 0;
+						for (int j = 0; j < m; j++) {
+							sum += a[j] * ts[j];
+						}
+						result[s][i] = sum;
+					}
+				}
+			}
+		});
+
+		return result;
+	}
+
+	//modified Gram-Schmidt, twice for stability; dependent vectors are set to zero
+	private static void orthonormalize(double[][] q) {
+		for (int pass = 0; pass < 2; pass++) {
+			for (int s = 0; s < q.length; s++) {
+				double before = Math.sqrt(dot(q[s], q[s]));
+				for (int t = 0; t < s; t++) {
+					double c = dot(q[t], q[s]);
+					for (int i = 0; i < q[s].length; i++) {
+						q[s][i] -= c * q[t][i];
+					}
+				}
+				double norm = Math.sqrt(dot(q[s], q[s]));
+				double scale = (norm > 1e-10 * before) ? 1 / norm : 0;
+				for (int i = 0; i < q[s].length; i++) {
+					q[s][i] *= scale;
+				}
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double result = 0;
+		for (int i = 0; i < a.length; i++) {
+			result += a[i] * b[i];
+		}
+		return result;
+	}
+
+	/*
+	 * Runs task over [start, end), split into one contiguous range per thread if there is enough
+	 * work to make this worthwhile.
+	 */
+	private void parallelFor(int start, int end, long work, final RangeTask task) {
+		int nRanges = (myExecutor == null || work < MIN_PARALLEL_WORK) ? 1 : Math.min(myNumThreads, end - start);
+		if (nRanges <= 1) {
+			task.run(start, end);
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(nRanges - 1);
+		int length = end - start;
+		for (int r = 1; r < nRanges; r++) {
+			final int from = start + (int) ((long) length * r / nRanges);
+			final int to = start + (int) ((long) length * (r + 1) / nRanges);
+			futures.add(myExecutor.submit(new Runnable() {
+				public void run() {
+					task.run(from, to);
+				}
+			}));
+		}
+		task.run(start, start + length / nRanges);
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during eigenvalue decomposition", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	private static interface RangeTask {
+		public void run(int from, int to);
+	}
+
+}
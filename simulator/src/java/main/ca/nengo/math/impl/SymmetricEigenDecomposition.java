@@ -0,0 +1,475 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "SymmetricEigenDecomposition.java". Description:
+"Multithreaded eigendecomposition of symmetric matrices"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.math.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Eigenvalue decomposition of a real symmetric matrix, A = V D V', computed in-process with
+ * multiple threads. This is used to find pseudo-inverses of symmetric matrices (such as the gamma
+ * matrices of WeightedCostApproximator), for which the singular values are the absolute values of
+ * the eigenvalues. It is several times faster than a general singular value decomposition.</p>
+ *
+ * <p>The matrix is reduced to tridiagonal form with Householder reflections, and the
+ * tridiagonal matrix is diagonalized with implicit QL iterations (as in EISPACK tred2/tql2,
+ * via the public domain JAMA package). The O(n^3) parts (matrix-vector products, rank-2
+ * updates, and accumulation of transformations) work on rows of row-major arrays, and are
+ * split among threads.</p>
+ */
+public class SymmetricEigenDecomposition {
+
+	private static final double EPS = Math.pow(2.0, -52.0);
+	private static final int MIN_PARALLEL_WORK = 1 << 15; //multiply-adds below which work isn't split
+
+	private final int n;
+	private final double[] myEigenvalues;
+	private final double[][] myEigenvectors; //column j is the eigenvector of eigenvalue j
+
+	private transient ExecutorService myExecutor;
+	private transient int myNumThreads;
+
+	/**
+	 * @param matrix A symmetric matrix (it is not changed; only its lower triangle is used)
+	 * @param numThreads Number of threads to use
+	 */
+	public SymmetricEigenDecomposition(double[][] matrix, int numThreads) {
+		n = matrix.length;
+		myNumThreads = Math.max(1, numThreads);
+		if (myNumThreads > 1 && n > 1) {
+			myExecutor = Executors.newFixedThreadPool(myNumThreads - 1);
+		}
+
+		try {
+			double[][] a = new double[n][];
+			for (int i = 0; i < n; i++) {
+				if (matrix[i].length != n) {
+					throw new IllegalArgumentException("Matrix must be square");
+				}
+				a[i] = matrix[i].clone();
+				for (int j = 0; j < i; j++) {
+					a[j][i] = a[i][j];
+				}
+			}
+
+			double[] d = new double[n];
+			double[] e = new double[n];
+			double[][] v = tridiagonalize(a, d, e);
+			diagonalize(d, e, v);
+
+			//order by magnitude, as singular values would be
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = Integer.valueOf(i);
+			}
+			final double[] values = d;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(Math.abs(values[i2.intValue()]), Math.abs(values[i1.intValue()]));
+				}
+			});
+
+			myEigenvalues = new double[n];
+			for (int j = 0; j < n; j++) {
+				myEigenvalues[j] = d[order[j].intValue()];
+			}
+			double[] row = new double[n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					row[j] = v[i][order[j].intValue()];
+				}
+				System.arraycopy(row, 0, v[i], 0, n);
+			}
+			myEigenvectors = v;
+		} finally {
+			if (myExecutor != null) {
+				myExecutor.shutdown();
+				myExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * @return Eigenvalues, in order of decreasing absolute value
+	 */
+	public double[] getEigenvalues() {
+		return myEigenvalues;
+	}
+
+	/**
+	 * @return Matrix in which column j is a unit eigenvector corresponding to getEigenvalues()[j]
+	 */
+	public double[][] getEigenvectors() {
+		return myEigenvectors;
+	}
+
+	/**
+	 * @param minSV Smallest singular value to use
+	 * @param nSV Max number of singular values to use (all if <= 0)
+	 * @return Number of singular values (absolute eigenvalues) that pseudoInverse(minSV, nSV) uses
+	 */
+	public int getNumSingularValues(float minSV, int nSV) {
+		int i = 0;
+		while (i < n && Math.abs(myEigenvalues[i]) > minSV && (nSV <= 0 || i < nSV)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @param minSV Smallest singular value to use
+	 * @param nSV Max number of singular values to use (all if <= 0)
+	 * @param numThreads Number of threads to use
+	 * @return Pseudo-inverse of the matrix, using the largest singular values only
+	 */
+	public double[][] pseudoInverse(float minSV, int nSV, int numThreads) {
+		final int k = getNumSingularValues(minSV, nSV);
+
+		//compact copies of the retained eigenvectors (as rows), one scaled by inverse eigenvalues
+		final double[][] w = new double[n][k];
+		final double[][] scaled = new double[n][k];
+		for (int i = 0; i < n; i++) {
+			for (int t = 0; t < k; t++) {
+				w[i][t] = myEigenvectors[i][t];
+				scaled[i][t] = myEigenvectors[i][t] / myEigenvalues[t];
+			}
+		}
+
+		final double[][] result = new double[n][n];
+		myNumThreads = Math.max(1, numThreads);
+		if (myNumThreads > 1 && n > 1) {
+			myExecutor = Executors.newFixedThreadPool(myNumThreads - 1);
+		}
+		try {
+			parallelFor(0, n, (long) n * n * k / 2, new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						double[] si = scaled[i];
+						for (int j = 0; j <= i; j++) {
+							double[] wj = w[j];
+							double sum = 0;
+							for (int t = 0; t < k; t++) {
+								sum += si[t] * wj[t];
+							}
+							result[i][j] = sum;
+						}
+					}
+				}
+			});
+		} finally {
+			if (myExecutor != null) {
+				myExecutor.shutdown();
+				myExecutor = null;
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				result[j][i] = result[i][j];
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Householder reduction to tridiagonal form. Reflection k zeroes row and column k beyond the
+	 * subdiagonal, and is applied to the trailing block as a symmetric rank-2 update. On return,
+	 * d holds the diagonal and e[i] the element at (i+1, i), and the returned matrix Q is the
+	 * product of reflections, so that A = Q T Q'.
+	 */
+	private double[][] tridiagonalize(final double[][] a, double[] d, double[] e) {
+		final double[][] reflections = new double[Math.max(0, n-2)][];
+		final double[] betas = new double[Math.max(0, n-2)];
+		final double[] p = new double[n];
+
+		for (int k = 0; k < n-2; k++) {
+			final int start = k + 1;
+			final int m = n - start;
+			double[] x = a[k];
+
+			double norm = 0;
+			for (int i = start; i < n; i++) {
+				norm += x[i] * x[i];
+			}
+			norm = Math.sqrt(norm);
+			double alpha = x[start] > 0 ? -norm : norm;
+
+			d[k] = x[k];
+			e[k] = alpha;
+
+			final double[] v = new double[m];
+			for (int i = 0; i < m; i++) {
+				v[i] = x[start+i];
+			}
+			v[0] -= alpha;
+			double vv = 0;
+			for (int i = 0; i < m; i++) {
+				vv += v[i] * v[i];
+			}
+			if (vv == 0) { //already reduced
+				e[k] = x[start];
+				reflections[k] = v;
+				betas[k] = 0;
+				continue;
+			}
+			final double beta = 2 / vv;
+			reflections[k] = v;
+			betas[k] = beta;
+
+			//p = beta A v over the trailing block
+			parallelFor(start, n, (long) m * m, new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						double[] row = a[i];
+						double sum = 0;
+						for (int j = 0; j < m; j++) {
+							sum += row[start+j] * v[j];
+						}
+						p[i] = beta * sum;
+					}
+				}
+			});
+
+			//w = p - (beta/2)(p'v)v, then A = A - vw' - wv'
+			double pv = 0;
+			for (int i = 0; i < m; i++) {
+				pv += p[start+i] * v[i];
+			}
+			double K = beta * pv / 2;
+			for (int i = 0; i < m; i++) {
+				p[start+i] -= K * v[i];
+			}
+			parallelFor(start, n, 2L * m * m, new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						double[] row = a[i];
+						double vi = v[i-start];
+						double wi = p[i];
+						for (int j = 0; j < m; j++) {
+							row[start+j] -= vi * p[start+j] + wi * v[j];
+						}
+					}
+				}
+			});
+		}
+
+		if (n >= 2) {
+			d[n-2] = a[n-2][n-2];
+			e[n-2] = a[n-1][n-2];
+		}
+		if (n >= 1) {
+			d[n-1] = a[n-1][n-1];
+			e[n-1] = 0;
+		}
+
+		//accumulate Q = H_0 H_1 ... H_(n-3), from the right, reusing the storage of A
+		final double[][] q = a;
+		for (int i = 0; i < n; i++) {
+			Arrays.fill(q[i], 0);
+			q[i][i] = 1;
+		}
+		final double[] u = p;
+		for (int k = n-3; k >= 0; k--) {
+			final int start = k + 1;
+			final int m = n - start;
+			final double[] v = reflections[k];
+			final double beta = betas[k];
+			if (beta == 0) {
+				continue;
+			}
+
+			//u = v'Q over the trailing block (split by column), then Q = Q - beta v u'
+			parallelFor(start, n, (long) m * m, new RangeTask() {
+				public void run(int from, int to) {
+					Arrays.fill(u, from, to, 0);
+					for (int i = 0; i < m; i++) {
+						double vi = v[i];
+						if (vi != 0) {
+							double[] row = q[start+i];
+							for (int j = from; j < to; j++) {
+								u[j] += vi * row[j];
+							}
+						}
+					}
+				}
+			});
+			parallelFor(start, n, (long) m * m, new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						double[] row = q[i];
+						double bv = beta * v[i-start];
+						for (int j = start; j < n; j++) {
+							row[j] -= bv * u[j];
+						}
+					}
+				}
+			});
+		}
+
+		return q;
+	}
+
+	/*
+	 * Symmetric tridiagonal QL algorithm with implicit shifts (after JAMA/EISPACK tql2). Each
+	 * iteration is a sequence of plane rotations. These are recorded and then applied to the
+	 * rows of the eigenvector matrix, which is done independently for each row.
+	 */
+	private void diagonalize(double[] d, double[] e, final double[][] v) {
+		final double[] cosines = new double[n];
+		final double[] sines = new double[n];
+
+		double f = 0.0;
+		double tst1 = 0.0;
+		for (int l = 0; l < n; l++) {
+			//find small subdiagonal element
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n) {
+				if (Math.abs(e[m]) <= EPS*tst1) {
+					break;
+				}
+				m++;
+			}
+
+			//if m == l, d[l] is an eigenvalue, otherwise iterate
+			if (m > l) {
+				do {
+					//compute implicit shift
+					double g = d[l];
+					double p = (d[l+1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p, 1.0);
+					if (p < 0) {
+						r = -r;
+					}
+					d[l] = e[l] / (p + r);
+					d[l+1] = e[l] * (p + r);
+					double dl1 = d[l+1];
+					double h = g - d[l];
+					for (int i = l+2; i < n; i++) {
+						d[i] -= h;
+					}
+					f = f + h;
+
+					//implicit QL transformation
+					p = d[m];
+					double c = 1.0;
+					double c2 = c;
+					double c3 = c;
+					double el1 = e[l+1];
+					double s = 0.0;
+					double s2 = 0.0;
+					for (int i = m-1; i >= l; i--) {
+						c3 = c2;
+						c2 = c;
+						s2 = s;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p, e[i]);
+						e[i+1] = s * r;
+						s = e[i] / r;
+						c = p / r;
+						p = c * d[i] - s * g;
+						d[i+1] = h + s * (c * g + s * d[i]);
+						cosines[i] = c;
+						sines[i] = s;
+					}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = c * p;
+
+					//accumulate transformation
+					final int first = l;
+					final int last = m-1;
+					parallelFor(0, n, 3L * n * (m - l), new RangeTask() {
+						public void run(int from, int to) {
+							for (int k = from; k < to; k++) {
+								double[] row = v[k];
+								for (int i = last; i >= first; i--) {
+									double c = cosines[i];
+									double s = sines[i];
+									double h = row[i+1];
+									row[i+1] = s * row[i] + c * h;
+									row[i] = c * row[i] - s * h;
+								}
+							}
+						}
+					});
+				} while (Math.abs(e[l]) > EPS*tst1); //check for convergence
+			}
+			d[l] = d[l] + f;
+			e[l] = 0.0;
+		}
+	}
+
+	/*
+	 * Runs task over [start, end), split into one contiguous range per thread if there is enough
+	 * work to make this worthwhile.
+	 */
+	private void parallelFor(int start, int end, long work, final RangeTask task) {
+		int nRanges = (myExecutor == null || work < MIN_PARALLEL_WORK) ? 1 : Math.min(myNumThreads, end - start);
+		if (nRanges <= 1) {
+			task.run(start, end);
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(nRanges - 1);
+		int length = end - start;
+		for (int r = 1; r < nRanges; r++) {
+			final int from = start + (int) ((long) length * r / nRanges);
+			final int to = start + (int) ((long) length * (r + 1) / nRanges);
+			futures.add(myExecutor.submit(new Runnable() {
+				public void run() {
+					task.run(from, to);
+				}
+			}));
+		}
+		task.run(start, start + length / nRanges);
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during eigenvalue decomposition", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	private static interface RangeTask {
+		public void run(int from, int to);
+	}
+
+}
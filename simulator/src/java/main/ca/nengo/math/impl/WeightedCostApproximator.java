@@ -29,7 +29,9 @@ a recipient may use your version of this file under either the MPL or the GPL Li
 package ca.nengo.math.impl;
 
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -38,6 +40,7 @@ import Jama.SingularValueDecomposition;
 import ca.nengo.math.ApproximatorFactory;
 import ca.nengo.math.Function;
 import ca.nengo.math.LinearApproximator;
+import ca.nengo.math.PDFTools;
 import ca.nengo.util.MU;
 import ca.nengo.util.Memory;
 
@@ -63,12 +66,29 @@ public class WeightedCostApproximator implements LinearApproximator {
 	private int mySignalLength;
 	private final boolean myQuiet;
 
-	private double[][] myGammaInverse;
+	private ValueSource myValueSource; //null unless values are streamed in blocks
+	private int myBlockSize;
+	private float myNoiseSD;
+	private long myNoiseSeed;
+
+	private double[][] myGammaInverse; //null if a low-rank pseudo-inverse is used
+	private double[][] myGammaVectors; //retained eigenvectors of gamma (rows) in a low-rank pseudo-inverse
+	private double[] myGammaInverseValues; //inverses of the retained eigenvalues
 
 	private static boolean myUseGPU = false;
 	private static boolean canUseGPU;
 	private static String myGPUErrorMessage;
 
+	private static final int GAMMA_BLOCK_SIZE = 64; //rows/columns of gamma per task
+	private static final int GAMMA_EVAL_BLOCK_SIZE = 1024; //eval points per pass over a block
+	private static int myNumThreads = Runtime.getRuntime().availableProcessors();
+	private static boolean myUseExternalPseudoInverse = false;
+	private static DecoderCache myDecoderCache = null;
+	private static boolean myUseRandomizedSVD = false;
+	private static int myOversampling = 10;
+	private static int myPowerIterations = 2;
+	private static final long RANDOMIZED_SVD_SEED = 1; //decoders don't depend on other use of random numbers
+
 	static {
 		try{
 			System.loadLibrary("NengoUtilsGPU");
@@ -107,6 +127,92 @@ public class WeightedCostApproximator implements LinearApproximator {
 		return canUseGPU && myUseGPU;
 	}
 	
+	/**
+	 * @param numThreads Number of threads used to build the gamma matrix on the CPU
+	 */
+	public static void setNumThreads(int numThreads) {
+		myNumThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * @return Number of threads used to build the gamma matrix on the CPU
+	 */
+	public static int getNumThreads() {
+		return myNumThreads;
+	}
+
+	/**
+	 * @param use Use the external pseudoInverse program (in ./external), if it exists, rather than
+	 * 		finding pseudo-inverses in-process?
+	 */
+	public static void setUseExternalPseudoInverse(boolean use) {
+		myUseExternalPseudoInverse = use;
+	}
+
+	/**
+	 * @return Using the external pseudoInverse program?
+	 */
+	public static boolean getUseExternalPseudoInverse() {
+		return myUseExternalPseudoInverse;
+	}
+
+	/**
+	 * @param cache A cache of pseudo-inverted gamma matrices that is checked before gamma is
+	 * 		built, and updated after it is inverted (null to disable caching)
+	 */
+	public static void setDecoderCache(DecoderCache cache) {
+		myDecoderCache = cache;
+	}
+
+	/**
+	 * @return Cache of pseudo-inverted gamma matrices (null if caching is disabled)
+	 */
+	public static DecoderCache getDecoderCache() {
+		return myDecoderCache;
+	}
+
+	/**
+	 * @param use Find a low-rank pseudo-inverse of gamma with a randomized eigenvalue decomposition
+	 * 		(see RandomizedEigenDecomposition) when the number of singular values is limited to fewer
+	 * 		than the number of functions? This is much faster for large ensembles, and gamma is
+	 * 		neither built nor stored (so pseudo-inverses found this way aren't cached).
+	 */
+	public static void setUseRandomizedSVD(boolean use) {
+		myUseRandomizedSVD = use;
+	}
+
+	/**
+	 * @return Using a randomized decomposition when the number of singular values is limited?
+	 */
+	public static boolean getUseRandomizedSVD() {
+		return myUseRandomizedSVD;
+	}
+
+	/**
+	 * @param oversampling Number of random vectors used in a randomized decomposition, in addition
+	 * 		to the number of singular values wanted (more is more accurate)
+	 * @param powerIterations Number of power iterations in a randomized decomposition (more is
+	 * 		more accurate)
+	 */
+	public static void setRandomizedSVDAccuracy(int oversampling, int powerIterations) {
+		myOversampling = Math.max(0, oversampling);
+		myPowerIterations = Math.max(0, powerIterations);
+	}
+
+	/**
+	 * @return Number of extra random vectors used in a randomized decomposition
+	 */
+	public static int getRandomizedSVDOversampling() {
+		return myOversampling;
+	}
+
+	/**
+	 * @return Number of power iterations in a randomized decomposition
+	 */
+	public static int getRandomizedSVDPowerIterations() {
+		return myPowerIterations;
+	}
+
 	public static boolean canUseGPU() {
 		return canUseGPU;
 	}
@@ -240,6 +346,89 @@ public class WeightedCostApproximator implements LinearApproximator {
 		this(evaluationPoints, values, costFunction, noise, nSV, false);
 	}
 	
+	/**
+	 * Streams values in blocks of eval points, rather than storing them. Gamma is accumulated
+	 * over blocks (each split among threads), and values are generated again when coefficients
+	 * are found, so memory use is O(n^2 + n*blockSize) for n functions, regardless of the number
+	 * of eval points. Noise is drawn from a separate seeded generator for each block, so it is the
+	 * same each time a block is generated.
+	 *
+	 * @param evaluationPoints As in other constructors
+	 * @param values Source of the values of the component functions at the eval points
+	 * @param blockSize Number of eval points in each block
+	 * @param costFunction As in other constructors
+	 * @param noise As in other constructors
+	 * @param nSV As in other constructors
+	 * @param quiet Turn off logging?
+	 */
+	public WeightedCostApproximator(float[][] evaluationPoints, ValueSource values, int blockSize, Function costFunction, float noise, int nSV, boolean quiet) {
+		assert MU.isMatrix(evaluationPoints);
+
+		myEvalPoints = evaluationPoints;
+		myValues = null;
+		myValueSource = values;
+		myBlockSize = Math.max(1, blockSize);
+		myNoiseSeed = (long) (PDFTools.random() * Long.MAX_VALUE);
+		myQuiet = quiet;
+		mySignalLength = -1;
+		myCostFunction = costFunction;
+
+		//noise is proportional to the largest value, so this is found first
+		float maxValue = 0f;
+		int n = 0;
+		for (int start = 0; start < myEvalPoints.length; start += myBlockSize) {
+			float[][] block = getBlockValues(start);
+			n = block.length;
+			for (float[] row : block) {
+				for (float value : row) {
+					maxValue = Math.max(maxValue, Math.abs(value));
+				}
+			}
+		}
+		myNoiseSD = noise * maxValue;
+
+		if(!myQuiet) {
+            Memory.report("before gamma");
+        }
+		float[] weights = getWeights();
+		double[][] gamma = new double[n][n];
+		for (int start = 0; start < myEvalPoints.length; start += myBlockSize) {
+			float[][] block = getNoisyBlockValues(start);
+			float[] blockWeights = new float[block[0].length];
+			System.arraycopy(weights, start, blockWeights, 0, blockWeights.length);
+			addGamma(block, blockWeights, gamma, myNumThreads);
+		}
+		finishGamma(gamma, myEvalPoints.length);
+
+		if(!myQuiet) {
+            Memory.report("before inverse");
+        }
+		myGammaInverse = pseudoInverse(gamma, myNoiseSD*myNoiseSD, nSV);
+		if(!myQuiet) {
+            Memory.report("after inverse");
+        }
+	}
+
+	private float[][] getBlockValues(int start) {
+		int end = Math.min(start + myBlockSize, myEvalPoints.length);
+		float[][] points = new float[end - start][];
+		System.arraycopy(myEvalPoints, start, points, 0, points.length);
+		return myValueSource.getValues(points);
+	}
+
+	private float[][] getNoisyBlockValues(int start) {
+		float[][] result = getBlockValues(start);
+		if (myNoiseSD > 0) {
+			Random random = new Random(myNoiseSeed + start);
+			for (float[] row : result) {
+				for (int j = 0; j < row.length; j++) {
+					row[j] += (float) (myNoiseSD * random.nextGaussian());
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Calculate the gamma matrix.
 	 * 
@@ -248,6 +437,27 @@ public class WeightedCostApproximator implements LinearApproximator {
 	 *      decomposition (SVD)
 	 */
 	private void calcGamma(float absNoiseSD, int nSV) {
+		float[] weights = getWeights();
+		if (myUseRandomizedSVD && !getUseGPU() && nSV > 0 && nSV + myOversampling < myNoisyValues.length) {
+			calcLowRankGammaInverse(weights, absNoiseSD*absNoiseSD, nSV);
+			return;
+		}
+
+		DecoderCache cache = myDecoderCache;
+		String key = null;
+		if (cache != null) {
+			//the GPU and external solvers give slightly different results, so they are cached separately
+			String method = getClass().getName() + ":gpu=" + getUseGPU() + ":external=" + getUseExternalPseudoInverse();
+			key = DecoderCache.getKey(method, myNoisyValues, weights, absNoiseSD*absNoiseSD, nSV);
+			myGammaInverse = cache.get(key, myNoisyValues.length);
+			if (myGammaInverse != null) {
+				if(!myQuiet) {
+	                ourLogger.info("Using cached pseudo-inverse " + key);
+	            }
+				return;
+			}
+		}
+
 		if(!myQuiet) {
             Memory.report("before gamma");
         }
@@ -264,7 +474,7 @@ public class WeightedCostApproximator implements LinearApproximator {
 				}
 			}
 		}else{
-			double[][] gamma = findGamma();
+			double[][] gamma = findGamma(myNoisyValues, weights, myNumThreads);
 			if(!myQuiet) {
                 Memory.report("before inverse");
             }
@@ -274,6 +484,27 @@ public class WeightedCostApproximator implements LinearApproximator {
             }
 
 		}
+
+		if (cache != null) {
+			cache.put(key, myGammaInverse);
+		}
+	}
+
+	//finds the largest eigenvalues of gamma without building it, and keeps them in place of the pseudo-inverse
+	private void calcLowRankGammaInverse(float[] weights, float minSV, int nSV) {
+		RandomizedEigenDecomposition eig = new RandomizedEigenDecomposition(myNoisyValues, weights, nSV,
+				myOversampling, myPowerIterations, new Random(RANDOMIZED_SVD_SEED), myNumThreads);
+		int k = eig.getNumSingularValues(minSV, nSV);
+		if(!myQuiet) {
+			ourLogger.info("Using " + k + " singular values for low-rank pseudo-inverse");
+		}
+
+		myGammaVectors = new double[k][];
+		myGammaInverseValues = new double[k];
+		for (int t = 0; t < k; t++) {
+			myGammaVectors[t] = eig.getEigenvectors()[t];
+			myGammaInverseValues[t] = 1 / eig.getEigenvalues()[t];
+		}
 	}
 
 	private float addNoise(float[][] values, float noise) {
@@ -336,9 +567,24 @@ public class WeightedCostApproximator implements LinearApproximator {
 	 * @see ca.nengo.math.LinearApproximator#getValues()
 	 */
     public float[][] getValues() {
+		if (myValueSource != null) {
+			//all values are generated at once here
+			float[][] result = new float[getNumFunctions()][myEvalPoints.length];
+			for (int start = 0; start < myEvalPoints.length; start += myBlockSize) {
+				float[][] block = getBlockValues(start);
+				for (int i = 0; i < result.length; i++) {
+					System.arraycopy(block[i], 0, result[i], start, block[i].length);
+				}
+			}
+			return result;
+		}
 		return myValues;
 	}
 
+	private int getNumFunctions() {
+		return (myGammaInverse != null) ? myGammaInverse.length : myNoisyValues.length;
+	}
+
 //	private static void testPlot(float[][] evaluationPoints, float[][] values) {
 //		XYSeriesCollection dataset = new XYSeriesCollection();
 //		for (int i = 0; i < values.length; i++) {
@@ -368,12 +614,73 @@ public class WeightedCostApproximator implements LinearApproximator {
 	/**
 	 * Override this method to use a different pseudoinverse implementation (eg clustered).
 	 *
+	 * Symmetric matrices (such as gamma) are inverted in-process with a multithreaded eigenvalue
+	 * decomposition (their singular values are the absolute eigenvalues), and other matrices with
+	 * a singular value decomposition. An external pseudoInverse program is used instead if
+	 * enabled with setUseExternalPseudoInverse(true).
+	 *
 	 * @param matrix Any matrix
 	 * @param minSV Hint as to smallest singular value to use
 	 * @param nSV Max number of singular values to use
 	 * @return The pseudoinverse of the given matrix
 	 */
 	public double[][] pseudoInverse(double[][] matrix, float minSV, int nSV) {
+		double[][] result = null;
+
+		if (myUseExternalPseudoInverse) {
+			result = externalPseudoInverse(matrix, minSV, nSV);
+		}
+
+		if (result == null && isSymmetric(matrix)) {
+			SymmetricEigenDecomposition eig = new SymmetricEigenDecomposition(matrix, myNumThreads);
+			if(!myQuiet) {
+                ourLogger.info("Using " + eig.getNumSingularValues(minSV, nSV) + " singular values for pseudo-inverse");
+            }
+			result = eig.pseudoInverse(minSV, nSV, myNumThreads);
+		}
+
+		if (result==null) {
+
+			Matrix m = new Matrix(matrix);
+			SingularValueDecomposition svd = m.svd();
+			Matrix sInv = svd.getS().inverse();
+
+			int i = 0;
+			while (i < svd.getS().getRowDimension() && svd.getS().get(i, i) > minSV && (nSV <= 0 || i < nSV)) {
+                i++;
+            }
+
+			if(!myQuiet) {
+                ourLogger.info("Using " + i + " singular values for pseudo-inverse");
+            }
+
+			for (int j = i; j < matrix.length; j++) {
+				sInv.set(j, j, 0d);
+			}
+
+			result = svd.getV().times(sInv).times(svd.getU().transpose()).getArray();
+
+		}
+
+		return result;
+	}
+
+	private static boolean isSymmetric(double[][] matrix) {
+		for (int i = 0; i < matrix.length; i++) {
+			if (matrix[i].length != matrix.length) {
+				return false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (matrix[i][j] != matrix[j][i]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	//runs external/pseudoInverse if it exists, exchanging matrices through temporary files
+	private double[][] externalPseudoInverse(double[][] matrix, float minSV, int nSV) {
 		double[][] result=null;
 
 		Random random=new Random();
@@ -489,64 +796,177 @@ public class WeightedCostApproximator implements LinearApproximator {
             }
         }
 
-		if (result==null) {
+		return result;
+	}
 
-			Matrix m = new Matrix(matrix);
-			SingularValueDecomposition svd = m.svd();
-			Matrix sInv = svd.getS().inverse();
+	/**
+	 * <p>This implementation is adapted from Eliasmith & Anderson, 2003, appendix A.</p>
+	 *
+	 * <p>It solves PHI = GAMMA" UPSILON, where " denotes pseudoinverse, UPSILON_i = < cost(x) x a_i(x) >,
+	 * and GAMMA_ij = < cost(x) a_i(x) a_j(x) >. <> denotes integration (the sum over eval points). </p>
+	 *
+	 * @see ca.nengo.math.LinearApproximator#findCoefficients(ca.nengo.math.Function)
+	 */
+    public float[] findCoefficients(Function target) {
+		float[][] coefficients = findCoefficients(new Function[]{target});
+		float[] result = new float[coefficients.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = coefficients[i][0];
+		}
+		return result;
+	}
 
-			int i = 0;
-			while (i < svd.getS().getRowDimension() && svd.getS().get(i, i) > minSV && (nSV <= 0 || i < nSV)) {
-                i++;
-            }
+	/**
+	 * Finds coefficients for several target functions at once. The targets and the cost function
+	 * are evaluated once per eval point, UPSILON is found for all targets in a single pass over
+	 * the values, and the pseudo-inverse of GAMMA is applied to all of them together. The result
+	 * is the same as calling findCoefficients(Function) for each target.
+	 *
+	 * @param targets Functions to approximate
+	 * @return Coefficients, indexed by component function (eg neuron) then target, so that
+	 * 		result[i][j] is the weight on the ith function in the approximation of the jth target
+	 */
+	public float[][] findCoefficients(Function[] targets) {
+		if(mySignalLength != -1)
+			System.err.println("Warning, finding coefficients using a function on WeightedCostApproximator initialized with signals");
+
+		//target values are stored by eval point, so that each point's values are adjacent
+		float[][] targetValues = new float[myEvalPoints.length][targets.length];
+		for (int f = 0; f < targets.length; f++) {
+			float[] values = targets[f].multiMap(myEvalPoints);
+			for (int j = 0; j < targetValues.length; j++) {
+				targetValues[j][f] = values[j];
+			}
+		}
 
-			if(!myQuiet) {
-                ourLogger.info("Using " + i + " singular values for pseudo-inverse");
-            }
+		return findCoefficients(targetValues);
+	}
 
-			for (int j = i; j < matrix.length; j++) {
-				sInv.set(j, j, 0d);
+	//finds coefficients for target values (by eval point, then target)
+	private float[][] findCoefficients(float[][] targetValues) {
+		int n = getNumFunctions();
+		int m = myEvalPoints.length;
+		int k = (m == 0) ? 0 : targetValues[0].length;
+
+		float[] weights = getWeights();
+		float[][] upsilon = new float[n][k];
+		if (myValueSource == null) {
+			addUpsilon(myNoisyValues, 0, weights, targetValues, upsilon);
+		} else {
+			for (int start = 0; start < m; start += myBlockSize) {
+				addUpsilon(getNoisyBlockValues(start), start, weights, targetValues, upsilon);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			for (int f = 0; f < k; f++) {
+				upsilon[i][f] = upsilon[i][f] / m;
 			}
+		}
 
-			result = svd.getV().times(sInv).times(svd.getU().transpose()).getArray();
+		return applyGammaInverse(upsilon);
+	}
+
+	//adds sums for values at eval points from start (over the length of the values)
+	private static void addUpsilon(float[][] values, int start, float[] weights, float[][] targetValues, float[][] upsilon) {
+		for (int i = 0; i < upsilon.length; i++) {
+			float[] row = values[i];
+			float[] upsilonRow = upsilon[i];
+			for (int j = 0; j < row.length; j++) {
+				float value = row[j];
+				float weight = weights[start + j];
+				float[] targetRow = targetValues[start + j];
+				for (int f = 0; f < upsilonRow.length; f++) {
+					upsilonRow[f] += value * targetRow[f] * weight;
+				}
+			}
+		}
+	}
+
+	//multiplies the pseudo-inverse of gamma by upsilon (one column per target)
+	private float[][] applyGammaInverse(float[][] upsilon) {
+		int n = upsilon.length;
+		int k = (n == 0) ? 0 : upsilon[0].length;
+		float[][] result = new float[n][k];
+
+		if (myGammaInverse == null) {
+			//V diag(1/s) V' upsilon, with V the retained eigenvectors
+			double[][] projections = new double[myGammaVectors.length][k];
+			for (int t = 0; t < projections.length; t++) {
+				double[] vector = myGammaVectors[t];
+				double[] projection = projections[t];
+				for (int i = 0; i < n; i++) {
+					for (int f = 0; f < k; f++) {
+						projection[f] += vector[i] * upsilon[i][f];
+					}
+				}
+				for (int f = 0; f < k; f++) {
+					projection[f] *= myGammaInverseValues[t];
+				}
+			}
 
+			double[] sums = new double[k];
+			for (int i = 0; i < n; i++) {
+				Arrays.fill(sums, 0);
+				for (int t = 0; t < projections.length; t++) {
+					double v = myGammaVectors[t][i];
+					for (int f = 0; f < k; f++) {
+						sums[f] += v * projections[t][f];
+					}
+				}
+				for (int f = 0; f < k; f++) {
+					result[i][f] = (float) sums[f];
+				}
+			}
+			return result;
+		}
+
+		for (int i = 0; i < n; i++) {
+			double[] gammaInverseRow = myGammaInverse[i];
+			float[] resultRow = result[i];
+			for (int j = 0; j < n; j++) {
+				double g = gammaInverseRow[j];
+				float[] upsilonRow = upsilon[j];
+				for (int f = 0; f < k; f++) {
+					resultRow[f] += g * upsilonRow[f];
+				}
+			}
 		}
 
 		return result;
 	}
 
 	/**
-	 * <p>This implementation is adapted from Eliasmith & Anderson, 2003, appendix A.</p>
-	 *
-	 * <p>It solves PHI = GAMMA" UPSILON, where " denotes pseudoinverse, UPSILON_i = < cost(x) x a_i(x) >,
-	 * and GAMMA_ij = < cost(x) a_i(x) a_j(x) >. <> denotes integration (the sum over eval points). </p>
+	 * Provides an approximator with the same component functions (eg neuron activities) at
+	 * different eval points, for example when an ensemble's radii change. GAMMA depends only on
+	 * the values and the cost function, so if the cost is the same at the new points, its
+	 * pseudo-inverse (the expensive part of a new approximator) is shared rather than recomputed.
 	 *
-	 * @see ca.nengo.math.LinearApproximator#findCoefficients(ca.nengo.math.Function)
+	 * @param evaluationPoints New eval points (one in place of each of the old ones)
+	 * @return An approximator at the new points, or null if the cost differs at the new points
 	 */
-    public float[] findCoefficients(Function target) {
-    	if(mySignalLength != -1)
-    		System.err.println("Warning, finding coefficients using a function on WeightedCostApproximator initialized with signals");
-    	
-		float[] targetValues = new float[myEvalPoints.length];
-		for (int i = 0; i < targetValues.length; i++) {
-			targetValues[i] = target.map(myEvalPoints[i]);
+	public WeightedCostApproximator copyWithEvalPoints(float[][] evaluationPoints) {
+		if (myValueSource != null) {
+			return null; //the source provides values at any points, so they can't be assumed to be unchanged
+		}
+		if (evaluationPoints.length != myEvalPoints.length) {
+			throw new IllegalArgumentException("Expected " + myEvalPoints.length + " eval points, got " + evaluationPoints.length);
 		}
 
-		float[] upsilon = new float[myNoisyValues.length];
-		for (int i = 0; i < myNoisyValues.length; i++) {
-			for (int j = 0; j < myEvalPoints.length; j++) {
-				upsilon[i] += myNoisyValues[i][j] * targetValues[j] * myCostFunction.map(myEvalPoints[j]);
-			}
-			upsilon[i] = upsilon[i] / myEvalPoints.length;
+		WeightedCostApproximator result;
+		try {
+			result = (WeightedCostApproximator) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
 		}
+		result.myEvalPoints = evaluationPoints;
 
-		float[] result = new float[myNoisyValues.length];
-		for (int i = 0; i < myNoisyValues.length; i++) {
-			for (int j = 0; j < myNoisyValues.length; j++) {
-				result[i] += myGammaInverse[i][j] * upsilon[j];
+		float[] oldWeights = getWeights();
+		float[] newWeights = result.getWeights();
+		for (int i = 0; i < oldWeights.length; i++) {
+			if (oldWeights[i] != newWeights[i]) {
+				return null;
 			}
 		}
-
 		return result;
 	}
     
@@ -573,48 +993,160 @@ public class WeightedCostApproximator implements LinearApproximator {
     	}
     	
     	//repeat target signal however many times were used to generate the evalPoints (to match the number of evaluation signals)
-    	float[] targetValues = new float[myEvalPoints.length];
+    	float[][] targetValues = new float[myEvalPoints.length][1];
     	int numRepeat = myEvalPoints.length/mySignalLength;
     	for(int i=0; i < numRepeat; i++)
     	{
     		for(int j=0; j < mySignalLength; j++)
-    			targetValues[i*mySignalLength+j] = targetSignal[j];
+    			targetValues[i*mySignalLength+j][0] = targetSignal[j];
     	}
-    	
-    	float[] upsilon = new float[myNoisyValues.length];
-		for (int i = 0; i < myNoisyValues.length; i++) {
-			for (int j = 0; j < myEvalPoints.length; j++) {
-				upsilon[i] += myNoisyValues[i][j] * targetValues[j] * myCostFunction.map(myEvalPoints[j]);
-			}
-			upsilon[i] = upsilon[i] / myEvalPoints.length;
+
+		float[][] coefficients = findCoefficients(targetValues);
+		float[] result = new float[coefficients.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = coefficients[i][0];
 		}
+		return result;
+    }
 
-		float[] result = new float[myNoisyValues.length];
-		for (int i = 0; i < myNoisyValues.length; i++) {
-			for (int j = 0; j < myNoisyValues.length; j++) {
-				result[i] += myGammaInverse[i][j] * upsilon[j];
-			}
+	private float[] getWeights() {
+		float[] weights = new float[myEvalPoints.length];
+		for (int k = 0; k < weights.length; k++) {
+			weights[k] = myCostFunction.map(myEvalPoints[k]);
 		}
+		return weights;
+	}
 
+	/**
+	 * Finds the gamma matrix, GAMMA_ij = < cost(x) a_i(x) a_j(x) >, where <> denotes the mean over
+	 * eval points.
+	 *
+	 * The matrix is symmetric, so only the lower triangle is computed, in square blocks that are
+	 * shared among threads. Within a block, the eval points are processed in chunks so that the
+	 * rows involved stay in cache.
+	 *
+	 * @param values Values of each function (eg neuron firing rates) at each eval point
+	 * @param weights Cost function at each eval point
+	 * @param numThreads Number of threads to use
+	 * @return The gamma matrix
+	 */
+	public static double[][] findGamma(float[][] values, float[] weights, int numThreads) {
+		double[][] result = new double[values.length][values.length];
+		addGamma(values, weights, result, numThreads);
+		finishGamma(result, weights.length);
 		return result;
-    }
+	}
+
+	/**
+	 * Adds sums over eval points to the lower triangle of an unfinished gamma matrix, so that it
+	 * can be accumulated over blocks of eval points.
+	 *
+	 * @param values Values of each function at each eval point in a block
+	 * @param weights Cost function at each eval point in the block
+	 * @param result Sums for previous blocks, to which sums for this block are added
+	 * @param numThreads Number of threads to use
+	 */
+	public static void addGamma(final float[][] values, final float[] weights, final double[][] result, int numThreads) {
+		final int n = values.length;
+
+		final int nBlocks = (n + GAMMA_BLOCK_SIZE - 1) / GAMMA_BLOCK_SIZE;
+		final int nTasks = nBlocks * (nBlocks + 1) / 2;
+		final AtomicInteger nextTask = new AtomicInteger(0);
+		final Throwable[] failure = new Throwable[1];
+
+		//blocks near the diagonal are cheaper, so threads take tasks as they become free
+		Runnable worker = new Runnable() {
+			public void run() {
+				try {
+					float[] weighted = new float[GAMMA_EVAL_BLOCK_SIZE];
+					int task;
+					while ((task = nextTask.getAndIncrement()) < nTasks) {
+						int rowBlock = (int) ((Math.sqrt(8d * task + 1) - 1) / 2);
+						while (rowBlock * (rowBlock + 1) / 2 > task) {
+							rowBlock--;
+						}
+						while ((rowBlock + 1) * (rowBlock + 2) / 2 <= task) {
+							rowBlock++;
+						}
+						int colBlock = task - rowBlock * (rowBlock + 1) / 2;
+						addGammaBlock(values, weights, result, rowBlock * GAMMA_BLOCK_SIZE, colBlock * GAMMA_BLOCK_SIZE, weighted);
+					}
+				} catch (Throwable t) {
+					synchronized (failure) {
+						failure[0] = t;
+					}
+					nextTask.set(nTasks);
+				}
+			}
+		};
+
+		int nThreads = Math.max(1, Math.min(numThreads, nTasks));
+		Thread[] threads = new Thread[nThreads - 1];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(worker, "Gamma " + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		worker.run();
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while finding gamma matrix", e);
+			}
+		}
 
-	private double[][] findGamma() {
+		synchronized (failure) {
+			if (failure[0] instanceof RuntimeException) {
+				throw (RuntimeException) failure[0];
+			} else if (failure[0] != null) {
+				throw new RuntimeException(failure[0]);
+			}
+		}
 
-		double[][] result = new double[myNoisyValues.length][];
-//		double[][] nativeResult = new double[myNoisyValues.length][];
+	}
 
+	/**
+	 * Takes the mean of sums accumulated with addGamma(), and copies the lower triangle to the upper.
+	 *
+	 * @param result Sums from addGamma(), which become the gamma matrix
+	 * @param nEvalPoints Total number of eval points over which sums were accumulated
+	 */
+	public static void finishGamma(double[][] result, int nEvalPoints) {
 		for (int i = 0; i < result.length; i++) {
-			result[i] = new double[myNoisyValues.length];
-			for (int j = 0; j < result[i].length; j++) {
-				for (int k = 0; k < myEvalPoints.length; k++) {
-					result[i][j] += myNoisyValues[i][k] * myNoisyValues[j][k] * myCostFunction.map(myEvalPoints[k]);
-				}
-				result[i][j] = result[i][j] / myEvalPoints.length;
+			for (int j = 0; j <= i; j++) {
+				result[i][j] = result[i][j] / nEvalPoints;
+				result[j][i] = result[i][j];
 			}
 		}
+	}
 
-		return result;
+	//adds the sums over eval points for one block of the lower triangle of gamma
+	private static void addGammaBlock(float[][] values, float[] weights, double[][] result, int rowStart, int colStart, float[] weighted) {
+		int rowEnd = Math.min(rowStart + GAMMA_BLOCK_SIZE, values.length);
+		int colEnd = Math.min(colStart + GAMMA_BLOCK_SIZE, values.length);
+
+		for (int kStart = 0; kStart < weights.length; kStart += GAMMA_EVAL_BLOCK_SIZE) {
+			int kEnd = Math.min(kStart + GAMMA_EVAL_BLOCK_SIZE, weights.length);
+			for (int i = rowStart; i < rowEnd; i++) {
+				float[] a = values[i];
+				for (int k = kStart; k < kEnd; k++) {
+					weighted[k - kStart] = a[k] * weights[k];
+				}
+
+				double[] resultRow = result[i];
+				int lastCol = Math.min(colEnd, i + 1);
+				for (int j = colStart; j < lastCol; j++) {
+					float[] b = values[j];
+					double sum = 0;
+					for (int k = kStart; k < kEnd; k++) {
+						sum += weighted[k - kStart] * b[k];
+					}
+					resultRow[j] += sum;
+				}
+			}
+		}
 	}
 
 	@Override
@@ -623,17 +1155,41 @@ public class WeightedCostApproximator implements LinearApproximator {
 
 		result.myCostFunction = myCostFunction.clone();
 		result.myEvalPoints = MU.clone(myEvalPoints);
-		result.myNoisyValues = MU.clone(myNoisyValues);
+		if (myNoisyValues != null) {
+			result.myNoisyValues = MU.clone(myNoisyValues);
+		}
 
-		result.myGammaInverse = new double[myGammaInverse.length][];
-		for (int i = 0; i < myGammaInverse.length; i++) {
-			result.myGammaInverse[i] = myGammaInverse[i].clone();
+		if (myGammaInverse != null) {
+			result.myGammaInverse = new double[myGammaInverse.length][];
+			for (int i = 0; i < myGammaInverse.length; i++) {
+				result.myGammaInverse[i] = myGammaInverse[i].clone();
+			}
+		} else {
+			result.myGammaVectors = new double[myGammaVectors.length][];
+			for (int t = 0; t < myGammaVectors.length; t++) {
+				result.myGammaVectors[t] = myGammaVectors[t].clone();
+			}
+			result.myGammaInverseValues = myGammaInverseValues.clone();
 		}
 
 		return result;
 	}
 
 
+	/**
+	 * Provides values of component functions (eg neuron firing rates) at eval points as they are
+	 * needed, so that they don't have to be stored.
+	 */
+	public static interface ValueSource extends java.io.Serializable {
+
+		/**
+		 * @param evalPoints Some eval points
+		 * @return Values of each component function at each of the given points
+		 */
+		public float[][] getValues(float[][] evalPoints);
+
+	}
+
 	/**
 	 * An ApproximatorFactory that produces WeightedCostApproximators.
 	 *
@@ -646,6 +1202,7 @@ public class WeightedCostApproximator implements LinearApproximator {
 		private float myNoise;
 		private int myNSV;
 		private boolean myQuiet;
+		private int myBlockSize;
 
 		/**
 		 * @param noise Random noise to add to component functions (proportion of largest value over all functions)
@@ -729,12 +1286,43 @@ public class WeightedCostApproximator implements LinearApproximator {
 		}
 
 
+		/**
+		 * @return Number of eval points per block when values are streamed (zero or less means
+		 * 		values are not streamed)
+		 */
+		public int getBlockSize() {
+			return myBlockSize;
+		}
+
+		/**
+		 * @param blockSize Number of eval points per block when values are streamed from a
+		 * 		ValueSource (zero or less means values are not streamed). Streaming saves memory
+		 * 		when there are many eval points, at the cost of generating values more than once.
+		 */
+		public void setBlockSize(int blockSize) {
+			myBlockSize = blockSize;
+		}
+
 		/**
 		 * @see ca.nengo.math.ApproximatorFactory#getApproximator(float[][], float[][])
 		 */
         public LinearApproximator getApproximator(float[][] evalPoints, float[][] values) {
 			return new WeightedCostApproximator(evalPoints, values, getCostFunction(evalPoints[0].length), myNoise, myNSV, myQuiet);
 		}
+
+		/**
+		 * @param evalPoints Points at which component functions are evaluated
+		 * @param values Source of the values of component functions at eval points
+		 * @return An approximator that streams values in blocks, if there are more eval points than
+		 * 		the block size, and otherwise one that stores values as usual
+		 */
+		public LinearApproximator getApproximator(float[][] evalPoints, ValueSource values) {
+			if (myBlockSize > 0 && evalPoints.length > myBlockSize) {
+				return new WeightedCostApproximator(evalPoints, values, myBlockSize, getCostFunction(evalPoints[0].length), myNoise, myNSV, myQuiet);
+			} else {
+				return getApproximator(evalPoints, values.getValues(evalPoints));
+			}
+		}
         
         /**
          * Similar to getApproximator(float[][], float[][]) but uses evaluation signals and outputs computed over time.
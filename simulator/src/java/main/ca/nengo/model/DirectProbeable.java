@@ -0,0 +1,47 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "DirectProbeable.java". Description:
+"A Probeable whose states can be sampled without creating TimeSeries"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.model;
+
+/**
+ * <p>A Probeable that can write the latest value of some of its states directly into an
+ * array. Probes use this to record states that have a single value per network time step,
+ * without a new TimeSeries at every step.</p>
+ *
+ * <p>The units and dimension of a state are found from getHistory(...), which must give the
+ * same values as this method for states that can be sampled directly.</p>
+ */
+public interface DirectProbeable extends Probeable {
+
+	/**
+	 * @param stateName A state variable name
+	 * @param values Array into which the latest value of the named state is written (length
+	 * 		must equal the dimension of the state)
+	 * @return Time of the latest value, or Float.NaN if the named state can't be sampled
+	 * 		directly (in which case getHistory(...) should be used instead)
+	 * @throws SimulationException if the Probeable does not have the requested state
+	 */
+	public float sampleState(String stateName, float[] values) throws SimulationException;
+
+}
@@ -190,6 +190,18 @@ public abstract class AbstractEnsemble implements Ensemble, Probeable, VisiblyMu
 			mySpikePattern = new SpikePatternImpl(myNodes.length);
 		}
 
+		runNodes(startTime, endTime);
+	}
+
+	/**
+	 * Runs each Node in the Ensemble and collects their spikes if requested. Subclasses that
+	 * can advance their Nodes more efficiently as a group may override this.
+	 *
+	 * @param startTime Simulation time at which step starts
+	 * @param endTime Simulation time at which step ends
+	 * @throws SimulationException if a Node can't be run
+	 */
+	protected void runNodes(float startTime, float endTime) throws SimulationException {
 		for (int i = 0; i < myNodes.length; i++) {
 			myNodes[i].run(startTime, endTime);
 
@@ -136,7 +136,9 @@ public class BasicOrigin implements Origin, Noise.Noisy, Resettable, Configurabl
 
 	/**
 	 * This method is normally called by the Node that contains this Origin, to set the input that is
-	 * read by other nodes from getValues(). No noise is applied to the given values.
+	 * read by other nodes from getValues(). No noise is applied to the given values. The given
+	 * output is not copied, so an output that is read from another Origin must be copied before
+	 * it is set here, because its source may reuse it (see RealOutputBuffer).
 	 *
 	 * @param values Values to be output by this Origin in subsequent calls to getValues()
 	 */
@@ -141,6 +141,8 @@ public class EnsembleOrigin implements Origin {
 	
 	private static SpikeOutput composeSpikeOutput(Origin[] origins, Units units) throws SimulationException {
 		boolean[] values = new boolean[origins.length];
+		int[] indices = new int[origins.length];
+		int nSpikes = 0;
 		
 		for (int i = 0; i < origins.length; i++) {
 			InstantaneousOutput o = origins[i].getValues();
@@ -152,9 +154,14 @@ public class EnsembleOrigin implements Origin {
 			}
 			
 			values[i] = ((SpikeOutput) o).getValues()[0];
+			if (values[i]) {
+				indices[nSpikes++] = i;
+			}
 		}
 		
-		return new SpikeOutputImpl(values, units, origins[0].getValues().getTime());
+		int[] spikeIndices = new int[nSpikes];
+		System.arraycopy(indices, 0, spikeIndices, 0, nSpikes);
+		return new SpikeOutputImpl(values, spikeIndices, units, origins[0].getValues().getTime());
 	}
 
 	private static PreciseSpikeOutput composePreciseSpikeOutput(Origin[] origins, Units units) throws SimulationException {
@@ -31,7 +31,9 @@ import ca.nengo.model.Network;
 import ca.nengo.model.Ensemble;
 import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.Node;
+import ca.nengo.model.PreciseSpikeOutput;
 import ca.nengo.model.SimulationException;
+import ca.nengo.model.SpikeOutput;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Termination;
 
@@ -104,6 +106,11 @@ public class EnsembleTermination implements Termination {
 			throw new SimulationException("Input to this Termination must have dimension " + getDimensions());
 		}
 
+		//the same spikes go to every node, so spiking inputs are found once here (see SpikeOutputImpl.getSpikeIndices())
+		if (values instanceof SpikeOutput && !(values instanceof SpikeOutputImpl) && !(values instanceof PreciseSpikeOutput)) {
+			values = new SpikeOutputImpl(((SpikeOutput) values).getValues(), values.getUnits(), values.getTime());
+		}
+
 		for (Termination myNodeTermination : myNodeTerminations) {
 			myNodeTermination.setValues(values);
 		}
@@ -55,11 +55,16 @@ import ca.nengo.util.ScriptGenException;
 import ca.nengo.util.TimeSeries;
 import ca.nengo.util.VisiblyMutable;
 import ca.nengo.util.VisiblyMutableUtils;
+import ca.nengo.util.impl.NodeThreadPool;
 import ca.nengo.util.impl.TimeSeriesImpl;
 
 /**
  * A class to compute functions analytically and provide that input to
  * other Nodes in a network.
+ *
+ * Optionally (see setUseTable()), the output at each step of a run can be computed ahead of
+ * time and stored in a table, which is rebuilt at the start of every run. Steps that aren't in
+ * the table are evaluated as usual.
  */
 public class FunctionInput implements Node, Probeable {
 
@@ -84,6 +89,12 @@ public class FunctionInput implements Node, Probeable {
 	private String myDocumentation;
 	private transient List<VisiblyMutable.Listener> myListeners;
 
+	private transient RealOutputBuffer myOutputBuffer;
+	private transient float[] myTimeArg;
+	private boolean myUseTable;
+	private transient float[] myTableTimes; //end time of each step, as the simulator computes it
+	private transient float[][] myTable; //values by dimension then step
+
 	/**
 	 * @param name The name of this Node
 	 * @param functions Functions of time (simulation time) that produce the values
@@ -119,6 +130,139 @@ public class FunctionInput implements Node, Probeable {
 		checkFunctionDimension(functions);
 		myOrigin.setDimensions(functions.length);
 		myFunctions = functions;
+		clearTable();
+	}
+
+	/**
+	 * @return True if outputs are precomputed for each run (see setUseTable(boolean))
+	 */
+	public boolean getUseTable() {
+		return myUseTable;
+	}
+
+	/**
+	 * @param useTable If true, the simulator asks this node to precompute its output for every
+	 * 		step at the start of each run (see precompute(...)). This saves time if the functions
+	 * 		are expensive, as they are evaluated in bulk. The table needs (steps x dimensions)
+	 * 		floats.
+	 */
+	public void setUseTable(boolean useTable) {
+		myUseTable = useTable;
+		if (!useTable) {
+			clearTable();
+		}
+	}
+
+	/**
+	 * Computes the output at the end of each step of a run, and stores it for use by run(...).
+	 * The table is rebuilt by every call, so that changes to the functions (eg parameters that
+	 * are changed between runs) are always reflected. Functions of different dimensions are
+	 * evaluated in parallel.
+	 *
+	 * @param startTime Simulation time at which the run starts
+	 * @param endTime Simulation time at which the run ends
+	 * @param stepSize Simulation step size
+	 */
+	public void precompute(float startTime, float endTime, float stepSize) {
+		final float[] times = getStepTimes(startTime, endTime, stepSize);
+		final float[][] points = new float[times.length][];
+		for (int k = 0; k < times.length; k++) {
+			points[k] = new float[]{times[k]};
+		}
+
+		final Function[] functions = myFunctions;
+		final float[][] table = new float[functions.length][];
+		int nThreads = Math.min(functions.length, Math.max(1, NodeThreadPool.getNumJavaThreads()));
+		if (nThreads <= 1) {
+			for (int i = 0; i < functions.length; i++) {
+				table[i] = functions[i].multiMap(points);
+			}
+		} else {
+			final RuntimeException[] failure = new RuntimeException[1];
+			Thread[] threads = new Thread[nThreads];
+			for (int t = 0; t < nThreads; t++) {
+				final int first = t;
+				final int stride = nThreads;
+				threads[t] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int i = first; i < functions.length; i += stride) {
+								table[i] = functions[i].multiMap(points);
+							}
+						} catch (RuntimeException e) {
+							failure[0] = e;
+						}
+					}
+				}, "FunctionInput " + myName + " " + t);
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while precomputing " + myName, e);
+				}
+			}
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+
+		myTableTimes = times;
+		myTable = table;
+	}
+
+	/**
+	 * Discards precomputed output (see precompute(...)).
+	 */
+	public void clearTable() {
+		myTableTimes = null;
+		myTable = null;
+	}
+
+	/*
+	 * The end times of steps, as LocalSimulator.run() computes them (the start time is included
+	 * first, for the initial output).
+	 */
+	private static float[] getStepTimes(float startTime, float endTime, float stepSize) {
+		double thisStepSize = Math.round(stepSize*1000000)/1000000.0;
+		if (thisStepSize < 0.000001) {
+			thisStepSize = 0.000001;
+		}
+
+		List<Float> times = new ArrayList<Float>();
+		times.add(Float.valueOf(startTime));
+		double time = startTime;
+		while (time < endTime) {
+			if (time + 1.5*thisStepSize > endTime) {
+				thisStepSize = endTime - time;
+			}
+			times.add(Float.valueOf((float) (time+thisStepSize)));
+			time += thisStepSize;
+		}
+
+		float[] result = new float[times.size()];
+		for (int k = 0; k < result.length; k++) {
+			result[k] = times.get(k).floatValue();
+		}
+		return result;
+	}
+
+	//index of endTime in the table, or -1 if it isn't there
+	private int getTableIndex(float endTime) {
+		float[] times = myTableTimes;
+		if (times == null || times.length < 2) {
+			return -1;
+		}
+		float step = times[1] - times[0];
+		int k = step > 0 ? Math.round((endTime - times[0]) / step) : 0;
+		for (int i = Math.max(0, k-1); i <= Math.min(times.length-1, k+1); i++) {
+			if (times[i] == endTime) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
@@ -149,12 +293,30 @@ public class FunctionInput implements Node, Probeable {
 	public void run(float startTime, float endTime) {
 		myTime = endTime;
 
-		float[] values = new float[myFunctions.length];
-		for (int i = 0; i < values.length; i++) {
-			values[i] = myFunctions[i].map(new float[]{myTime});
+		if (myOutputBuffer == null || myOutputBuffer.getDimension() != myFunctions.length) {
+			myOutputBuffer = new RealOutputBuffer(myFunctions.length, myUnits);
+			myTimeArg = new float[1];
 		}
+		float[] values = myOutputBuffer.getNextValues();
 
-		myOrigin.setValues(startTime, endTime, values);
+		float[][] table = myTable;
+		int k = (table != null) ? getTableIndex(endTime) : -1;
+		if (k >= 0) {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = table[i][k];
+			}
+		} else {
+			myTimeArg[0] = myTime;
+			for (int i = 0; i < values.length; i++) {
+				values[i] = myFunctions[i].map(myTimeArg);
+			}
+		}
+
+		if (myOrigin.getNoise() != null) {
+			myOrigin.setValues(startTime, endTime, values); //copies values
+		} else {
+			myOrigin.setValues(myOutputBuffer.publish(myUnits, endTime));
+		}
 	}
 
 	/**
@@ -193,7 +355,7 @@ public class FunctionInput implements Node, Probeable {
 			throw new SimulationException("State " + stateName + " is unknown");
 		}
 
-		float[] values = ((RealOutput) myOrigin.getValues()).getValues();
+		float[] values = ((RealOutput) myOrigin.getValues()).getValues().clone(); //output buffer is reused
 		result = new TimeSeriesImpl(new float[]{myTime}, new float[][]{values}, Units.uniform(myUnits, values.length));
 
 		return result;
@@ -386,10 +548,11 @@ public class FunctionInput implements Node, Probeable {
             result.myOrigin.setNoise(myOrigin.getNoise().clone());
         }
 		try {
-			result.myOrigin.setValues(myOrigin.getValues());
+			result.myOrigin.setValues(myOrigin.getValues().clone()); //original's buffer is reused
 		} catch (SimulationException e) {
 			throw new CloneNotSupportedException("Problem copying origin values: " + e.getMessage());
 		}
+		result.myOutputBuffer = null;
 
 		result.myListeners = new ArrayList<Listener>(5);
 
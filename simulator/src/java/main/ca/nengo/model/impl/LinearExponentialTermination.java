@@ -27,6 +27,7 @@ package ca.nengo.model.impl;
 
 import java.util.Random;
 
+import ca.nengo.math.PDFTools;
 import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.Node;
 import ca.nengo.model.PlasticNodeTermination;
@@ -153,7 +154,7 @@ public class LinearExponentialTermination implements PlasticNodeTermination {
             return;
         }
         if (random==null) {
-            random=new Random();
+            random=PDFTools.createStream();
         }
 
         myWeightProbabilities = probs;
@@ -299,6 +300,10 @@ public class LinearExponentialTermination implements PlasticNodeTermination {
     }
 
     private float combineSpikes(SpikeOutput input, float[] weights) {
+        if (input instanceof SpikeOutputImpl) {
+            return combineSpikes(((SpikeOutputImpl) input).getSpikeIndices(), weights);
+        }
+
         float result = 0;
         boolean[] spikes = input.getValues();
 
@@ -313,6 +318,26 @@ public class LinearExponentialTermination implements PlasticNodeTermination {
                 if (spikes[i]) {
                     result += weights[i];
                 }
+            }
+        }
+
+        return result;
+    }
+
+    //event-driven version: only weights of inputs that spiked are visited (in the same order as above)
+    private float combineSpikes(int[] spikeIndices, float[] weights) {
+        float result = 0;
+
+        if (myWeightProbabilities!=null) {
+            for (int i = 0; i < spikeIndices.length; i++) {
+                int index = spikeIndices[i];
+                if (random.nextFloat()<myWeightProbabilities[index]) {
+                    result += weights[index];
+                }
+            }
+        } else {
+            for (int i = 0; i < spikeIndices.length; i++) {
+                result += weights[spikeIndices[i]];
             }
         }
 
@@ -382,6 +407,7 @@ public class LinearExponentialTermination implements PlasticNodeTermination {
 		result.myNode = node;
 		result.myWeights = myWeights.clone();
 		result.saveWeights();
+		result.random = (random != null) ? PDFTools.createStream() : null;
 //		result.myWeightProbabilities = myWeightProbabilities.clone();
 		result.myRawInput = (myRawInput != null) ? myRawInput.clone() : null;
 //		result.myRawInput = null;
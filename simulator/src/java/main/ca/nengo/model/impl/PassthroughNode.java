@@ -183,6 +183,7 @@ public class PassthroughNode implements Node {
 	 */
 	public void run(float startTime, float endTime) throws SimulationException {
 		if (myTerminations.size() == 1) {
+			//the termination's own copy of its input, so it isn't changed by the source
 			myOrigin.setValues(myTerminations.values().iterator().next().getValues());
 		} else {
 			float[] values = new float[myDimension];
@@ -355,6 +356,13 @@ public class PassthroughNode implements Node {
 				} else {
 					throw new SimulationException("Transforms can only be performed on RealOutput in a PassthroughNode");
 				}
+			} else {
+				//the source may reuse its output (see RealOutputBuffer) while this one is still forwarded
+				try {
+					values = values.clone();
+				} catch (CloneNotSupportedException e) {
+					throw new SimulationException(e);
+				}
 			}
 
 			myValues = values;
@@ -0,0 +1,94 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "RealOutputBuffer.java". Description:
+"A pair of RealOutputs that are published in alternation"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.model.impl;
+
+import java.io.Serializable;
+
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.Units;
+
+/**
+ * <p>A pair of RealOutputs that an Origin (or Termination) alternates between, so that it can
+ * publish a new output every step without allocating.</p>
+ *
+ * <p>An output published in one step is read by Terminations during the next step, while the
+ * other output of the pair is being filled. It is overwritten in the step after that, so
+ * anything that keeps values for longer than a step must copy them. In particular, a Node that
+ * forwards an input to one of its Origins (eg PassthroughNode) must forward a copy.</p>
+ */
+public class RealOutputBuffer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private RealOutputImpl[] myOutputs;
+	private int myCurrent;
+
+	/**
+	 * @param dimension Dimension of the outputs
+	 * @param units Initial units of the outputs
+	 */
+	public RealOutputBuffer(int dimension, Units units) {
+		myOutputs = new RealOutputImpl[]{
+				new RealOutputImpl(new float[dimension], units, 0),
+				new RealOutputImpl(new float[dimension], units, 0)};
+		myCurrent = 0;
+	}
+
+	/**
+	 * @return Dimension of the outputs
+	 */
+	public int getDimension() {
+		return myOutputs[0].getDimension();
+	}
+
+	/**
+	 * @return Values of the output that will be published next. The caller fills these in place
+	 * 		(they hold the values from two publications ago) and then calls publish(...).
+	 */
+	public float[] getNextValues() {
+		return myOutputs[1 - myCurrent].getValues();
+	}
+
+	/**
+	 * @param units Units of the next output
+	 * @param time Time of the next output
+	 * @return The next output, which becomes the current output
+	 */
+	public RealOutput publish(Units units, float time) {
+		myCurrent = 1 - myCurrent;
+		RealOutputImpl result = myOutputs[myCurrent];
+		result.setUnits(units);
+		result.setTime(time);
+		return result;
+	}
+
+	/**
+	 * @return The most recently published output
+	 */
+	public RealOutput getCurrent() {
+		return myOutputs[myCurrent];
+	}
+
+}
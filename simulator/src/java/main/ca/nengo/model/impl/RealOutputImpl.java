@@ -75,6 +75,15 @@ public class RealOutputImpl implements RealOutput {
 		return myValues.length;
 	}
 
+	//only for outputs owned by a buffer, which are reused from step to step
+	void setTime(float time) {
+		myTime = time;
+	}
+
+	void setUnits(Units units) {
+		myUnits = units;
+	}
+
 	/**
 	 * @see ca.nengo.model.InstantaneousOutput#getTime()
 	 */
@@ -42,6 +42,7 @@ public class SpikeOutputImpl implements SpikeOutput {
 	private boolean[] myValues;
 	private Units myUnits;
 	private float myTime;
+	private transient volatile int[] mySpikeIndices; //computed on demand
 
 	/**
 	 * @param values @see #getValues()
@@ -54,6 +55,17 @@ public class SpikeOutputImpl implements SpikeOutput {
 		myTime = time;
 	}
 
+	/**
+	 * @param values @see #getValues()
+	 * @param spikeIndices @see #getSpikeIndices() (must be consistent with values)
+	 * @param units @see #getUnits()
+	 * @param time @see #getTime()
+	 */
+	public SpikeOutputImpl(boolean[] values, int[] spikeIndices, Units units, float time) {
+		this(values, units, time);
+		mySpikeIndices = spikeIndices;
+	}
+
 	/**
 	 * @see ca.nengo.model.SpikeOutput#getValues()
 	 */
@@ -61,6 +73,48 @@ public class SpikeOutputImpl implements SpikeOutput {
 		return myValues;
 	}
 
+	/**
+	 * @return Indices of the values that are true (ie the neurons that spiked), in ascending order.
+	 * 		These are found once per output and shared, so that Terminations that receive the same
+	 * 		output (eg all the neuron Terminations of an EnsembleTermination) can accumulate weights
+	 * 		of spiking inputs only, without each scanning all the values.
+	 */
+	public int[] getSpikeIndices() {
+		int[] result = mySpikeIndices;
+		if (result == null) {
+			result = findSpikeIndices(myValues);
+			mySpikeIndices = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @param values Spike values
+	 * @return Indices of true values, in ascending order
+	 */
+	public static int[] findSpikeIndices(boolean[] values) {
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i]) {
+				count++;
+			}
+		}
+
+		int[] result = new int[count];
+		int j = 0;
+		for (int i = 0; j < count; i++) {
+			if (values[i]) {
+				result[j++] = i;
+			}
+		}
+		return result;
+	}
+
+	//values of buffered outputs change in place, so indices have to be found again
+	void clearSpikeIndices() {
+		mySpikeIndices = null;
+	}
+
 	/**
 	 * @see ca.nengo.model.InstantaneousOutput#getUnits()
 	 */
@@ -75,6 +129,15 @@ public class SpikeOutputImpl implements SpikeOutput {
 		return myValues.length;
 	}
 
+	//only for outputs owned by a buffer, which are reused from step to step
+	void setTime(float time) {
+		myTime = time;
+	}
+
+	void setUnits(Units units) {
+		myUnits = units;
+	}
+
 	/**
 	 * @see ca.nengo.model.InstantaneousOutput#getTime()
 	 */
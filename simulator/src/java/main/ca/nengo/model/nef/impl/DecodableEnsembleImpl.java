@@ -47,11 +47,13 @@ import ca.nengo.math.Function;
 import ca.nengo.math.LinearApproximator;
 import ca.nengo.math.impl.ConstantFunction;
 import ca.nengo.math.impl.TimeSeriesFunction;
+import ca.nengo.model.DirectProbeable;
 import ca.nengo.model.Network;
 import ca.nengo.model.Node;
 import ca.nengo.model.Origin;
 import ca.nengo.model.RealOutput;
 import ca.nengo.model.SimulationException;
+import ca.nengo.model.SimulationMode;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Termination;
 import ca.nengo.model.Units;
@@ -69,7 +71,7 @@ import ca.nengo.util.impl.TimeSeriesImpl;
  *
  * @author Bryan Tripp
  */
-public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements DecodableEnsemble {
+public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements DecodableEnsemble, DirectProbeable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -79,6 +81,8 @@ public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements Decoda
 	private ApproximatorFactory myApproximatorFactory;
 	private Map<String, LinearApproximator> myApproximators;
 	private float myTime; //used to support Probeable
+	private transient Map<String, float[]> myNodeOutputs; //node outputs gathered in the current step
+	private transient Map<String, float[]> myNodeOutputBuffers;
 	
 	private static Logger ourLogger = Logger.getLogger(DecodableEnsembleImpl.class);
 
@@ -459,13 +463,51 @@ public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements Decoda
     public void run(float startTime, float endTime) throws SimulationException {
 		super.run(startTime, endTime);
 
+		//node outputs are collected once for all DecodedOrigins on the same node-level Origin
+		if (myNodeOutputs == null) {
+			myNodeOutputs = new HashMap<String, float[]>(5);
+		}
+		myNodeOutputs.clear();
 		for (DecodedOrigin o : myDecodedOrigins.values()) {
-            o.run(null, startTime, endTime);
+			float[] nodeOutputs = null;
+			if (o.getMode() != SimulationMode.DIRECT && o.getMode() != SimulationMode.EXPRESS) {
+				nodeOutputs = myNodeOutputs.get(o.getNodeOrigin());
+				if (nodeOutputs == null) {
+					nodeOutputs = getNodeOutputs(o.getNodeOrigin(), endTime - startTime);
+					myNodeOutputs.put(o.getNodeOrigin(), nodeOutputs);
+				}
+			}
+            o.run(null, nodeOutputs, startTime, endTime);
         }
 
 		setTime(endTime);
 	}
 
+	/**
+	 * Collects the output of a Node-level Origin from all Nodes, for use by DecodedOrigins.
+	 * Subclasses that simulate their Nodes as a group can override this to provide the
+	 * outputs directly.
+	 *
+	 * @param nodeOrigin Name of a Node-level Origin
+	 * @param stepSize Length of the last step
+	 * @return Output of the named Origin of each Node in the last step (spikes expressed as
+	 * 		1/step size)
+	 * @throws SimulationException If the Nodes don't have the named Origin
+	 */
+	protected float[] getNodeOutputs(String nodeOrigin, float stepSize) throws SimulationException {
+		if (myNodeOutputBuffers == null) {
+			myNodeOutputBuffers = new HashMap<String, float[]>(5);
+		}
+
+		Node[] nodes = getNodes();
+		float[] result = myNodeOutputBuffers.get(nodeOrigin);
+		if (result == null || result.length != nodes.length) {
+			result = new float[nodes.length];
+			myNodeOutputBuffers.put(nodeOrigin, result);
+		}
+		return DecodedOrigin.gatherNodeOutputs(nodes, nodeOrigin, stepSize, result);
+	}
+
 	/**
 	 * Allows subclasses to set the simulation time, which is used to support Probeable.
 	 * This is normally set in the run() method. Subclasses that override run() without
@@ -484,6 +526,23 @@ public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements Decoda
 		return myApproximatorFactory;
 	}
 
+	/**
+	 * Samples DecodedOrigins directly; other states are available through getHistory(...).
+	 *
+	 * @see ca.nengo.model.DirectProbeable#sampleState(java.lang.String, float[])
+	 */
+	public float sampleState(String stateName, float[] values) throws SimulationException {
+		DecodedOrigin origin = myDecodedOrigins.get(stateName);
+		if (origin == null) {
+			return Float.NaN;
+		}
+
+		origin.setRequiredOnCPU(true);
+		float[] originValues = ((RealOutput) origin.getValues()).getValues();
+		System.arraycopy(originValues, 0, values, 0, values.length);
+		return myTime;
+	}
+
 	/**
 	 * @see ca.nengo.model.Probeable#getHistory(java.lang.String)
 	 */
@@ -500,7 +559,7 @@ public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements Decoda
 						stateName + "\"), probing origin by default");
 			
 		    origin.setRequiredOnCPU(true);
-			float[] vals = ((RealOutput) origin.getValues()).getValues();
+			float[] vals = ((RealOutput) origin.getValues()).getValues().clone();
 			Units[] units = new Units[vals.length];
 			for (int i = 0; i < vals.length; i++) {
 				units[i] = origin.getValues().getUnits();
@@ -559,6 +618,8 @@ public class DecodableEnsembleImpl extends PlasticEnsembleImpl implements Decoda
 
 		result.myApproximatorFactory = myApproximatorFactory.clone();
 		result.myApproximators = new HashMap<String, LinearApproximator>(5);
+		result.myNodeOutputs = null;
+		result.myNodeOutputBuffers = null;
 		result.myDecodedOrigins = new LinkedHashMap<String,DecodedOrigin>(10);
 		for (DecodedOrigin oldOrigin : myDecodedOrigins.values()) {
 			try {
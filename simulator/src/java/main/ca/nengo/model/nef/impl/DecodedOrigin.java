@@ -27,6 +27,10 @@ a recipient may use your version of this file under either the MPL or the GPL Li
  */
 package ca.nengo.model.nef.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import ca.nengo.config.ConfigUtil;
@@ -51,6 +55,7 @@ import ca.nengo.model.SimulationMode;
 import ca.nengo.model.SpikeOutput;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputBuffer;
 import ca.nengo.model.impl.RealOutputImpl;
 import ca.nengo.model.nef.DecodableEnsemble;
 import ca.nengo.model.nef.ExpressModel;
@@ -85,12 +90,14 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 	private float[][] myDecoders;
 	private SimulationMode myMode;
 	private RealOutput myOutput;
+	private RealOutputBuffer myOutputBuffer;
 	private Noise myNoise = null;
 	private Noise[] myNoises = null;
 	private DynamicalSystem mySTPDynamicsTemplate;
 	private DynamicalSystem[] mySTPDynamics;
 	private Integrator myIntegrator;
 	private float[] mySTPHistory;
+	private float[] myNodeOutputs; //used if node outputs aren't provided by the parent ensemble
 	private float myTime;
 	private boolean myRequiredOnCPU;
 	private ExpressModel myExpressModel;
@@ -316,6 +323,11 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 	}
 
 	private static float[][] findDecoders(Node[] nodes, Function[] functions, LinearApproximator approximator)  {
+		if (approximator instanceof WeightedCostApproximator) {
+			//solves for all functions together
+			return ((WeightedCostApproximator) approximator).findCoefficients(functions);
+		}
+
 		float[][] result = new float[nodes.length][];
 		for (int i = 0; i < result.length; i++) {
 			result[i] = new float[functions.length];
@@ -459,15 +471,36 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 	 * 		dimension of the functions provided in the constructor)
 	 */
 	public void run(float[] state, float startTime, float endTime) throws SimulationException {
+		run(state, null, startTime, endTime);
+	}
+
+	/**
+	 * As run(float[], float, float), but with Node outputs that have already been collected by
+	 * the parent ensemble.
+	 *
+	 * @param state Idealized state, as in run(float[], float, float)
+	 * @param nodeOutputs Output of the node-level Origin of each Node in the last step (spikes
+	 * 		expressed as 1/step size), eg from gatherNodeOutputs(...). If null, outputs are read
+	 * 		from the Nodes.
+	 * @param startTime simulation time of timestep onset
+	 * @param endTime simulation time of timestep end
+	 * @throws SimulationException If the given state is not of the expected dimension
+	 */
+	public void run(float[] state, float[] nodeOutputs, float startTime, float endTime) throws SimulationException {
 		if (state != null && state.length != myFunctions[0].getDimension()) {
 			throw new SimulationException("Origin dimension is " + myFunctions[0].getDimension() + 
 					" but state dimension is " + state.length);
 		}
 
-		float[] values = new float[myFunctions.length];
+		if (myOutputBuffer == null || myOutputBuffer.getDimension() != myFunctions.length) {
+			myOutputBuffer = new RealOutputBuffer(myFunctions.length, Units.UNK);
+		}
+		float[] values = myOutputBuffer.getNextValues();
 		float stepSize = endTime - startTime;
 
-		mySTPHistory = new float[myNodes.length];
+		if (mySTPHistory == null || mySTPHistory.length != myNodes.length) {
+			mySTPHistory = new float[myNodes.length];
+		}
 		if (myMode == SimulationMode.DIRECT) {
 			for (int i = 0; i < values.length; i++) {
 				values[i] = myFunctions[i].map(state);
@@ -482,28 +515,32 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 				myExpressModel = new DefaultExpressModel(this);
 			}
 			
-			values = myExpressModel.getOutput(startTime, state, values);
+			float[] expressValues = myExpressModel.getOutput(startTime, state, values);
+			if (expressValues != values) {
+				System.arraycopy(expressValues, 0, values, 0, values.length);
+			}
 		} else {
+			if (nodeOutputs == null) {
+				if (myNodeOutputs == null || myNodeOutputs.length != myNodes.length) {
+					myNodeOutputs = new float[myNodes.length];
+				}
+				nodeOutputs = gatherNodeOutputs(myNodes, myNodeOrigin, stepSize, myNodeOutputs);
+			}
+
+			//decoded output is the product of the activity vector and decoder matrix; inactive nodes
+			//(most of them in a given step, if they are spiking) are skipped
+			Arrays.fill(values, 0f);
 			for (int i = 0; i < myNodes.length; i++) {
-				try {
-					InstantaneousOutput o = myNodes[i].getOrigin(myNodeOrigin).getValues();
-
-					float val = 0;
-					if (o instanceof SpikeOutput) {
-						val = ((SpikeOutput) o).getValues()[0] ? 1f / stepSize : 0f;
-					} else if (o instanceof RealOutput) {
-						val = ((RealOutput) o).getValues()[0];
-					} else {
-						throw new Error("Node output is of type " + o.getClass().getName()
-							+ ". DecodedOrigin can only deal with RealOutput and SpikeOutput, so it apparently has to be updated");
-					}
+				float val = nodeOutputs[i];
+				if (mySTPDynamicsTemplate != null) {
+					val *= getSTPScale(i, val, startTime, endTime);
+				}
 
-					float[] decoder = getDynamicDecoder(i, val, startTime, endTime);
+				if (val != 0) {
+					float[] decoder = myDecoders[i];
 					for (int j = 0; j < values.length; j++) {
 						values[j] += val * decoder[j];
 					}
-				} catch (StructuralException e) {
-					throw new SimulationException(e);
 				}
 			}
 		}
@@ -515,27 +552,56 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 		}
 
 		myTime = endTime;
-		myOutput = new RealOutputImpl(values, Units.UNK, endTime);
-	}
-
-	private float[] getDynamicDecoder(int i, float input, float startTime, float endTime) {
-		float[] result = myDecoders[i];
-		if (mySTPDynamicsTemplate != null) { //TODO: could use a NullDynamics here instead of null (to allow nulling in config tree)
-			//TODO: could recycle a mutable time series here to avoid object creation
-			TimeSeries inputSeries = new TimeSeries1DImpl(new float[]{startTime, endTime}, new float[]{input, input}, Units.UNK);
-			TimeSeries outputSeries = myIntegrator.integrate(mySTPDynamics[i], inputSeries);
-			float scaleFactor = outputSeries.getValues()[outputSeries.getValues().length-1][0];
-			mySTPHistory[i] = scaleFactor;
-			result = MU.prod(result, scaleFactor);
+		myOutput = myOutputBuffer.publish(Units.UNK, endTime);
+	}
+
+	/**
+	 * Collects the output of a node-level Origin from each of a list of Nodes. This is done
+	 * once per step by a DecodableEnsemble, and shared by all its DecodedOrigins on the same
+	 * node-level Origin.
+	 *
+	 * @param nodes Nodes from which to collect output
+	 * @param nodeOrigin Name of the node-level Origin
+	 * @param stepSize Length of the simulation step
+	 * @param result Array into which outputs are written (length must equal the number of Nodes)
+	 * @return result, with the output of each Node (spikes expressed as 1/step size)
+	 * @throws SimulationException If a Node doesn't have the named Origin
+	 */
+	public static float[] gatherNodeOutputs(Node[] nodes, String nodeOrigin, float stepSize, float[] result)
+			throws SimulationException {
+		for (int i = 0; i < nodes.length; i++) {
+			try {
+				InstantaneousOutput o = nodes[i].getOrigin(nodeOrigin).getValues();
+				if (o instanceof SpikeOutput) {
+					result[i] = ((SpikeOutput) o).getValues()[0] ? 1f / stepSize : 0f;
+				} else if (o instanceof RealOutput) {
+					result[i] = ((RealOutput) o).getValues()[0];
+				} else {
+					throw new Error("Node output is of type " + o.getClass().getName()
+						+ ". DecodedOrigin can only deal with RealOutput and SpikeOutput, so it apparently has to be updated");
+				}
+			} catch (StructuralException e) {
+				throw new SimulationException(e);
+			}
 		}
 		return result;
 	}
 
+	//scaling of i-th decoder by short-term plasticity
+	private float getSTPScale(int i, float input, float startTime, float endTime) {
+		//TODO: could recycle a mutable time series here to avoid object creation
+		TimeSeries inputSeries = new TimeSeries1DImpl(new float[]{startTime, endTime}, new float[]{input, input}, Units.UNK);
+		TimeSeries outputSeries = myIntegrator.integrate(mySTPDynamics[i], inputSeries);
+		float scaleFactor = outputSeries.getValues()[outputSeries.getValues().length-1][0];
+		mySTPHistory[i] = scaleFactor;
+		return scaleFactor;
+	}
+
 	protected TimeSeries getSTPHistory() {
 		if (mySTPHistory == null) {
             mySTPHistory = new float[myNodes.length];
         }
-		return new TimeSeriesImpl(new float[]{myTime}, new float[][]{mySTPHistory}, Units.uniform(Units.UNK, mySTPHistory.length));
+		return new TimeSeriesImpl(new float[]{myTime}, new float[][]{mySTPHistory.clone()}, Units.uniform(Units.UNK, mySTPHistory.length));
 	}
 
 	/**
@@ -608,6 +674,9 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 			result.myNodes = de.getNodes();
 			result.myNode = de;
 			result.myOutput = (RealOutput) myOutput.clone();
+			result.myOutputBuffer = null;
+			result.mySTPHistory = null;
+			result.myNodeOutputs = null;
             if (myNoise != null) {
 			    result.setNoise(myNoise.clone());
             }
@@ -639,6 +708,39 @@ public class DecodedOrigin implements Origin, Resettable, SimulationMode.ModeCon
 		myDecoders = findDecoders(myNodes, myFunctions, approximator);
 	}
 
+	/**
+	 * Recalculates the decoders of several origins that decode the same node outputs. With a
+	 * WeightedCostApproximator, the functions of all the origins are solved for together.
+	 *
+	 * @param origins Origins to rebuild
+	 * @param approximator Approximator of the node outputs on which the origins are based
+	 */
+	public static void rebuildDecoders(List<DecodedOrigin> origins, LinearApproximator approximator) {
+		if (origins.size() == 1 || !(approximator instanceof WeightedCostApproximator)) {
+			for (DecodedOrigin origin : origins) {
+				origin.rebuildDecoder(approximator);
+			}
+			return;
+		}
+
+		List<Function> functions = new ArrayList<Function>();
+		for (DecodedOrigin origin : origins) {
+			functions.addAll(Arrays.asList(origin.myFunctions));
+		}
+		float[][] coefficients = ((WeightedCostApproximator) approximator).findCoefficients(functions.toArray(new Function[0]));
+
+		int offset = 0;
+		for (DecodedOrigin origin : origins) {
+			float[][] decoders = new float[coefficients.length][];
+			for (int i = 0; i < decoders.length; i++) {
+				decoders[i] = new float[origin.myFunctions.length];
+				System.arraycopy(coefficients[i], offset, decoders[i], 0, decoders[i].length);
+			}
+			origin.myDecoders = decoders;
+			offset += origin.myFunctions.length;
+		}
+	}
+
 	/**
 	 * Changes the set of nodes and recalculates the decoders
 	 * @param nodes Nodes to replace existing nodes
@@ -41,6 +41,7 @@ import ca.nengo.model.SimulationException;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Termination;
 import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputBuffer;
 import ca.nengo.model.impl.RealOutputImpl;
 import ca.nengo.model.neuron.SynapticIntegrator;
 import ca.nengo.util.MU;
@@ -63,6 +64,10 @@ import ca.nengo.util.impl.TimeSeriesImpl;
  * because all inputs to a non-linear dynamical process must be taken into account before
  * the effect of any single input is known.</p>
  *
+ * <p>If the dynamics are first-order LTI (eg the usual exponential PSC), the state of each
+ * dimension is kept in a primitive array and advanced with the exact discrete-time update
+ * for input that is constant over the step. Other dynamics are solved with the given Integrator.</p>
+ *
  * @author Bryan Tripp
  */
 public class DecodedTermination implements Termination, Resettable, Probeable {
@@ -85,6 +90,7 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 	private Integrator myIntegrator;
 	private Units[] myNullUnits;
 	private RealOutput myInputValues;
+	private RealOutputBuffer myInputBuffer;
 	private float myTime;
 	private float[] myOutputValues;
 	private boolean myTauMutable;
@@ -95,6 +101,18 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 	private float[][] myInitialState;
 	private boolean myValuesSet;
 
+	//closed-form update of first-order LTI dynamics, used instead of myIntegrator
+	private boolean myFirstOrder;
+	private float myA;
+	private float myB;
+	private float myC;
+	private float myD;
+	private float[] myFilterState;
+	private float myFilterStepSize;
+	private float myFilterDecay;
+	private float myFilterGain;
+	private float[] myDynamicsInputs;
+
 	/**
 	 * @param node The parent Node
 	 * @param name The name of this Termination
@@ -123,6 +141,7 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 		//we save a little time by not reporting units to the dynamical system at each step
 		myNullUnits = new Units[dynamics.getInputDimension()];
 		myOutputValues = new float[transform.length];
+		myDynamicsInputs = new float[transform.length];
 		
 		myValuesSet = false;
 
@@ -139,7 +158,7 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 
 				//maintain state if there is state
 				if (myDynamics != null && myDynamics[i] != null) {
-					newDynamics[i].setState(myDynamics[i].getState());
+					newDynamics[i].setState(myFirstOrder ? new float[]{myFilterState[i]} : myDynamics[i].getState());
 				}
 			} catch (CloneNotSupportedException e) {
 				throw new Error("The clone() operation is not supported by the given dynamics object");
@@ -147,6 +166,24 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 		}
 		myDynamics = newDynamics;
 
+		myFirstOrder = myDynamicsTemplate instanceof LTISystem && myDynamicsTemplate.getState().length == 1;
+		if (myFirstOrder) {
+			LTISystem lti = (LTISystem) myDynamicsTemplate;
+			myA = lti.getA(0)[0][0];
+			myB = lti.getB(0)[0][0];
+			myC = lti.getC(0)[0][0];
+			myD = lti.getD(0)[0][0];
+			myFilterStepSize = -1;
+
+			//a new array, as a clone may share the old one
+			myFilterState = new float[dimension];
+			for (int i = 0; i < dimension; i++) {
+				myFilterState[i] = newDynamics[i].getState()[0];
+			}
+		} else {
+			myFilterState = null;
+		}
+
 		//zero corresponding initial state if necessary
 		if (myInitialState == null || myInitialState[0].length != newDynamics[0].getState().length) {
 			initInitialState();
@@ -188,7 +225,15 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 		}
 
 		RealOutput ro = (RealOutput) values;
-		myInputValues = new RealOutputImpl(MU.sum(ro.getValues(), myStaticBias), ro.getUnits(), ro.getTime());
+		float[] input = ro.getValues();
+		if (myInputBuffer == null || myInputBuffer.getDimension() != input.length) {
+			myInputBuffer = new RealOutputBuffer(input.length, ro.getUnits());
+		}
+		float[] biased = myInputBuffer.getNextValues();
+		for (int i = 0; i < biased.length; i++) {
+			biased[i] = input[i] + myStaticBias[i];
+		}
+		myInputValues = myInputBuffer.publish(ro.getUnits(), ro.getTime());
 
 		if (!myValuesSet) {
             myValuesSet = true;
@@ -209,27 +254,58 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 			setValues(new RealOutputImpl(new float[getDimensions()], Units.UNK, 0.0f));
 		}
 
-		float[][] transform = getTransform();
+		float[] input = myInputValues.getValues();
+		float[] dynamicsInputs = myDynamicsInputs;
 		if (myScalingTermination != null) {
 			float scale = myScalingTermination.getOutput()[0];
-			transform = MU.prod(transform, scale);
+			for (int i = 0; i < dynamicsInputs.length; i++) {
+				float sum = 0;
+				for (int j = 0; j < input.length; j++) {
+					sum += (myTransform[i][j] * scale) * input[j];
+				}
+				dynamicsInputs[i] = sum;
+			}
+		} else {
+			for (int i = 0; i < dynamicsInputs.length; i++) {
+				float sum = 0;
+				for (int j = 0; j < input.length; j++) {
+					sum += myTransform[i][j] * input[j];
+				}
+				dynamicsInputs[i] = sum;
+			}
 		}
-		float[] dynamicsInputs = MU.prod(transform, myInputValues.getValues());
-		float[] result = new float[dynamicsInputs.length];
-
-		for (int i = 0; i < myDynamics.length; i++) {
-			float[] inVal  = new float[]{dynamicsInputs[i]};
-			TimeSeries inSeries = new TimeSeriesImpl(new float[]{startTime, endTime}, new float[][]{inVal, inVal}, myNullUnits);
-			TimeSeries outSeries = myIntegrator.integrate(myDynamics[i], inSeries);
-			result[i] = outSeries.getValues()[outSeries.getValues().length-1][0];
+
+		float[] result = myOutputValues;
+		if (myFirstOrder) {
+			float dt = endTime - startTime;
+			if (dt != myFilterStepSize) {
+				double decay = Math.exp(myA * dt);
+				myFilterDecay = (float) decay;
+				myFilterGain = myA == 0 ? myB * dt : (float) ((decay - 1) / myA * myB);
+				myFilterStepSize = dt;
+			}
+
+			float[] state = myFilterState;
+			for (int i = 0; i < result.length; i++) {
+				float u = dynamicsInputs[i];
+				state[i] = myFilterDecay * state[i] + myFilterGain * u;
+				result[i] = myC * state[i] + myD * u;
+			}
+		} else {
+			for (int i = 0; i < myDynamics.length; i++) {
+				float[] inVal  = new float[]{dynamicsInputs[i]};
+				TimeSeries inSeries = new TimeSeriesImpl(new float[]{startTime, endTime}, new float[][]{inVal, inVal}, myNullUnits);
+				TimeSeries outSeries = myIntegrator.integrate(myDynamics[i], inSeries);
+				result[i] = outSeries.getValues()[outSeries.getValues().length-1][0];
+			}
 		}
 
 		myTime = endTime;
-		myOutputValues = result;
 	}
 
 	/**
-	 * This method should be called after run(...).
+	 * This method should be called after run(...). The returned array is overwritten by the
+	 * next run, so callers that keep it must copy it.
 	 *
 	 * @return Output of dynamical system -- of interest at end of run(...)
 	 */
@@ -271,6 +347,9 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 		for (int i = 0; myDynamics != null && i < myDynamics.length; i++) {
 			float[] state = myInitialState != null ? myInitialState[i] : new float[myDynamics[i].getState().length];
 			myDynamics[i].setState(state);
+			if (myFirstOrder) {
+				myFilterState[i] = state[0];
+			}
 		}
 	}
 
@@ -429,7 +508,7 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 	public TimeSeries getHistory(String stateName) throws SimulationException {
 		if (stateName.equals(OUTPUT)) {
 			return new TimeSeriesImpl(new float[]{myTime},
-					new float[][]{myOutputValues}, Units.uniform(Units.UNK, myOutputValues.length));
+					new float[][]{myOutputValues.clone()}, Units.uniform(Units.UNK, myOutputValues.length));
 		} else {
 			throw new SimulationException("The state '" + stateName + "' is unknown");
 		}
@@ -465,6 +544,11 @@ public class DecodedTermination implements Termination, Resettable, Probeable {
 	public DecodedTermination clone(Node node) throws CloneNotSupportedException {
 		try {
 			DecodedTermination result = (DecodedTermination)super.clone();
+			result.myDynamicsInputs = new float[myDynamicsInputs.length];
+			result.myInputBuffer = null;
+			if (myFilterState != null) {
+                result.myFilterState = myFilterState.clone();
+            }
 			result.setTransform(MU.clone(myTransform));
 			result.setDynamics((LinearSystem) myDynamicsTemplate.clone());
 			result.myIntegrator = myIntegrator.clone();
@@ -27,13 +27,15 @@ a recipient may use your version of this file under either the MPL or the GPL Li
  */
 package ca.nengo.model.nef.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.StringBuilder;
 
 import ca.nengo.dynamics.DynamicalSystem;
@@ -44,6 +46,7 @@ import ca.nengo.dynamics.impl.SimpleLTISystem;
 import ca.nengo.math.ApproximatorFactory;
 import ca.nengo.math.Function;
 import ca.nengo.math.LinearApproximator;
+import ca.nengo.math.PDFTools;
 import ca.nengo.math.impl.IndicatorPDF;
 import ca.nengo.math.impl.WeightedCostApproximator;
 import ca.nengo.model.Node;
@@ -61,10 +64,13 @@ import ca.nengo.model.nef.NEFEnsembleFactory;
 import ca.nengo.model.nef.NEFNode;
 import ca.nengo.model.neuron.Neuron;
 import ca.nengo.model.neuron.impl.LIFNeuronFactory;
+import ca.nengo.model.neuron.impl.LIFPopulation;
 import ca.nengo.model.neuron.impl.LIFSpikeGenerator;
+import ca.nengo.model.neuron.impl.LinearSynapticIntegrator;
 import ca.nengo.model.neuron.impl.SpikeGeneratorOrigin;
 import ca.nengo.model.neuron.impl.SpikingNeuron;
 import ca.nengo.model.plasticity.impl.BCMTermination;
+import ca.nengo.model.plasticity.impl.DecodedPESTermination;
 import ca.nengo.model.plasticity.impl.PESTermination;
 import ca.nengo.model.plasticity.impl.PlasticEnsembleTermination;
 import ca.nengo.model.plasticity.impl.PreLearnTermination;
@@ -73,6 +79,7 @@ import ca.nengo.util.MU;
 import ca.nengo.util.ScriptGenException;
 import ca.nengo.util.TimeSeries;
 import ca.nengo.util.impl.LearningTask;
+import ca.nengo.util.impl.NodeThreadPool;
 import ca.nengo.util.impl.TimeSeriesImpl;
 /**
  * Default implementation of NEFEnsemble.
@@ -117,6 +124,19 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
 	private boolean myUseGPU;
 
+	private boolean myUsePopulation;
+	private transient LIFPopulation myPopulation;
+	private transient boolean myPopulationUnsupported;
+
+	//preallocated for run(...)
+	private transient float[] myState;
+	private transient float[] myRadialInput;
+	private transient float[] myScaledState; //state divided by radii
+	private transient float[] myFlatEncoders; //encoders, row-major
+	private transient float[][] myFlatEncodersSource;
+	private transient Map<String, float[]> myNetBias; //per base termination name: {net bias, 1 if seen this step}
+	private transient float[] myBiasInput;
+
 	/**
 	 * @param name Unique name of Ensemble
 	 * @param nodes Nodes that make up the Ensemble
@@ -177,6 +197,57 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		return myUseGPU && (getMode() == SimulationMode.DEFAULT || getMode() == SimulationMode.RATE);
 	}
 
+	/**
+	 * @param use If true, and the neurons support it (see LIFPopulation.canSimulate(...)), the
+	 * 		neurons are simulated together as a LIFPopulation rather than one at a time. In this
+	 * 		case neuron parameters are captured at the start of the first step after this is set,
+	 * 		or after reset(...) or setMode(...), and per-neuron state histories are not updated.
+	 */
+	public void setUsePopulation(boolean use) {
+		myUsePopulation = use;
+		releasePopulation(true);
+	}
+
+	/**
+	 * @return True if neurons are simulated together as a LIFPopulation when possible
+	 */
+	public boolean getUsePopulation() {
+		return myUsePopulation;
+	}
+
+	/**
+	 * @return LIFPopulation that simulates the neurons in this ensemble, or null if the neurons are to
+	 * 		be run individually
+	 */
+	protected LIFPopulation getPopulation() {
+		if (myUsePopulation && myPopulation == null && !myPopulationUnsupported) {
+			if (LIFPopulation.canSimulate(getNodes())) {
+				try {
+					myPopulation = new LIFPopulation(getNodes());
+				} catch (StructuralException e) {
+					myPopulationUnsupported = true;
+				}
+			} else {
+				myPopulationUnsupported = true;
+			}
+		}
+		return myPopulation;
+	}
+
+	/**
+	 * Discards the LIFPopulation (if any) so that it will be rebuilt from the neurons before the
+	 * next step. This should be called whenever the neurons are changed.
+	 *
+	 * @param saveState If true, membrane state is handed back to the neurons first
+	 */
+	protected void releasePopulation(boolean saveState) {
+		if (myPopulation != null && saveState) {
+			myPopulation.saveState();
+		}
+		myPopulation = null;
+		myPopulationUnsupported = false;
+	}
+
 	/**
 	 * @param radii A list of radii of encoded area along each dimension; uniform
 	 * 		radius along each dimension can be specified with a list of length 1
@@ -194,6 +265,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 			radii = MU.uniform(1, getDimension(), uniformRadius)[0];
 		}
 
+		float[][] oldEvalPoints = myEvalPoints;
 		myEvalPoints = new float[myUnscaledEvalPoints.length][];
 		for (int i = 0; i < myUnscaledEvalPoints.length; i++) {
 			myEvalPoints[i] = new float[myUnscaledEvalPoints[i].length];
@@ -224,9 +296,23 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
             }
 		}
 
+		// node outputs at the new eval points are the same as at the old ones (which are scaled
+		// the same way), so approximators are moved to the new points rather than rebuilt
+		Map<String, LinearApproximator> oldApproximators = new HashMap<String, LinearApproximator>(myDecodingApproximators);
 		myDecodingApproximators.clear();
+		if (myReuseApproximators && oldRadii != null && isScaled(oldEvalPoints, oldRadii)) {
+			for (Map.Entry<String, LinearApproximator> entry : oldApproximators.entrySet()) {
+				if (entry.getValue() instanceof WeightedCostApproximator && entry.getValue().getEvalPoints() == oldEvalPoints) {
+					LinearApproximator moved = ((WeightedCostApproximator) entry.getValue()).copyWithEvalPoints(myEvalPoints);
+					if (moved != null) {
+						myDecodingApproximators.put(entry.getKey(), moved);
+					}
+				}
+			}
+		}
 
-		// update the decoders for any existing origins
+		// update the decoders for any existing origins, solving together for those based on the same node origin
+		Map<String, List<DecodedOrigin>> toRebuild = new LinkedHashMap<String, List<DecodedOrigin>>();
 		Origin[] origins = getOrigins();
 		for (Origin origin2 : origins) {
 			if (origin2 instanceof DecodedOrigin) {
@@ -240,16 +326,33 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 					origin.rescaleDecoders(scale);
 				} else {
 					String nodeOrigin=origin.getNodeOrigin();
-					// recalculate the decoders
-					if (!myReuseApproximators || !myDecodingApproximators.containsKey(nodeOrigin)) {
-						float[][] outputs = getConstantOutputs(myEvalPoints, nodeOrigin);
-						LinearApproximator approximator = getApproximatorFactory().getApproximator(myEvalPoints, outputs);
+					if (!myReuseApproximators) {
+						// recalculate the decoders separately, each with a new approximator
+						LinearApproximator approximator = makeApproximator(nodeOrigin);
 						myDecodingApproximators.put(nodeOrigin, approximator);
+						origin.rebuildDecoder(approximator);
+					} else {
+						if (!toRebuild.containsKey(nodeOrigin)) {
+							toRebuild.put(nodeOrigin, new ArrayList<DecodedOrigin>());
+						}
+						toRebuild.get(nodeOrigin).add(origin);
 					}
-
-					origin.rebuildDecoder(myDecodingApproximators.get(nodeOrigin));
 				}
-				
+			}
+		}
+
+		for (Map.Entry<String, List<DecodedOrigin>> entry : toRebuild.entrySet()) {
+			String nodeOrigin = entry.getKey();
+			if (!myDecodingApproximators.containsKey(nodeOrigin)) {
+				LinearApproximator approximator = makeApproximator(nodeOrigin);
+				myDecodingApproximators.put(nodeOrigin, approximator);
+			}
+			DecodedOrigin.rebuildDecoders(entry.getValue(), myDecodingApproximators.get(nodeOrigin));
+		}
+
+		for (Origin origin2 : origins) {
+			if (origin2 instanceof DecodedOrigin) {
+				DecodedOrigin origin=((DecodedOrigin) origin2);
 				if (origin.getExpressModel() != null) {
 					try {
 						origin.getExpressModel().update();
@@ -263,6 +366,24 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
 	}
 
+	//true if the given points are the unscaled eval points scaled by the given radii
+	private boolean isScaled(float[][] evalPoints, float[] radii) {
+		if (evalPoints == null || evalPoints.length != myUnscaledEvalPoints.length) {
+			return false;
+		}
+		for (int i = 0; i < evalPoints.length; i++) {
+			if (evalPoints[i].length != myUnscaledEvalPoints[i].length) {
+				return false;
+			}
+			for (int j = 0; j < evalPoints[i].length; j++) {
+				if (evalPoints[i][j] != myUnscaledEvalPoints[i][j] * radii[j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Note: by-products of decoding are sometimes cached, so if these are changed it may be
 	 * necessary to call setReuseApproximators(false) for the change to take effect.
@@ -322,6 +443,52 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	}
 
 	/**
+	 * @param nodeOrigin Name of Origin on each Node from which output is to be decoded
+	 * @return An approximator of the outputs at the current eval points. If the approximator
+	 * 		factory streams eval points in blocks (see WeightedCostApproximator.Factory.setBlockSize()),
+	 * 		outputs are found for each block as they are needed, rather than all at once.
+	 * @throws StructuralException If CONSTANT_RATE is not supported by any Node
+	 */
+	private LinearApproximator makeApproximator(String nodeOrigin) throws StructuralException {
+		ApproximatorFactory factory = getApproximatorFactory();
+		if (factory instanceof WeightedCostApproximator.Factory && ((WeightedCostApproximator.Factory) factory).getBlockSize() > 0) {
+			try {
+				return ((WeightedCostApproximator.Factory) factory).getApproximator(myEvalPoints, new OutputSource(nodeOrigin));
+			} catch (RuntimeException e) {
+				if (e.getCause() instanceof StructuralException) {
+					throw (StructuralException) e.getCause();
+				}
+				throw e;
+			}
+		} else {
+			float[][] outputs = getConstantOutputs(myEvalPoints, nodeOrigin);
+			return factory.getApproximator(myEvalPoints, outputs);
+		}
+	}
+
+	//outputs of the nodes at given eval points, for streaming approximators
+	private class OutputSource implements WeightedCostApproximator.ValueSource {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String myNodeOrigin;
+
+		public OutputSource(String nodeOrigin) {
+			myNodeOrigin = nodeOrigin;
+		}
+
+		public float[][] getValues(float[][] evalPoints) {
+			try {
+				return getConstantOutputs(evalPoints, myNodeOrigin);
+			} catch (StructuralException e) {
+				throw new RuntimeException("Can't find outputs of node origin " + myNodeOrigin, e);
+			}
+		}
+	}
+
+	/**
+	 * Nodes are evaluated in parallel, with NodeThreadPool.getNumJavaThreads() threads.
+	 *
 	 * @param evalPoints Vector points at which to find output (each one must have same dimension as
 	 * 		encoder)
 	 * @param origin Name of Origin from which to collect output for each Node
@@ -329,20 +496,99 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	 * @throws StructuralException If CONSTANT_RATE is not supported by any Node
 	 */
 	protected float[][] getConstantOutputs(float[][] evalPoints, String origin) throws StructuralException {
-		NEFNode[] nodes = (NEFNode[]) getNodes();
-		float[][] result = new float[nodes.length][];
+		return getConstantOutputs(evalPoints, origin, NodeThreadPool.getNumJavaThreads());
+	}
 
-		for (int i = 0; i < nodes.length; i++) {
-			try {
-				result[i] = getConstantOutput(i, evalPoints, origin);
-			} catch (SimulationException e) {
-				throw new StructuralException("Node " + i + " does not have the Origin " + origin);
+	/**
+	 * @param evalPoints Vector points at which to find output (each one must have same dimension as
+	 * 		encoder)
+	 * @param origin Name of Origin from which to collect output for each Node
+	 * @param numThreads Number of threads among which to divide the Nodes
+	 * @return Output of each Node at each evaluation point (1st dimension corresponds to Node)
+	 * @throws StructuralException If CONSTANT_RATE is not supported by any Node
+	 */
+	protected float[][] getConstantOutputs(final float[][] evalPoints, final String origin, int numThreads) throws StructuralException {
+		final float[][] result = new float[getNodes().length][];
+
+		forEachNode(numThreads, new NodeTask() {
+			public void run(int i) throws StructuralException {
+				try {
+					result[i] = getConstantOutput(i, evalPoints, origin);
+				} catch (SimulationException e) {
+					throw new StructuralException("Node " + i + " does not have the Origin " + origin);
+				}
 			}
-		}
+		});
 
 		return result;
 	}
 
+	//work done for one Node by forEachNode()
+	private interface NodeTask {
+		public void run(int nodeIndex) throws StructuralException;
+	}
+
+	//runs a task for each Node, dividing Nodes among threads in small blocks (so that threads stay balanced);
+	//the first failure on any thread (including this one) is rethrown here once all threads have finished
+	private void forEachNode(int numThreads, final NodeTask task) throws StructuralException {
+		final int n = getNodes().length;
+		final int blockSize = 16;
+		final AtomicInteger nextBlock = new AtomicInteger(0);
+		final Throwable[] failure = new Throwable[1];
+
+		Runnable worker = new Runnable() {
+			public void run() {
+				try {
+					for (int block = nextBlock.getAndIncrement(); block * blockSize < n && failure[0] == null; block = nextBlock.getAndIncrement()) {
+						for (int i = block * blockSize; i < Math.min(n, (block+1) * blockSize); i++) {
+							task.run(i);
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (failure) {
+						if (failure[0] == null) {
+							failure[0] = e;
+						}
+					}
+				}
+			}
+		};
+
+		numThreads = Math.max(1, Math.min(numThreads, (n + blockSize - 1) / blockSize));
+		Thread[] threads = new Thread[numThreads - 1];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(worker, getName() + " node evaluation " + t);
+			threads[t].setDaemon(true);
+			threads[t].start();
+		}
+		worker.run();
+
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		Throwable e = failure[0];
+		if (e instanceof StructuralException) {
+			throw (StructuralException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new StructuralException("Error while evaluating nodes", e);
+		}
+	}
+
 	/**
 	 * @param nodeIndex Index of Node for which to find output at various inputs
 	 * @param evalPoints Vector points at which to find output (each one must have same dimension as
@@ -358,6 +604,24 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		float[] result = new float[evalPoints.length];
 
 		NEFNode node = (NEFNode) getNodes()[nodeIndex];
+		if (hasLIFRateCurve(node, origin)) {
+			SpikingNeuron neuron = (SpikingNeuron) node;
+			LIFSpikeGenerator generator = (LIFSpikeGenerator) neuron.getGenerator();
+			float[] encoder = myEncoders[nodeIndex];
+			float bias = neuron.getBias();
+			float scale = neuron.getScale();
+			for (int i = 0; i < result.length; i++) {
+				//same arithmetic as getRadialInput() and SpikingNeuron.run(), without the copies
+				float radialInput = 0f;
+				for (int j = 0; j < encoder.length; j++) {
+					float x = myRadiiAreOne ? evalPoints[i][j] : evalPoints[i][j] * myInverseRadii[j];
+					radialInput += x * encoder[j];
+				}
+				result[i] = generator.constantRateRun(bias + scale * radialInput);
+			}
+			return result;
+		}
+
 		synchronized (node) {
 			SimulationMode mode = node.getMode();
 
@@ -382,6 +646,21 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		return result;
 	}
 	
+	/*
+	 * True if the output of the given origin of the given node, in CONSTANT_RATE mode, is a closed-form
+	 * function of radial input, ie for LIF neurons without noise or synaptic input.
+	 */
+	private static boolean hasLIFRateCurve(NEFNode node, String origin) {
+		if (!(node instanceof SpikingNeuron) || !Neuron.AXON.equals(origin)) {
+			return false;
+		}
+		SpikingNeuron neuron = (SpikingNeuron) node;
+		return neuron.getGenerator() instanceof LIFSpikeGenerator
+			&& neuron.getIntegrator() instanceof LinearSynapticIntegrator
+			&& neuron.getTerminations().length == 0
+			&& neuron.getNoise() == null;
+	}
+
 	/**
 	 * Similar to getConstantOutputs, but uses a time series as input to each neuron rather than a single point.
 	 * 
@@ -392,22 +671,24 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	 * @return Output of each Node over each evaluation signal (1st dimension corresponds to Node, 2nd to signal, 3rd to time)
 	 * @throws StructuralException If RATE is not supported by any Node
 	 */
-	protected float[][][] getSignalOutputs(TimeSeries[] evalSignals, String origin) throws StructuralException
+	protected float[][][] getSignalOutputs(final TimeSeries[] evalSignals, final String origin) throws StructuralException
 	{
 		NEFNode[] nodes = (NEFNode[]) getNodes();
-		float[][][] result = new float[nodes.length][evalSignals.length][evalSignals[0].getTimes().length];
+		final float[][][] result = new float[nodes.length][evalSignals.length][evalSignals[0].getTimes().length];
 		
-		for (int i = 0; i < nodes.length; i++) {
-			float[][] output;
-			try {
-				output = getSignalOutput(i, evalSignals, origin);
-			} catch (SimulationException e) {
-				throw new StructuralException("Node " + i + " does not have the Origin " + origin);
+		forEachNode(NodeThreadPool.getNumJavaThreads(), new NodeTask() {
+			public void run(int i) throws StructuralException {
+				float[][] output;
+				try {
+					output = getSignalOutput(i, evalSignals, origin);
+				} catch (SimulationException e) {
+					throw new StructuralException("Node " + i + " does not have the Origin " + origin);
+				}
+				
+				for(int j=0; j < output.length; j++)
+					result[i][j] = output[j];
 			}
-			
-			for(int j=0; j < output.length; j++)
-				result[i][j] = output[j];
-		}
+		});
 
 		return result;
 		
@@ -494,6 +775,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		assert encoders[0].length == getDimension();
 
 		myEncoders = encoders;
+		myFlatEncoders = null;
 	}
 
 	/**
@@ -515,8 +797,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	 */
     public Origin addDecodedOrigin(String name, Function[] functions, String nodeOrigin) throws StructuralException {
 		if (!myReuseApproximators || !myDecodingApproximators.containsKey(nodeOrigin)) {
-			float[][] outputs = getConstantOutputs(myEvalPoints, nodeOrigin);
-			LinearApproximator approximator = getApproximatorFactory().getApproximator(myEvalPoints, outputs);
+			LinearApproximator approximator = makeApproximator(nodeOrigin);
 			myDecodingApproximators.put(nodeOrigin, approximator);
 		}
 
@@ -583,6 +864,24 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		return result;
 	}
 
+	/**
+	 * @see ca.nengo.model.impl.EnsembleImpl#addTermination(java.lang.String, float[][], float, boolean)
+	 */
+	@Override
+	public synchronized Termination addTermination(String name, float[][] weights, float tauPSC, boolean modulatory) throws StructuralException {
+		releasePopulation(true);
+		return super.addTermination(name, weights, tauPSC, modulatory);
+	}
+
+	/**
+	 * @see ca.nengo.model.impl.EnsembleImpl#removeTermination(java.lang.String)
+	 */
+	@Override
+	public synchronized Termination removeTermination(String name) throws StructuralException {
+		releasePopulation(true);
+		return super.removeTermination(name);
+	}
+
 	@Override
     public Termination addDecodedTermination(String name, float[][] matrix, float tauPSC,
             boolean isModulatory) throws StructuralException {
@@ -621,6 +920,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
         int dimension = weights[0].length;
 
+        releasePopulation(true);
         Termination[] components = new Termination[myExpandableNodes.length];
         for (int i = 0; i < myExpandableNodes.length; i++) {
             if (weights[i].length != dimension) {
@@ -689,6 +989,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
         int dimension = weights[0].length;
 
+        releasePopulation(true);
         Termination[] components = new Termination[myExpandableNodes.length];
         for (int i = 0; i < myExpandableNodes.length; i++) {
             if (weights[i].length != dimension) {
@@ -757,6 +1058,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
         int dimension = weights[0].length;
 
+        releasePopulation(true);
         Termination[] components = new Termination[myExpandableNodes.length];
         for (int i = 0; i < myExpandableNodes.length; i++) {
             if (weights[i].length != dimension) {
@@ -805,6 +1107,45 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
         return result;
     }
 
+    /**
+     * Adds a termination that learns with the PES rule in decoder space (see DecodedPESTermination).
+     * This is equivalent to addPESTermination() with weights gain_i * (e_i . d_j) / r, but only
+     * the decoders are stored and learned.
+     *
+     * @param name Unique name for the Termination (in the scope of this Node)
+     * @param decoders Decoders (D x n), with a row for each dimension of this ensemble and a column
+     *      for each presynaptic neuron (eg a transform times the transpose of a DecodedOrigin's decoders)
+     * @param tauPSC Time constant with which incoming signals are filtered
+     * @param modTermName Name of the (modulatory) termination from which the error is drawn
+     * @return Termination that was added
+     * @throws StructuralException if the decoders have the wrong dimension or the name is taken
+     */
+    public synchronized DecodedPESTermination addDecodedPESTermination(String name, float[][] decoders, float tauPSC,
+            String modTermName) throws StructuralException {
+        if (decoders.length != myDimension) {
+            throw new StructuralException("Output dimension " + decoders.length + " doesn't equal ensemble dimension " + myDimension);
+        }
+        if (myDecodedTerminations.containsKey(name)) {
+            throw new StructuralException("The ensemble already contains a termination named " + name);
+        }
+
+        float scale = 1 / tauPSC; //output scaling to make impulse integral = 1
+        LinearSystem dynamics = new SimpleLTISystem(
+                new float[]{-1f/tauPSC},
+                new float[][]{new float[]{1f}},
+                new float[][]{new float[]{scale}},
+                new float[]{0f},
+                new Units[]{Units.UNK}
+        );
+
+        DecodedPESTermination result = new DecodedPESTermination(this, name, decoders, dynamics, new EulerIntegrator(tauPSC / 10f));
+        result.setModTermName(modTermName);
+
+        myDecodedTerminations.put(name, result);
+        fireVisibleChangeEvent();
+        return result;
+    }
+
     public synchronized Termination addPreLearnTermination(String name, float[][] weights, float tauPSC, boolean modulatory) throws StructuralException {
         //TODO: check name for duplicate
         if (myExpandableNodes.length != weights.length) {
@@ -814,6 +1155,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
         int dimension = weights[0].length;
 
+        releasePopulation(true);
         Termination[] components = new Termination[myExpandableNodes.length];
         for (int i = 0; i < myExpandableNodes.length; i++) {
             if (weights[i].length != dimension) {
@@ -922,31 +1264,40 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
     public void run(float startTime, float endTime) throws SimulationException {
 		synchronized (this) {
 			try{
-				float[] state = new float[myDimension];
-				Map<String, Float> bias = new HashMap<String, Float>(5);
+				if (myState == null || myState.length != myDimension) {
+					myState = new float[myDimension];
+				}
+				float[] state = myState;
+				Arrays.fill(state, 0f);
+				boolean hasBias = false;
 
 				//run terminations and sum state ...
 				DecodedTermination[] dts = super.getDecodedTerminations();
+				boolean hasDecodedPES = false;
 				for (DecodedTermination t : dts) {
 					t.run(startTime, endTime);
-					float[] output = t.getOutput();
-
-					boolean isModulatory = t.getModulatory();
-					//TODO: handle modulatory bias input
 					if (t instanceof BiasTermination) {
-						String baseName = ((BiasTermination) t).getBaseTerminationName();
-						if (!bias.containsKey(baseName)) {
-                            bias.put(baseName, new Float(0));
-                        }
-						if (!isModulatory) {
-                            bias.put(baseName, new Float(bias.get(baseName).floatValue() + output[0]));
-                        }
-					} else {
-						if (!isModulatory) {
-                            state = MU.sum(state, output);
-                        }
+						hasBias = true;
+					} else if (!t.getModulatory()) {
+						float[] output = t.getOutput();
+						for (int i = 0; i < state.length; i++) {
+							state[i] += output[i];
+						}
 					}
+					hasDecodedPES |= t instanceof DecodedPESTermination;
+				}
 
+				//learn decoders once all error terminations have run
+				if (hasDecodedPES && getLearning()) {
+					for (DecodedTermination t : dts) {
+						if (t instanceof DecodedPESTermination) {
+							try {
+								((DecodedPESTermination) t).updateDecoders();
+							} catch (StructuralException e) {
+								throw new SimulationException(e);
+							}
+						}
+					}
 				}
 
 				if ( getMode().equals(SimulationMode.DIRECT) || getMode().equals(SimulationMode.EXPRESS)) {
@@ -968,10 +1319,27 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 					// TODO Have plasticity work in DIRECT mode
 				} else {
 					//multiply state by encoders (cosine tuning), set radial input of each Neuron and run ...
-					Node[] nodes = getNodes();
-					for (int i = 0; i < nodes.length; i++) {
-						((NEFNode) nodes[i]).setRadialInput(getRadialInput(state, i) +
-						        getBiasInput(bias, myDecodedTerminations, i));
+					LIFPopulation population = getPopulation();
+					float[] input;
+					if (population != null) {
+						input = population.getInput();
+					} else {
+						if (myRadialInput == null || myRadialInput.length != getNodes().length) {
+							myRadialInput = new float[getNodes().length];
+						}
+						input = myRadialInput;
+					}
+
+					encode(state, input);
+					if (hasBias) {
+						addBiasInput(dts, input);
+					}
+
+					if (population == null) {
+						Node[] nodes = getNodes();
+						for (int i = 0; i < nodes.length; i++) {
+							((NEFNode) nodes[i]).setRadialInput(input[i]);
+						}
 					}
 					super.run(startTime, endTime);
 				}
@@ -982,17 +1350,132 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		}
 	}
 
-	// @param bias Bias input (related to avoidance of negative weights with interneurons)
-	private static float getBiasInput(Map<String, Float> bias, Map<String, DecodedTermination> dt, int node) {
-		float sumBias = 0;
-		Iterator<String> it = bias.keySet().iterator();
+	/**
+	 * Runs the neurons as a LIFPopulation if one is in use, otherwise individually.
+	 *
+	 * @see ca.nengo.model.impl.AbstractEnsemble#runNodes(float, float)
+	 */
+	@Override
+	protected void runNodes(float startTime, float endTime) throws SimulationException {
+		if (myPopulation == null) {
+			super.runNodes(startTime, endTime);
+		} else {
+			myPopulation.run(startTime, endTime);
+			if (myPopulation.getMode() == SimulationMode.DEFAULT) {
+				setSpikePattern(myPopulation.getOutput(), endTime);
+			}
+		}
+	}
+
+	/**
+	 * @see ca.nengo.model.nef.impl.DecodableEnsembleImpl#getNodeOutputs(java.lang.String, float)
+	 */
+	@Override
+	protected float[] getNodeOutputs(String nodeOrigin, float stepSize) throws SimulationException {
+		if (myPopulation != null) {
+			if (Neuron.AXON.equals(nodeOrigin)) {
+				return myPopulation.getOutput();
+			} else if (SpikingNeuron.CURRENT.equals(nodeOrigin)) {
+				return myPopulation.getInput();
+			}
+		}
+		return super.getNodeOutputs(nodeOrigin, stepSize);
+	}
+
+	/**
+	 * Finds the radial input of every Node at once, as the product of the encoder matrix and the
+	 * state (scaled by the inverse radii). The arithmetic is done in the same order as in
+	 * getRadialInput(state, i), so the result for each Node i is exactly the same.
+	 *
+	 * @param state State vector
+	 * @param result Array into which the radial input of each Node is written
+	 */
+	public void encode(float[] state, float[] result) {
+		float[] encoders = getFlatEncoders();
+		int dim = state.length;
+
+		float[] x = state;
+		if (!myRadiiAreOne) {
+			if (myScaledState == null || myScaledState.length != dim) {
+				myScaledState = new float[dim];
+			}
+			for (int j = 0; j < dim; j++) {
+				myScaledState[j] = state[j] * myInverseRadii[j];
+			}
+			x = myScaledState;
+		}
+
+		for (int i = 0, offset = 0; i < result.length; i++, offset += dim) {
+			float sum = 0f;
+			for (int j = 0; j < dim; j++) {
+				sum += x[j] * encoders[offset+j];
+			}
+			result[i] = sum;
+		}
+	}
+
+	//encoders are replaced (rather than changed in place) by setEncoders(...) etc.
+	private float[] getFlatEncoders() {
+		if (myFlatEncoders == null || myFlatEncodersSource != myEncoders) {
+			int dim = myDimension;
+			float[] flat = new float[myEncoders.length * dim];
+			for (int i = 0; i < myEncoders.length; i++) {
+				System.arraycopy(myEncoders[i], 0, flat, i*dim, dim);
+			}
+			myFlatEncoders = flat;
+			myFlatEncodersSource = myEncoders;
+		}
+		return myFlatEncoders;
+	}
+
+	// Adds bias input (related to avoidance of negative weights with interneurons) from the
+	// non-modulatory BiasTerminations to the radial input of each Node. The outputs for each base
+	// termination are summed first, and the bias input of each Node is summed before it is added,
+	// so the result is the same as summing into a new map every step.
+	private void addBiasInput(DecodedTermination[] dts, float[] input) {
+		if (myNetBias == null) {
+			myNetBias = new HashMap<String, float[]>(5);
+		}
+		for (float[] net : myNetBias.values()) {
+			net[0] = 0f;
+			net[1] = 0f;
+		}
+		for (DecodedTermination t : dts) {
+			if (t instanceof BiasTermination) {
+				String baseName = ((BiasTermination) t).getBaseTerminationName();
+				float[] net = myNetBias.get(baseName);
+				if (net == null) {
+					net = new float[2];
+					myNetBias.put(baseName, net);
+				}
+				net[1] = 1f;
+				if (!t.getModulatory()) {
+					net[0] += t.getOutput()[0];
+				}
+			}
+		}
+
+		if (myBiasInput == null || myBiasInput.length != input.length) {
+			myBiasInput = new float[input.length];
+		}
+		Arrays.fill(myBiasInput, 0f);
+		Iterator<Map.Entry<String, float[]>> it = myNetBias.entrySet().iterator();
 		while (it.hasNext()) {
-			String baseName = it.next();
-			float netBias = bias.get(baseName).floatValue();
-			float biasEncoder = ((BiasTermination) dt.get(baseName+BIAS_SUFFIX)).getBiasEncoders()[node];
-			sumBias += netBias * biasEncoder;
+			Map.Entry<String, float[]> entry = it.next();
+			float[] net = entry.getValue();
+			if (net[1] == 0f) { //termination has been removed
+				it.remove();
+				continue;
+			}
+			float[] biasEncoders = ((BiasTermination) myDecodedTerminations.get(entry.getKey()+BIAS_SUFFIX)).getBiasEncoders();
+			for (int i = 0; i < input.length; i++) {
+				myBiasInput[i] += net[0] * biasEncoders[i];
+			}
+		}
+
+		for (int i = 0; i < input.length; i++) {
+			input[i] += myBiasInput[i];
 		}
-		return sumBias;
 	}
 
 	/**
@@ -1016,6 +1499,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		if(myFixedModes != null && !myFixedModes.contains(mode))
 			return;
 		
+		releasePopulation(true);
 		super.setMode(mode);
 
 		Origin[] origins = getOrigins();
@@ -1046,6 +1530,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	 */
 	@Override
     public void reset(boolean randomize) {
+		releasePopulation(false);
 		super.reset(randomize);
 
 		
@@ -1105,6 +1590,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 
 			nodes[i].setMode(getMode());
 		}
+		releasePopulation(false);
 		redefineNodes(nodes);
 
 		myEncoders = myEnsembleFactory.getEncoderFactory().genVectors(n, getDimension());
@@ -1120,8 +1606,7 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 				String nodeOrigin=origin.getNodeOrigin();
 				// recalculate the decoders
 				if (!myReuseApproximators || !myDecodingApproximators.containsKey(nodeOrigin)) {
-					float[][] outputs = getConstantOutputs(myEvalPoints, nodeOrigin);
-					LinearApproximator approximator = getApproximatorFactory().getApproximator(myEvalPoints, outputs);
+					LinearApproximator approximator = makeApproximator(nodeOrigin);
 					myDecodingApproximators.put(nodeOrigin, approximator);
 				}
 					origin.redefineNodes(nodes,myDecodingApproximators.get(nodeOrigin));
@@ -1200,6 +1685,14 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 		result.myInverseRadii = myInverseRadii.clone();
 		result.myRadii = myRadii.clone();
 		result.myUnscaledEvalPoints = MU.clone(myUnscaledEvalPoints);
+		result.myPopulation = null;
+		result.myPopulationUnsupported = false;
+		result.myState = null;
+		result.myRadialInput = null;
+		result.myScaledState = null;
+		result.myFlatEncoders = null;
+		result.myNetBias = null;
+		result.myBiasInput = null;
 		return result;
 	}
 
@@ -1292,16 +1785,16 @@ public class NEFEnsembleImpl extends DecodableEnsembleImpl implements NEFEnsembl
 	 */
 	public void killNeurons(float killrate, boolean saveRelays)
 	{
-		Random rand = new Random();
-
 		Node[] neurons = getNodes();
 
 		if(saveRelays && (neurons.length == 1)) {
             return;
         }
 
+		releasePopulation(true);
+
 		for (Node neuron : neurons) {
-			if(rand.nextFloat() < killrate)
+			if(PDFTools.random() < killrate)
 			{
 				SpikingNeuron n = (SpikingNeuron)neuron;
 				n.setBias(0.0f);
@@ -0,0 +1,305 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "LIFPopulation.java". Description:
+"Simulates a population of LIF neurons as a group"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.model.neuron.impl;
+
+import ca.nengo.model.Node;
+import ca.nengo.model.SimulationMode;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputBuffer;
+import ca.nengo.model.impl.SpikeOutputBuffer;
+import ca.nengo.model.neuron.Neuron;
+
+/**
+ * <p>Simulates a population of LIF SpikingNeurons together, keeping their parameters and state
+ * in flat arrays rather than in one object graph per neuron.</p>
+ *
+ * <p>Each neuron must be a SpikingNeuron with a LIFSpikeGenerator and a LinearSynapticIntegrator
+ * that has no Terminations, and no Noise (see canSimulate(...)). Under these conditions the
+ * input to each spike generator is simply bias + scale * radial input, and the population can
+ * be advanced in one loop with results identical to running the neurons one at a time.</p>
+ *
+ * <p>Parameters (bias, scale, time constants) are captured when the population is created, and
+ * the neurons' membrane state is taken over from their generators. While the population runs,
+ * the neurons' own state and histories (eg "V", "I", the "current" Origin) are not updated, but
+ * the AXON Origin of each neuron receives its output so that downstream consumers see the
+ * usual values. Call saveState() to hand membrane state back to the neurons.</p>
+ */
+public class LIFPopulation {
+
+	private static final float Vth = 1;
+
+	private SpikingNeuron[] myNeurons;
+	private SpikeGeneratorOrigin[] myOrigins;
+	private SimulationMode myMode;
+	private float myIntegratorMaxTimeStep;
+	private float myGeneratorMaxTimeStep;
+
+	private float[] myBias;
+	private float[] myScale;
+	private float[] myInverseTauRC;
+	private float[] myTauRC;
+	private float[] myTauRef;
+
+	private float[] myVoltage;
+	private float[] myTimeSinceLastSpike;
+
+	private float[] myInput;
+	private boolean[] mySpikes;
+	private float[] myOutput;
+	private SpikeOutputBuffer[] mySpikeBuffers; //output of each AXON Origin in DEFAULT mode
+	private RealOutputBuffer[] myRateBuffers; //output of each AXON Origin in rate modes
+
+	/**
+	 * @param nodes Neurons to simulate (must satisfy canSimulate(nodes))
+	 * @throws StructuralException if the nodes can't be simulated as a population
+	 */
+	public LIFPopulation(Node[] nodes) throws StructuralException {
+		if (!canSimulate(nodes)) {
+			throw new StructuralException("Nodes must be LIF SpikingNeurons without Noise or Terminations, in the same mode");
+		}
+
+		int n = nodes.length;
+		myNeurons = new SpikingNeuron[n];
+		myOrigins = new SpikeGeneratorOrigin[n];
+		myBias = new float[n];
+		myScale = new float[n];
+		myInverseTauRC = new float[n];
+		myTauRC = new float[n];
+		myTauRef = new float[n];
+		myVoltage = new float[n];
+		myTimeSinceLastSpike = new float[n];
+		myInput = new float[n];
+		mySpikes = new boolean[n];
+		myOutput = new float[n];
+
+		for (int i = 0; i < n; i++) {
+			SpikingNeuron neuron = (SpikingNeuron) nodes[i];
+			LIFSpikeGenerator generator = (LIFSpikeGenerator) neuron.getGenerator();
+
+			myNeurons[i] = neuron;
+			myOrigins[i] = (SpikeGeneratorOrigin) neuron.getOrigin(Neuron.AXON);
+			myBias[i] = neuron.getBias();
+			myScale[i] = neuron.getScale();
+			myTauRC[i] = generator.getTauRC();
+			myInverseTauRC[i] = 1 / generator.getTauRC();
+			myTauRef[i] = generator.getTauRef();
+			myVoltage[i] = generator.getVoltage();
+			myTimeSinceLastSpike[i] = generator.getTimeSinceLastSpike();
+		}
+
+		myMode = myNeurons[0].getMode();
+		myIntegratorMaxTimeStep = ((LinearSynapticIntegrator) myNeurons[0].getIntegrator()).getCorrectedMaxTimeStep();
+		myGeneratorMaxTimeStep = ((LIFSpikeGenerator) myNeurons[0].getGenerator()).getCorrectedMaxTimeStep();
+
+		if (myMode == SimulationMode.DEFAULT) {
+			mySpikeBuffers = new SpikeOutputBuffer[n];
+			for (int i = 0; i < n; i++) {
+				mySpikeBuffers[i] = new SpikeOutputBuffer(1, Units.SPIKES);
+			}
+		} else {
+			myRateBuffers = new RealOutputBuffer[n];
+			for (int i = 0; i < n; i++) {
+				myRateBuffers[i] = new RealOutputBuffer(1, Units.SPIKES_PER_S);
+			}
+		}
+	}
+
+	/**
+	 * @param nodes A list of Nodes
+	 * @return True if the Nodes are all SpikingNeurons with LIFSpikeGenerators and
+	 * 		LinearSynapticIntegrators without Terminations, have no Noise, share the same time
+	 * 		steps, and are all in DEFAULT, RATE or CONSTANT_RATE mode (the same one)
+	 */
+	public static boolean canSimulate(Node[] nodes) {
+		if (nodes.length == 0 || !(nodes[0] instanceof SpikingNeuron)) {
+			return false;
+		}
+
+		SpikingNeuron first = (SpikingNeuron) nodes[0];
+		if ( !(first.getGenerator() instanceof LIFSpikeGenerator)
+				|| !(first.getIntegrator() instanceof LinearSynapticIntegrator) ) {
+			return false;
+		}
+
+		SimulationMode mode = first.getMode();
+		if (mode != SimulationMode.DEFAULT && mode != SimulationMode.RATE && mode != SimulationMode.CONSTANT_RATE) {
+			return false;
+		}
+
+		float generatorStep = ((LIFSpikeGenerator) first.getGenerator()).getCorrectedMaxTimeStep();
+		float integratorStep = ((LinearSynapticIntegrator) first.getIntegrator()).getCorrectedMaxTimeStep();
+
+		for (Node node : nodes) {
+			if (node.getClass() != SpikingNeuron.class && node.getClass() != ExpandableSpikingNeuron.class) {
+				return false;
+			}
+
+			SpikingNeuron neuron = (SpikingNeuron) node;
+			if (neuron.getNoise() != null || neuron.getMode() != mode
+					|| neuron.getGenerator().getClass() != LIFSpikeGenerator.class
+					|| neuron.getIntegrator().getClass() != LinearSynapticIntegrator.class) {
+				return false;
+			}
+
+			LIFSpikeGenerator generator = (LIFSpikeGenerator) neuron.getGenerator();
+			LinearSynapticIntegrator integrator = (LinearSynapticIntegrator) neuron.getIntegrator();
+			if (integrator.getTerminationCount() > 0
+					|| generator.getCorrectedMaxTimeStep() != generatorStep
+					|| integrator.getCorrectedMaxTimeStep() != integratorStep) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return Number of neurons in the population
+	 */
+	public int getSize() {
+		return myNeurons.length;
+	}
+
+	/**
+	 * @return The mode in which the population runs (fixed at construction)
+	 */
+	public SimulationMode getMode() {
+		return myMode;
+	}
+
+	/**
+	 * @return Radial input of each neuron. This array is written by the caller before each run
+	 * 		(in place of SpikingNeuron.setRadialInput(...)); it is also the unscaled current of each
+	 * 		neuron, i.e. the value of the SpikingNeuron.CURRENT Origin.
+	 */
+	public float[] getInput() {
+		return myInput;
+	}
+
+	/**
+	 * @return Whether each neuron spiked in the last step (all false outside DEFAULT mode)
+	 */
+	public boolean[] getSpikes() {
+		return mySpikes;
+	}
+
+	/**
+	 * @return Output of each neuron in the last step, as a rate: 1/(step size) for a spike in
+	 * 		DEFAULT mode, or the firing rate in RATE and CONSTANT_RATE modes
+	 */
+	public float[] getOutput() {
+		return myOutput;
+	}
+
+	/**
+	 * Advances all neurons from startTime to endTime using the current inputs, and sets
+	 * the output of each neuron's AXON Origin.
+	 *
+	 * @param startTime Simulation time at which step starts
+	 * @param endTime Simulation time at which step ends
+	 */
+	public void run(float startTime, float endTime) {
+		if (myMode == SimulationMode.DEFAULT) {
+			runSpiking(startTime, endTime);
+		} else {
+			runRate(endTime);
+		}
+	}
+
+	//same time discretization as LinearSynapticIntegrator.run(...) followed by LIFSpikeGenerator.run(...)
+	private void runSpiking(float startTime, float endTime) {
+		float len = endTime - startTime;
+		int integratorSteps = (int) Math.ceil(len / myIntegratorMaxTimeStep);
+		float integratorDT = len / integratorSteps;
+		float generatorLen = (startTime + integratorSteps * integratorDT) - startTime;
+		int steps = (int) Math.ceil(generatorLen / myGeneratorMaxTimeStep);
+		float dt = generatorLen / steps;
+		float spikeRate = 1f / len;
+
+		float[] voltage = myVoltage;
+		float[] timeSinceLastSpike = myTimeSinceLastSpike;
+		float[] inverseTauRC = myInverseTauRC;
+		float[] tauRef = myTauRef;
+
+		for (int n = 0; n < myNeurons.length; n++) {
+			float I = myBias[n] + myScale[n] * myInput[n];
+			float V = voltage[n];
+			float tsls = timeSinceLastSpike[n];
+			float ref = tauRef[n];
+			boolean spike = false;
+
+			for (int i = 0; i < steps; i++) {
+				float dV = inverseTauRC[n] * (I - V);
+				tsls = tsls + dt;
+				if (tsls < ref) {
+					dV = 0;
+				} else if (tsls < ref + dt) {
+					dV *= (tsls - ref) / dt;
+				}
+				float previousV = V;
+				V = Math.max(0, V + dt*dV);
+
+				if (V >= Vth) {
+					float dSpike = (Vth - previousV) * dt / (V - previousV);
+					tsls = dt - dSpike;
+					spike = true;
+					V = 0;
+				}
+			}
+
+			voltage[n] = V;
+			timeSinceLastSpike[n] = tsls;
+			mySpikes[n] = spike;
+			myOutput[n] = spike ? spikeRate : 0f;
+
+			SpikeOutputBuffer buffer = mySpikeBuffers[n];
+			buffer.getNextValues()[0] = spike;
+			myOrigins[n].setValues(buffer.publish(Units.SPIKES, endTime));
+		}
+	}
+
+	//as LIFSpikeGenerator.constantRateRun(...)
+	private void runRate(float endTime) {
+		for (int n = 0; n < myNeurons.length; n++) {
+			float current = myBias[n] + myScale[n] * myInput[n];
+			myOutput[n] = current > 1 ? 1f / ( myTauRef[n] - myTauRC[n] * ((float) Math.log(1 - 1/current)) ) : 0;
+			RealOutputBuffer buffer = myRateBuffers[n];
+			buffer.getNextValues()[0] = myOutput[n];
+			myOrigins[n].setValues(buffer.publish(Units.SPIKES_PER_S, endTime));
+		}
+	}
+
+	/**
+	 * Hands the membrane state of each neuron back to its LIFSpikeGenerator, so that the
+	 * neurons can continue to run individually from where the population left off.
+	 */
+	public void saveState() {
+		for (int n = 0; n < myNeurons.length; n++) {
+			((LIFSpikeGenerator) myNeurons[n].getGenerator()).setState(myVoltage[n], myTimeSinceLastSpike[n]);
+		}
+	}
+
+}
@@ -37,8 +37,8 @@ import ca.nengo.model.SimulationException;
 import ca.nengo.model.SimulationMode;
 import ca.nengo.model.Units;
 import ca.nengo.model.impl.PreciseSpikeOutputImpl;
-import ca.nengo.model.impl.RealOutputImpl;
-import ca.nengo.model.impl.SpikeOutputImpl;
+import ca.nengo.model.impl.RealOutputBuffer;
+import ca.nengo.model.impl.SpikeOutputBuffer;
 import ca.nengo.model.neuron.SpikeGenerator;
 import ca.nengo.util.TimeSeries;
 import ca.nengo.util.TimeSeries1D;
@@ -79,6 +79,10 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 	private SimulationMode myMode;
 	private SimulationMode[] mySupportedModes;
 
+	//outputs are reused from step to step
+	private SpikeOutputBuffer mySpikeBuffer;
+	private RealOutputBuffer myRateBuffer;
+
 	private static final float[] ourNullTime = new float[0];
 	private static final float[] ourNullVoltageHistory = new float[0];
 	private static final float ourMaxTimeStepCorrection = 1.01f;
@@ -178,12 +182,19 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 		InstantaneousOutput result = null;
 
 		if (myMode.equals(SimulationMode.CONSTANT_RATE) || myMode.equals(SimulationMode.RATE)) {
-			result = new RealOutputImpl(new float[]{doConstantRateRun(time[0], current[0])}, Units.SPIKES_PER_S, time[time.length-1]);
+			if (myRateBuffer == null) {
+				myRateBuffer = new RealOutputBuffer(1, Units.SPIKES_PER_S);
+			}
+			myRateBuffer.getNextValues()[0] = doConstantRateRun(time[0], current[0]);
+			result = myRateBuffer.publish(Units.SPIKES_PER_S, time[time.length-1]);
 		} else if (myMode.equals(SimulationMode.PRECISE)) {
 			result = new PreciseSpikeOutputImpl(new float[]{doPreciseSpikingRun(time, current)}, Units.SPIKES, time[time.length-1]);
 		} else {
-			//result = new SpikeOutputImpl(new boolean[]{doSpikingRun(time, current)}, Units.SPIKES, time[time.length-1]);
-			result = new SpikeOutputImpl(new boolean[]{doPreciseSpikingRun(time, current)>=0}, Units.SPIKES, time[time.length-1]);
+			if (mySpikeBuffer == null) {
+				mySpikeBuffer = new SpikeOutputBuffer(1, Units.SPIKES);
+			}
+			mySpikeBuffer.getNextValues()[0] = doPreciseSpikingRun(time, current)>=0;
+			result = mySpikeBuffer.publish(Units.SPIKES, time[time.length-1]);
 		}
 
 		return result;
@@ -248,8 +259,11 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 		int steps = (int) Math.ceil(len / myMaxTimeStep);
 		float dt = len / steps;
 
-		myTime = new float[steps];
-		myVoltageHistory = new float[steps];
+		//history arrays are reused while the number of steps is the same
+		if (myTime.length != steps) {
+			myTime = new float[steps];
+			myVoltageHistory = new float[steps];
+		}
 //		mySpikeTimes = new ArrayList(10);
 
 		int inputIndex = 0;
@@ -293,6 +307,31 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 		return myVoltage;
 	}
 
+	/**
+	 * @return Time since the last spike (s), used to enforce the refractory period
+	 */
+	public float getTimeSinceLastSpike() {
+		return myTimeSinceLastSpike;
+	}
+
+	/**
+	 * Overwrites the dynamic state of this generator, e.g. when state that has been advanced
+	 * elsewhere (see LIFPopulation) is handed back.
+	 *
+	 * @param voltage Membrane voltage
+	 * @param timeSinceLastSpike Time since the last spike (s)
+	 */
+	void setState(float voltage, float timeSinceLastSpike) {
+		myVoltage = voltage;
+		myPreviousVoltage = voltage;
+		myTimeSinceLastSpike = timeSinceLastSpike;
+	}
+
+	//maximum time step as actually used in integration (including correction)
+	float getCorrectedMaxTimeStep() {
+		return myMaxTimeStep;
+	}
+
 	//Note that no voltage history is available after a constant-rate run.
 	private float doConstantRateRun(float time, float current) {
 		myTime = ourNullTime;
@@ -317,7 +356,7 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 		TimeSeries1D result = null;
 
 		if (stateName.equals("V")) {
-			result = new TimeSeries1DImpl(myTime, myVoltageHistory, Units.AVU);
+			result = new TimeSeries1DImpl(myTime.clone(), myVoltageHistory.clone(), Units.AVU);
 		} else {
 			throw new SimulationException("The state name " + stateName + " is unknown.");
 		}
@@ -355,6 +394,8 @@ public class LIFSpikeGenerator implements SpikeGenerator, Probeable {
 		System.arraycopy(mySupportedModes, 0, result.mySupportedModes, 0, mySupportedModes.length);
 		result.myTime = myTime.clone();
 		result.myVoltageHistory = myVoltageHistory.clone();
+		result.mySpikeBuffer = null;
+		result.myRateBuffer = null;
 		return result;
 	}
 
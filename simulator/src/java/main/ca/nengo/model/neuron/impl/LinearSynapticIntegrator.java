@@ -162,6 +162,16 @@ public class LinearSynapticIntegrator implements ExpandableSynapticIntegrator {
 		myMaxTimeStep = maxTimeStep * ourTimeStepCorrection; //increased slightly because float/float != integer
 	}
 
+	//maximum time step as actually used in integration (including correction)
+	float getCorrectedMaxTimeStep() {
+		return myMaxTimeStep;
+	}
+
+	//number of Terminations, without copying them into an array
+	int getTerminationCount() {
+		return myTerminations.size();
+	}
+
 	/**
 	 * @return Units that current is expressed in
 	 */
@@ -0,0 +1,319 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "DecodedPESTermination.java". Description:
+"A termination that learns with the PES rule in decoder space"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.model.plasticity.impl;
+
+import java.util.Arrays;
+
+import ca.nengo.dynamics.Integrator;
+import ca.nengo.dynamics.LinearSystem;
+import ca.nengo.model.InstantaneousOutput;
+import ca.nengo.model.Node;
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.SpikeOutput;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputBuffer;
+import ca.nengo.model.nef.NEFEnsemble;
+import ca.nengo.model.nef.impl.DecodedTermination;
+import ca.nengo.model.neuron.impl.SpikingNeuron;
+import ca.nengo.util.MU;
+
+/**
+ * <p>A termination that learns with the PES rule in decoder space. Its input is the activity of
+ * each presynaptic neuron (eg the AXON origin of another ensemble), and its transform is a D x n
+ * matrix of decoders (including any transformation) that maps this activity onto the state space
+ * of the ensemble. The ensemble then encodes the decoded state as for any other DecodedTermination.</p>
+ *
+ * <p>The connection weights implied by this termination are gain_i * (e_i . d_j) / r, for
+ * encoders e, decoders d, and radii r. PES changes these weights by the outer product of the
+ * encoded error with the presynaptic activity, which is equivalent to changing the decoders by
+ * the outer product of the (radius-scaled) error with the activity. This termination learns the
+ * decoders directly, so it needs O(n x D) memory and time per step rather than O(n x m) for a
+ * full weight matrix onto m neurons (see PESTermination). The full matrix can be found with
+ * getWeights(), eg for analysis.</p>
+ *
+ * <p>The decoders are updated by the ensemble after all its terminations have run (see
+ * updateDecoders()), using the output of a separate modulatory (error) termination. Learned
+ * changes are undone by reset(), as for PESTermination.</p>
+ */
+public class DecodedPESTermination extends DecodedTermination {
+
+	private static final long serialVersionUID = 1L;
+
+	private float[][] myDecoders; //same array as the transform (a copy of the one given), changed in place
+	private float[][] myInitialDecoders; //restored on reset
+	private float myLearningRate = 5e-7f;
+	private boolean myLearning = true;
+	private boolean myOja = false;
+	private String myModTermName;
+
+	private InstantaneousOutput myRawValues;
+	private RealOutputBuffer myRateBuffer; //presynaptic rates, passed to the superclass each step
+	private float[] myInput;
+	private float[] myFilteredInput;
+	private float[] myFilteredModInput;
+	private float myStepSize;
+
+	/**
+	 * @param node The parent Node (must be an NEFEnsemble)
+	 * @param name The name of this Termination
+	 * @param decoders Initial decoders (D x n), mapping presynaptic activity onto the state space
+	 * 		of the ensemble
+	 * @param dynamics Post-synaptic current dynamics (single-input single-output)
+	 * @param integrator Numerical integrator with which to solve dynamics
+	 * @throws StructuralException If dynamics are not SISO or decoders are not a matrix
+	 */
+	public DecodedPESTermination(Node node, String name, float[][] decoders, LinearSystem dynamics, Integrator integrator)
+			throws StructuralException {
+		super(node, name, decoders, dynamics, integrator);
+	}
+
+	/**
+	 * @see ca.nengo.model.nef.impl.DecodedTermination#setTransform(float[][])
+	 */
+	@Override
+	public void setTransform(float[][] transform) throws StructuralException {
+		float[][] decoders = MU.clone(transform); //a copy, as it is changed by learning
+		super.setTransform(decoders);
+		myDecoders = decoders;
+		myInitialDecoders = MU.clone(transform);
+	}
+
+	/**
+	 * @return Name of the Termination from which the error signal is drawn
+	 */
+	public String getModTermName() {
+		return myModTermName;
+	}
+
+	/**
+	 * @param name Name of the Termination from which the error signal is drawn
+	 */
+	public void setModTermName(String name) {
+		myModTermName = name;
+	}
+
+	/**
+	 * @return Learning rate of the termination
+	 */
+	public float getLearningRate() {
+		return myLearningRate;
+	}
+
+	/**
+	 * @param learningRate Learning rate of the termination (same scale as PESTermination)
+	 */
+	public void setLearningRate(float learningRate) {
+		myLearningRate = learningRate;
+	}
+
+	/**
+	 * @return Whether or not the termination is currently learning
+	 */
+	public boolean getLearning() {
+		return myLearning;
+	}
+
+	/**
+	 * @param learning Turn learning on or off for this termination
+	 */
+	public void setLearning(boolean learning) {
+		myLearning = learning;
+	}
+
+	/**
+	 * @return True if Oja smoothing is applied
+	 */
+	public boolean getOja() {
+		return myOja;
+	}
+
+	/**
+	 * @param oja Should this termination use Oja smoothing?
+	 */
+	public void setOja(boolean oja) {
+		myOja = oja;
+	}
+
+	/**
+	 * @param values Presynaptic activity; spikes are converted to rates (1/dt for a spike) when run
+	 *
+	 * @see ca.nengo.model.nef.impl.DecodedTermination#setValues(ca.nengo.model.InstantaneousOutput)
+	 */
+	@Override
+	public void setValues(InstantaneousOutput values) throws SimulationException {
+		if (values.getDimension() != getDimensions()) {
+			throw new SimulationException("Dimension of input (" + values.getDimension()
+					+ ") does not equal dimension of this Termination (" + getDimensions() + ")");
+		}
+		myRawValues = values;
+	}
+
+	/**
+	 * @see ca.nengo.model.nef.impl.DecodedTermination#run(float, float)
+	 */
+	@Override
+	public void run(float startTime, float endTime) throws SimulationException {
+		int n = getDimensions();
+		if (myRateBuffer == null || myRateBuffer.getDimension() != n) {
+			myRateBuffer = new RealOutputBuffer(n, Units.SPIKES_PER_S);
+		}
+		if (myInput == null || myInput.length != n) {
+			myInput = new float[n];
+			myFilteredInput = new float[n];
+		}
+
+		myStepSize = endTime - startTime;
+		float[] rates = myRateBuffer.getNextValues();
+		if (myRawValues instanceof SpikeOutput) {
+			boolean[] spikes = ((SpikeOutput) myRawValues).getValues();
+			float rate = 1f / myStepSize;
+			for (int j = 0; j < n; j++) {
+				rates[j] = spikes[j] ? rate : 0f;
+			}
+		} else if (myRawValues instanceof RealOutput) {
+			System.arraycopy(((RealOutput) myRawValues).getValues(), 0, rates, 0, n);
+		} else {
+			Arrays.fill(rates, 0f);
+		}
+		super.setValues(myRateBuffer.publish(Units.SPIKES_PER_S, endTime));
+		super.run(startTime, endTime);
+
+		//presynaptic activity for learning, filtered as in PESTermination
+		if (myRawValues != null) {
+			try {
+				PlasticEnsembleTermination.updateRaw(myInput, myRawValues, myStepSize);
+			} catch (StructuralException e) {
+				throw new SimulationException(e);
+			}
+			PlasticEnsembleTermination.updateFiltered(myInput, myFilteredInput, getTau(), myStepSize);
+		}
+	}
+
+	/**
+	 * Applies the PES rule to the decoders, using the latest output of the modulatory termination
+	 * as the error. This should be called by the ensemble after its terminations have run.
+	 *
+	 * @throws StructuralException If the modulatory termination doesn't exist
+	 * @throws SimulationException If the ensemble's output can't be found (for Oja smoothing)
+	 */
+	public void updateDecoders() throws StructuralException, SimulationException {
+		if (!myLearning || myFilteredInput == null) {
+			return;
+		}
+		if (myModTermName == null) {
+			throw new StructuralException("Modulatory termination name not set in DecodedPESTermination");
+		}
+
+		NEFEnsemble ensemble = (NEFEnsemble) getNode();
+		float[] error = ((DecodedTermination) ensemble.getTermination(myModTermName)).getOutput();
+		if (myFilteredModInput == null || myFilteredModInput.length != error.length) {
+			myFilteredModInput = new float[error.length];
+		}
+		PlasticEnsembleTermination.updateFiltered(error, myFilteredModInput, getTau(), myStepSize);
+
+		float decay = 0f;
+		if (myOja) {
+			InstantaneousOutput output = ensemble.getOrigin(NEFEnsemble.X).getValues();
+			if (output instanceof RealOutput) {
+				for (float element : ((RealOutput) output).getValues()) {
+					decay += element * element;
+				}
+			}
+			decay *= myLearningRate;
+		}
+
+		//the decoders are scaled by the inverse radii when encoded, so the error is scaled by the radii
+		float[] radii = ensemble.getRadii();
+		for (int k = 0; k < myDecoders.length; k++) {
+			float e = myLearningRate * radii[k] * myFilteredModInput[k];
+			float[] row = myDecoders[k];
+			for (int j = 0; j < row.length; j++) {
+				row[j] += e * myFilteredInput[j] - decay * row[j];
+			}
+		}
+	}
+
+	/**
+	 * @return Decoders (D x n) that are being learned (a copy)
+	 */
+	public float[][] getDecoders() {
+		return MU.clone(myDecoders);
+	}
+
+	/**
+	 * @return The full connection weight matrix (m x n) from presynaptic neurons onto the neurons
+	 * 		of the ensemble that is equivalent to the current decoders
+	 */
+	public float[][] getWeights() {
+		NEFEnsemble ensemble = (NEFEnsemble) getNode();
+		float[][] encoders = ensemble.getEncoders();
+		float[] radii = ensemble.getRadii();
+		Node[] nodes = ensemble.getNodes();
+
+		float[][] result = new float[encoders.length][];
+		float[] scaled = new float[radii.length];
+		for (int i = 0; i < encoders.length; i++) {
+			float gain = ((SpikingNeuron) nodes[i]).getScale();
+			for (int k = 0; k < radii.length; k++) {
+				scaled[k] = gain * encoders[i][k] / radii[k];
+			}
+			result[i] = MU.prod(new float[][]{scaled}, myDecoders)[0];
+		}
+		return result;
+	}
+
+	/**
+	 * @see ca.nengo.model.nef.impl.DecodedTermination#reset(boolean)
+	 */
+	@Override
+	public void reset(boolean randomize) {
+		super.reset(randomize);
+		for (int k = 0; k < myDecoders.length; k++) {
+			System.arraycopy(myInitialDecoders[k], 0, myDecoders[k], 0, myDecoders[k].length);
+		}
+		myRawValues = null;
+		if (myInput != null) {
+			Arrays.fill(myInput, 0f);
+			Arrays.fill(myFilteredInput, 0f);
+		}
+		if (myFilteredModInput != null) {
+			Arrays.fill(myFilteredModInput, 0f);
+		}
+	}
+
+	@Override
+	public DecodedPESTermination clone(Node node) throws CloneNotSupportedException {
+		DecodedPESTermination result = (DecodedPESTermination) super.clone(node);
+		result.myInitialDecoders = MU.clone(myInitialDecoders); //not the learned decoders set by super.clone(...)
+		result.myRateBuffer = null;
+		result.myInput = (myInput != null) ? myInput.clone() : null;
+		result.myFilteredInput = (myFilteredInput != null) ? myFilteredInput.clone() : null;
+		result.myFilteredModInput = (myFilteredModInput != null) ? myFilteredModInput.clone() : null;
+		return result;
+	}
+
+}
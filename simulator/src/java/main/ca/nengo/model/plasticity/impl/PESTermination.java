@@ -27,9 +27,11 @@ a recipient may use your version of this file under either the MPL or the GPL Li
  */
 package ca.nengo.model.plasticity.impl;
 
+import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.Node;
 import ca.nengo.model.PlasticNodeTermination;
 import ca.nengo.model.StructuralException;
+import ca.nengo.model.Termination;
 import ca.nengo.model.nef.NEFEnsemble;
 import ca.nengo.model.neuron.impl.SpikingNeuron;
 import ca.nengo.util.MU;
@@ -44,7 +46,12 @@ import ca.nengo.util.MU;
  * modulatory variable, though it can be multi-dimensional. This is also user-defined, as some other Termination
  * onto the same NEFEnsemble.
  *
- * TODO: test
+ * The update is a rank-one (outer product) change to the weights: the error projected onto each
+ * postsynaptic neuron's encoder is found once per neuron, and each row of weights is then updated
+ * in place. Optionally (see setBatchUpdates()), the updates of all steps since the weights were
+ * last changed can be applied together, which is useful with a plasticity interval. Subclasses
+ * with a different rule can opt out of this (see supportsBatchUpdates()).
+ *
  *
  * @author Bryan Tripp
  * @author Jonathan Lai
@@ -54,11 +61,25 @@ public class PESTermination extends ModulatedPlasticEnsembleTermination  {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Most steps that are recorded for a batch update. If the weights haven't been updated by
+     * the time the batch is full (eg the interval is very long, or the ensemble is run without
+     * its learning tasks), the batch is applied when the next step is recorded.
+     */
+    public static final int MAX_BATCH_STEPS = 1024;
+
     protected float[] myGain;
     private float[][] myEncoders;
 
     private boolean myOja = false; // Apply Oja smoothing?
 
+    private boolean myBatchUpdates = false;
+    private transient float[][] myBatchInputs; //filtered input at each step since last update
+    private transient float[][] myBatchErrors; //filtered modulatory input at each step
+    private transient float[] myBatchOja; //Oja decay rate at each step
+    transient int myBatchSize; //package-private for tests
+    private transient volatile boolean myBatchApplied;
+
     /**
      * @param ensemble The ensemble this termination belongs to
      * @param name Name of this Termination
@@ -90,6 +111,112 @@ public class PESTermination extends ModulatedPlasticEnsembleTermination  {
         myOja = oja;
     }
 
+    /**
+     * @return True if updates from all steps since the last weight update are applied together
+     */
+    public boolean getBatchUpdates() {
+        return myBatchUpdates && supportsBatchUpdates();
+    }
+
+    /**
+     * @return True if this termination's learning rule can be applied in batches. Subclasses that
+     *        override updateTransform(...) with a different rule should return false, in which
+     *        case setBatchUpdates(...) has no effect.
+     */
+    protected boolean supportsBatchUpdates() {
+        return true;
+    }
+
+    /**
+     * @param batch If true, the input and error at each step are recorded, and the updates for all
+     *        steps since the last weight update are applied together when the weights are next
+     *        updated. This only makes a difference if the ensemble's plasticity interval is set, in
+     *        which case learning is no longer slowed down by the interval. It is a good
+     *        approximation if the learning rate is small enough that the weights change little over
+     *        the interval. At most MAX_BATCH_STEPS steps are kept. This is ignored by subclasses
+     *        that don't support batches (see supportsBatchUpdates()).
+     */
+    public void setBatchUpdates(boolean batch) {
+        myBatchUpdates = batch;
+        myBatchSize = 0;
+    }
+
+    /**
+     * @see ca.nengo.model.plasticity.impl.ModulatedPlasticEnsembleTermination#setModTerminationState(java.lang.String, ca.nengo.model.InstantaneousOutput, float)
+     */
+    @Override
+    public void setModTerminationState(String name, InstantaneousOutput state, float time) throws StructuralException {
+        super.setModTerminationState(name, state, time);
+        if (getBatchUpdates() && name.equals(myModTermName) && isLearning()) {
+            recordStep();
+        }
+    }
+
+    private boolean isLearning() {
+        Node node = getNode();
+        return !(node instanceof PlasticEnsembleImpl) || ((PlasticEnsembleImpl) node).getLearning();
+    }
+
+    //saves the factors of this step's update, for use in a later batch update
+    private void recordStep() {
+        if (myBatchApplied) {
+            myBatchSize = 0;
+            myBatchApplied = false;
+        }
+        if (myFilteredInput == null || myFilteredModInput == null) {
+            return;
+        }
+
+        if (myBatchSize == MAX_BATCH_STEPS) {
+            //learning tasks run in a separate phase, so the weights aren't being updated now
+            updateWeights(0, getNodeTerminations().length, myBatchInputs, myBatchErrors, myBatchOja, myBatchSize);
+            myBatchSize = 0;
+        }
+
+        if (myBatchInputs == null || myBatchSize == myBatchInputs.length) {
+            int capacity = (myBatchInputs == null) ? 4 : Math.min(MAX_BATCH_STEPS, 2 * myBatchInputs.length);
+            myBatchInputs = copyOf(myBatchInputs, capacity);
+            myBatchErrors = copyOf(myBatchErrors, capacity);
+            float[] oja = new float[capacity];
+            if (myBatchOja != null) {
+                System.arraycopy(myBatchOja, 0, oja, 0, myBatchSize);
+            }
+            myBatchOja = oja;
+        }
+
+        myBatchInputs[myBatchSize] = copy(myFilteredInput, myBatchInputs[myBatchSize]);
+        myBatchErrors[myBatchSize] = copy(myFilteredModInput, myBatchErrors[myBatchSize]);
+        myBatchOja[myBatchSize] = getOjaRate();
+        myBatchSize++;
+    }
+
+    private static float[][] copyOf(float[][] rows, int capacity) {
+        float[][] result = new float[capacity][];
+        if (rows != null) {
+            System.arraycopy(rows, 0, result, 0, rows.length);
+        }
+        return result;
+    }
+
+    private static float[] copy(float[] from, float[] to) {
+        if (to == null || to.length != from.length) {
+            return from.clone();
+        }
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    //Oja term is this rate times the current weight
+    private float getOjaRate() {
+        float result = 0.0f;
+        if (myOja && myOutput != null) {
+            for (float element : myOutput) {
+                result += element * element;
+            }
+        }
+        return myLearningRate * result;
+    }
+
     /**
      * @see ca.nengo.model.plasticity.impl.PlasticEnsembleTermination#updateTransform(float, int, int)
      */
@@ -99,17 +226,74 @@ public class PESTermination extends ModulatedPlasticEnsembleTermination  {
             throw new StructuralException("Origin name not set in PESTermination");
         }
 
-        if (myFilteredInput == null) {
-        	return;
+        if (getBatchUpdates()) {
+            myBatchApplied = true;
+            updateWeights(start, end, myBatchInputs, myBatchErrors, myBatchOja, myBatchSize);
+        } else if (myFilteredInput != null && myFilteredModInput != null) {
+            updateWeights(start, end, new float[][]{myFilteredInput}, new float[][]{myFilteredModInput},
+                    new float[]{getOjaRate()}, 1);
+        }
+    }
+
+    /*
+     * Adds the sum over steps of the outer product of (scaled) error and input to the weights onto
+     * postsynaptic nodes start to end-1. The weights are changed in place, so that they don't have
+     * to be copied in and out of the node terminations.
+     */
+    private void updateWeights(int start, int end, float[][] inputs, float[][] errors, float[] oja, int steps) {
+        if (steps == 0) {
+            return;
+        }
+
+        Termination[] terms = this.getNodeTerminations();
+        float[] e = new float[steps];
+        float decay = 0.0f;
+        for (int t = 0; t < steps; t++) {
+            decay += oja[t];
         }
 
-        float[][] transform = this.getTransform();
         for (int postIx = start; postIx < end; postIx++) {
-            for (int preIx = 0; preIx < transform[postIx].length; preIx++) {
-                transform[postIx][preIx] += deltaOmega(postIx, preIx, transform[postIx][preIx]);
+            float[] encoder = myEncoders[postIx];
+            for (int t = 0; t < steps; t++) {
+                float dot = 0.0f;
+                for (int k = 0; k < encoder.length; k++) {
+                    dot += errors[t][k] * encoder[k];
+                }
+                e[t] = myLearningRate * dot * myGain[postIx];
+            }
+
+            PlasticNodeTermination pnt = (PlasticNodeTermination) terms[postIx];
+            float[] weights = pnt.getWeights();
+            if (steps == 1) {
+                float e0 = e[0];
+                float[] input = inputs[0];
+                for (int preIx = 0; preIx < weights.length; preIx++) {
+                    weights[preIx] += e0 * input[preIx] - decay * weights[preIx];
+                }
+            } else {
+                for (int preIx = 0; preIx < weights.length; preIx++) {
+                    float delta = 0.0f;
+                    for (int t = 0; t < steps; t++) {
+                        delta += e[t] * inputs[t][preIx];
+                    }
+                    weights[preIx] += delta - decay * weights[preIx];
+                }
+            }
+
+            if (pnt.getWeights() != weights) { //in case the termination only returns a copy
+                pnt.setWeights(weights, false);
             }
         }
-        this.setTransform(transform, false);
+    }
+
+    /**
+     * @see ca.nengo.model.plasticity.impl.ModulatedPlasticEnsembleTermination#reset(boolean)
+     */
+    @Override
+    public void reset(boolean randomize) {
+        super.reset(randomize);
+        myBatchSize = 0;
+        myBatchApplied = false;
     }
 
     protected float deltaOmega(int postIx, int preIx, float currentWeight) {
@@ -136,6 +320,10 @@ public class PESTermination extends ModulatedPlasticEnsembleTermination  {
 //        result.myFilteredInput = null;
         result.myGain = myGain.clone();
         result.myEncoders = MU.clone(myEncoders);
+        result.myBatchInputs = null;
+        result.myBatchErrors = null;
+        result.myBatchOja = null;
+        result.myBatchSize = 0;
         return result;
     }
 
@@ -62,6 +62,7 @@ public class PlasticEnsembleImpl extends EnsembleImpl implements TaskSpawner {
 
     private float myPlasticityInterval;
     private float myLastPlasticityTime;
+    private float myLastUpdateTime; //time at which learning tasks were last started
     private boolean myLearning = true;
 
     protected Map<String, PlasticEnsembleTermination> myPlasticEnsembleTerminations;
@@ -134,11 +135,13 @@ public class PlasticEnsembleImpl extends EnsembleImpl implements TaskSpawner {
 
         setStates(endTime); // updates myLastPlasticityTime
 
+        //the interval is measured from the last weight update (states are set every step)
         if ((myPlasticityInterval <= 0 && myLearning) ||
-                (myLearning && endTime >= myLastPlasticityTime + myPlasticityInterval)) {
+                (myLearning && endTime >= myLastUpdateTime + myPlasticityInterval)) {
             for (LearningTask task : myTasks) {
                 task.reset(false);
             }
+            myLastUpdateTime = endTime;
         }
     }
 
@@ -154,7 +157,7 @@ public class PlasticEnsembleImpl extends EnsembleImpl implements TaskSpawner {
                         DecodedTermination modTerm = (DecodedTermination)
                         		this.getTermination(((ModulatedPlasticEnsembleTermination) pet).getModTermName());
 
-                        InstantaneousOutput input = new RealOutputImpl(modTerm.getOutput(), Units.UNK, endTime);
+                        InstantaneousOutput input = new RealOutputImpl(modTerm.getOutput().clone(), Units.UNK, endTime);
                         ((ModulatedPlasticEnsembleTermination) pet).setModTerminationState
                         	(modTerm.getName(), input, endTime);
                     }
@@ -174,6 +177,7 @@ public class PlasticEnsembleImpl extends EnsembleImpl implements TaskSpawner {
     public void reset(boolean randomize) {
         super.reset(randomize);
         myLastPlasticityTime = 0.0f;
+        myLastUpdateTime = 0.0f;
     }
 
     /**
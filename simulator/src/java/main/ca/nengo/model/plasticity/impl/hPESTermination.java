@@ -44,6 +44,9 @@ import ca.nengo.model.neuron.Neuron;
  * modulatory variable, though it can be multi-dimensional. This is also user-defined, as some other Termination
  * onto the same NEFEnsemble.
  *
+ * Updates are always applied one step at a time, as batch updates (see
+ * PESTermination.setBatchUpdates()) aren't supported by this rule.
+ *
  * TODO: test
  *
  * @author Bryan Tripp
@@ -113,6 +116,15 @@ public class hPESTermination extends PESTermination  {
 		mySupervisionRatio = supervisionRatio;
 	}
 
+    /**
+     * @return False, as updateTransform(...) doesn't use batches
+     * @see ca.nengo.model.plasticity.impl.PESTermination#supportsBatchUpdates()
+     */
+    @Override
+    protected boolean supportsBatchUpdates() {
+        return false;
+    }
+
     /**
      * @see ca.nengo.model.plasticity.impl.PlasticEnsembleTermination#updateTransform(float, int, int)
      */
@@ -36,7 +36,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
+import ca.nengo.math.PDFTools;
 import ca.nengo.model.Ensemble;
 import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.Network;
@@ -45,6 +47,7 @@ import ca.nengo.model.Probeable;
 import ca.nengo.model.Projection;
 import ca.nengo.model.SimulationException;
 import ca.nengo.model.Termination;
+import ca.nengo.model.impl.FunctionInput;
 import ca.nengo.model.impl.NetworkImpl;
 import ca.nengo.model.plasticity.impl.PlasticEnsembleTermination;
 import ca.nengo.sim.Simulator;
@@ -76,6 +79,7 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
     private boolean myDisplayProgress;
     private transient List<VisiblyMutable.Listener> myChangeListeners;
     private transient NodeThreadPool myNodeThreadPool;
+    private transient Random[] myNodeStreams; //random stream of each node, indexed as myNodes
 
     /**
      * Collection of Simulator
@@ -96,6 +100,7 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
     	myNetwork = network;
         
         myNodes = network.getNodes();
+        myNodeStreams = null;
         myProjections = network.getProjections();
 
         myNodeMap = new HashMap<String, Node>(myNodes.length * 2);
@@ -132,6 +137,27 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
         }
     }
 
+    /**
+     * Allocates space in probes (including those in sub-networks) for the data from a
+     * simulation of the given length.
+     *
+     * @param duration Length of simulation (s)
+     * @param stepSize Network time step (s)
+     */
+    public void reserveProbes(float duration, float stepSize) {
+        for (Probe probe : myProbes) {
+            if (probe instanceof ProbeImpl) {
+                ((ProbeImpl) probe).reserve(duration, stepSize);
+            }
+        }
+
+        for (Node node : myNodes) {
+            if (node instanceof Network && ((Network) node).getSimulator() instanceof LocalSimulator) {
+                ((LocalSimulator) ((Network) node).getSimulator()).reserveProbes(duration, stepSize);
+            }
+        }
+    }
+
     /**
      * @see ca.nengo.sim.Simulator#run(float, float, float)
      */
@@ -146,6 +172,12 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
     public synchronized void run(float startTime, float endTime, float stepSize, boolean topLevel)
             throws SimulationException {
     	
+    	 if (topLevel) {
+    		 NodeThreadPool.assignRandomStreams(myNetwork);
+    		 precomputeInputs(myNetwork.getNodes(), startTime, endTime, stepSize);
+    	 }
+    	 myNodeStreams = null;
+
     	 myNodeThreadPool = null;
          myNodeThreadPool = new NodeThreadPool(myNetwork, myProbeTasks);
 
@@ -157,6 +189,7 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
         if(topLevel)
         {
             resetProbes();
+            reserveProbes(endTime - startTime, stepSize);
         }
 
         fireSimulatorEvent(new SimulatorEvent(0, SimulatorEvent.Type.STARTED));
@@ -183,37 +216,49 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
 
         int c = 0;
         boolean interrupt=false;
-        
-        while (time < endTime && !interrupt) {
+        try {
+            while (time < endTime && !interrupt) {
 
-            if (c++ % 100 == 99 && myDisplayProgress) {
-                System.out.println("Step " + c + " " + Math.min(endTime, time + thisStepSize));
-            }
+                if (c++ % 100 == 99 && myDisplayProgress) {
+                    System.out.println("Step " + c + " " + Math.min(endTime, time + thisStepSize));
+                }
 
-            if (time + 1.5*thisStepSize > endTime) { //fudge step size to hit end exactly
-                thisStepSize = endTime - time;
-            }
+                if (time + 1.5*thisStepSize > endTime) { //fudge step size to hit end exactly
+                    thisStepSize = endTime - time;
+                }
 
-            step((float) time, (float) (time+thisStepSize));
+                step((float) time, (float) (time+thisStepSize));
 
-            float currentProgress = ((float) time - startTime) / (endTime - startTime);
+                float currentProgress = ((float) time - startTime) / (endTime - startTime);
             
-            SimulatorEvent event=new SimulatorEvent(currentProgress,
-                    SimulatorEvent.Type.STEP_TAKEN);
-            fireSimulatorEvent(event);
-            if (event.getInterrupt()) interrupt=true;
+                SimulatorEvent event=new SimulatorEvent(currentProgress,
+                        SimulatorEvent.Type.STEP_TAKEN);
+                fireSimulatorEvent(event);
+                if (event.getInterrupt()) interrupt=true;
 
-            time += thisStepSize;
+                time += thisStepSize;
+            }
+        } finally {
+            // the pool's threads wait for the next step until they are killed
+            if(myNodeThreadPool != null){
+                myNodeThreadPool.kill();
+                myNodeThreadPool = null;
+            }
         }
 
         fireSimulatorEvent(new SimulatorEvent(1f, SimulatorEvent.Type.FINISHED));
 
+    }
 
-        if(myNodeThreadPool != null){
-            myNodeThreadPool.kill();
-            myNodeThreadPool = null;
+    //rebuilds the tables of FunctionInputs that use them, in this network and any subnetworks
+    private static void precomputeInputs(Node[] nodes, float startTime, float endTime, float stepSize) {
+        for (Node node : nodes) {
+            if (node instanceof FunctionInput && ((FunctionInput) node).getUseTable()) {
+                ((FunctionInput) node).precompute(startTime, endTime, stepSize);
+            } else if (node instanceof Network) {
+                precomputeInputs(((Network) node).getNodes(), startTime, endTime, stepSize);
+            }
         }
-
     }
 
     public void step(float startTime, float endTime)
@@ -229,11 +274,19 @@ public class LocalSimulator implements Simulator, java.io.Serializable {
                 myProjection.getTermination().setValues(values);
             }
 
-            for (Node myNode : myNodes) {
-                if(myNode instanceof NetworkImpl) {
-                    ((NetworkImpl)myNode).run(startTime, endTime, false);
-                } else {
-                    myNode.run(startTime, endTime);
+            if (myNodeStreams == null || myNodeStreams.length != myNodes.length) {
+                myNodeStreams = NodeThreadPool.getRandomStreams(myNodes);
+            }
+            for (int i = 0; i < myNodes.length; i++) {
+                Random previous = PDFTools.setCurrentStream(myNodeStreams[i]);
+                try {
+                    if(myNodes[i] instanceof NetworkImpl) {
+                        ((NetworkImpl)myNodes[i]).run(startTime, endTime, false);
+                    } else {
+                        myNodes[i].run(startTime, endTime);
+                    }
+                } finally {
+                    PDFTools.setCurrentStream(previous);
                 }
             }
 
@@ -0,0 +1,441 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "StreamToDiskSimulatorListener.java". Description:
+"Streams probe data to a binary file from a writer thread"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.sim.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import ca.nengo.model.Ensemble;
+import ca.nengo.model.InstantaneousOutput;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.SpikeOutput;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.SpikeOutputImpl;
+import ca.nengo.model.neuron.Neuron;
+import ca.nengo.sim.SimulatorEvent;
+import ca.nengo.sim.SimulatorListener;
+import ca.nengo.util.Probe;
+import ca.nengo.util.SpikePattern;
+import ca.nengo.util.TimeSeries;
+import ca.nengo.util.impl.ProbeImpl;
+import ca.nengo.util.impl.SpikePatternImpl;
+import ca.nengo.util.impl.TimeSeriesImpl;
+
+/**
+ * <p>Streams values tracked by a probe, or spikes from an ensemble, to a binary file during a
+ * simulation.</p>
+ *
+ * <p>Unlike WriteToDiskSimulatorListener, this doesn't write text or flush after every record.
+ * Records are packed into buffers that are written by a background thread, so the simulation
+ * only waits for the disk if a bounded number of buffers are all waiting to be written. Data are
+ * appended as they are produced, so the probe doesn't need to record (ie keep a history of) its
+ * data.</p>
+ *
+ * <p>The file starts with a header: magic number, format version, record type (SAMPLES or
+ * SPIKES), name, and dimension, followed by the units of each dimension (SAMPLES only). This is
+ * followed by records until the end of the file. A SAMPLES record is a time and one float per
+ * dimension. A SPIKES record is a time, a count of neurons that spiked, and the index of each of
+ * those neurons (steps without spikes have no record). All values are big-endian. The
+ * read(...) methods load files in this format.</p>
+ *
+ * Example usage (Python syntax):
+ *   probe_error = network.getSimulator().addProbe("error",error.X,False)
+ *   listener_error = StreamToDiskSimulatorListener(File("output/error.bin"),probe_error,0.005)
+ *   network.simulator.addSimulatorListener(listener_error)
+ */
+public class StreamToDiskSimulatorListener implements SimulatorListener {
+
+	/**
+	 * Marks the start of a file in this format
+	 */
+	public static final int MAGIC = 0x4E474F53; //"NGOS"
+
+	/**
+	 * Format version
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Record type of files with probe samples
+	 */
+	public static final byte SAMPLES = 0;
+
+	/**
+	 * Record type of files with spike events
+	 */
+	public static final byte SPIKES = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int NUM_BUFFERS = 8;
+
+	private final File myFile;
+	private final Probe myTargetProbe;
+	private final Ensemble myTargetEnsemble;
+	private final float myRecordInterval;
+	private float myLastInterval;
+	private float[] mySample;
+
+	private BlockingQueue<ByteBuffer> myFreeBuffers;
+	private BlockingQueue<ByteBuffer> myFullBuffers;
+	private ByteBuffer myBuffer;
+	private Thread myWriterThread;
+	private volatile IOException myError;
+
+	/**
+	 * @param file The file that data will be written to. If it already exists, it will be overwritten.
+	 * @param targetProbe The Probe from which data will be collected. It doesn't have to record data.
+	 * @param recordInterval How often data will be written. To record every timestep, use 0.0.
+	 */
+	public StreamToDiskSimulatorListener(File file, Probe targetProbe, float recordInterval) {
+		myFile = file;
+		myTargetProbe = targetProbe;
+		myTargetEnsemble = null;
+		myRecordInterval = recordInterval;
+	}
+
+	/**
+	 * @param file The file that spikes will be written to. If it already exists, it will be overwritten.
+	 * @param targetEnsemble The Ensemble whose spikes will be written (at every timestep).
+	 */
+	public StreamToDiskSimulatorListener(File file, Ensemble targetEnsemble) {
+		myFile = file;
+		myTargetProbe = null;
+		myTargetEnsemble = targetEnsemble;
+		myRecordInterval = 0;
+	}
+
+	/**
+	 * @param event The SimulatorEvent corresponding to the current state of the simulator.
+	 */
+	public void processEvent(SimulatorEvent event) {
+		try {
+			if (event.getType() == SimulatorEvent.Type.STARTED) {
+				start();
+			} else if (event.getType() == SimulatorEvent.Type.STEP_TAKEN) {
+				if (myBuffer == null) { //listener was added during the run
+					start();
+				}
+				if (myTargetProbe != null) {
+					writeSample();
+				} else {
+					writeSpikes();
+				}
+			} else if (event.getType() == SimulatorEvent.Type.FINISHED) {
+				finish();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("IO Exception in StreamToDiskSimulatorListener: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("Interrupted while writing to " + myFile);
+		}
+	}
+
+	private void start() throws IOException {
+		if (myWriterThread != null) {
+			try {
+				finish(); //previous run was interrupted
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		myLastInterval = myRecordInterval;
+		myError = null;
+		myFreeBuffers = new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS);
+		myFullBuffers = new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS + 1);
+		for (int i = 0; i < NUM_BUFFERS - 1; i++) {
+			myFreeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+		}
+		myBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		final FileChannel channel = new FileOutputStream(myFile).getChannel();
+		myWriterThread = new Thread("Writer for " + myFile.getName()) {
+			public void run() {
+				try {
+					ByteBuffer buffer;
+					while ((buffer = myFullBuffers.take()).capacity() > 0) {
+						buffer.flip();
+						try {
+							if (myError == null) {
+								while (buffer.hasRemaining()) {
+									channel.write(buffer);
+								}
+							}
+						} catch (IOException e) {
+							myError = e;
+						}
+						buffer.clear();
+						myFreeBuffers.put(buffer);
+					}
+				} catch (InterruptedException e) {
+					myError = new IOException("Interrupted while writing to " + myFile);
+				} finally {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						if (myError == null) {
+							myError = e;
+						}
+					}
+				}
+			}
+		};
+		myWriterThread.setDaemon(true);
+		myWriterThread.start();
+	}
+
+	private void writeSample() throws IOException, InterruptedException {
+		float time;
+		if (myTargetProbe instanceof ProbeImpl) {
+			ProbeImpl probe = (ProbeImpl) myTargetProbe;
+			if (probe.getDimension() < 0) {
+				return;
+			}
+			if (mySample == null) {
+				mySample = new float[probe.getDimension()];
+				writeHeader(SAMPLES, probe.getDimension(), probe.getUnits());
+			}
+			time = probe.getLatestSample(mySample);
+		} else {
+			TimeSeries data = myTargetProbe.getData();
+			float[] times = data.getTimes();
+			if (times.length == 0) {
+				return;
+			}
+			if (mySample == null) {
+				mySample = new float[data.getDimension()];
+				writeHeader(SAMPLES, data.getDimension(), data.getUnits());
+			}
+			time = times[times.length-1];
+			System.arraycopy(data.getValues()[times.length-1], 0, mySample, 0, mySample.length);
+		}
+
+		if (time >= myLastInterval) {
+			ensureSpace(4 * (mySample.length + 1));
+			myBuffer.putFloat(time);
+			for (float value : mySample) {
+				myBuffer.putFloat(value);
+			}
+			myLastInterval += myRecordInterval;
+		}
+	}
+
+	private void writeSpikes() throws IOException, InterruptedException {
+		InstantaneousOutput output;
+		try {
+			output = myTargetEnsemble.getOrigin(Neuron.AXON).getValues();
+		} catch (StructuralException e) {
+			throw new IOException("Ensemble " + myTargetEnsemble.getName() + " doesn't have spiking output");
+		} catch (SimulationException e) {
+			throw new IOException(e.getMessage());
+		}
+		if (!(output instanceof SpikeOutput)) {
+			throw new IOException("Ensemble " + myTargetEnsemble.getName() + " isn't producing spikes");
+		}
+
+		if (mySample == null) {
+			mySample = new float[0];
+			writeHeader(SPIKES, output.getDimension(), null);
+		}
+
+		int[] spikes = (output instanceof SpikeOutputImpl)
+			? ((SpikeOutputImpl) output).getSpikeIndices()
+			: SpikeOutputImpl.findSpikeIndices(((SpikeOutput) output).getValues());
+		if (spikes.length > 0) {
+			ensureSpace(8);
+			myBuffer.putFloat(output.getTime());
+			myBuffer.putInt(spikes.length);
+			for (int spike : spikes) {
+				ensureSpace(4);
+				myBuffer.putInt(spike);
+			}
+		}
+	}
+
+	private void writeHeader(byte type, int dimension, Units[] units) throws IOException, InterruptedException {
+		String name = (myTargetProbe != null) ? myTargetProbe.getStateName() : myTargetEnsemble.getName();
+		byte[] nameBytes = name.getBytes("UTF-8");
+		ensureSpace(13 + 4 + nameBytes.length);
+		myBuffer.putInt(MAGIC);
+		myBuffer.putInt(VERSION);
+		myBuffer.put(type);
+		putBytes(nameBytes);
+		myBuffer.putInt(dimension);
+		if (type == SAMPLES) {
+			for (int i = 0; i < dimension; i++) {
+				Units u = (units == null || units.length == 0) ? Units.UNK : units[Math.min(i, units.length-1)];
+				byte[] unitBytes = u.name().getBytes("UTF-8");
+				ensureSpace(4 + unitBytes.length);
+				putBytes(unitBytes);
+			}
+		}
+	}
+
+	private void putBytes(byte[] bytes) {
+		myBuffer.putInt(bytes.length);
+		myBuffer.put(bytes);
+	}
+
+	//hands the current buffer to the writer thread if it doesn't have the given space
+	private void ensureSpace(int bytes) throws IOException, InterruptedException {
+		if (myError != null) {
+			IOException e = myError;
+			myError = null;
+			throw e;
+		}
+		if (myBuffer.remaining() < bytes) {
+			myFullBuffers.put(myBuffer);
+			myBuffer = myFreeBuffers.take();
+		}
+	}
+
+	private void finish() throws IOException, InterruptedException {
+		if (myWriterThread == null) {
+			return;
+		}
+
+		myFullBuffers.put(myBuffer);
+		myFullBuffers.put(ByteBuffer.allocate(0)); //tells writer to stop
+		myWriterThread.join();
+		myWriterThread = null;
+		myBuffer = null;
+		mySample = null;
+
+		if (myError != null) {
+			IOException e = myError;
+			myError = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * @param file A file of SAMPLES written by this class
+	 * @return Samples in the file
+	 * @throws IOException If the file can't be read or is in the wrong format
+	 */
+	public static TimeSeries readSamples(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			String name = readHeader(in, SAMPLES);
+			int dimension = in.readInt();
+			Units[] units = new Units[dimension];
+			for (int i = 0; i < dimension; i++) {
+				units[i] = Units.valueOf(readString(in));
+			}
+
+			List<Float> times = new ArrayList<Float>(1000);
+			List<float[]> values = new ArrayList<float[]>(1000);
+			while (true) {
+				float time;
+				try {
+					time = in.readFloat();
+				} catch (EOFException e) {
+					break;
+				}
+				float[] sample = new float[dimension];
+				for (int i = 0; i < dimension; i++) {
+					sample[i] = in.readFloat();
+				}
+				times.add(Float.valueOf(time));
+				values.add(sample);
+			}
+
+			float[] timeArray = new float[times.size()];
+			for (int i = 0; i < timeArray.length; i++) {
+				timeArray[i] = times.get(i).floatValue();
+			}
+			TimeSeriesImpl result = new TimeSeriesImpl(timeArray, values.toArray(new float[0][]), units);
+			result.setName(name);
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param file A file of SPIKES written by this class
+	 * @return Spikes in the file
+	 * @throws IOException If the file can't be read or is in the wrong format
+	 */
+	public static SpikePattern readSpikes(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			readHeader(in, SPIKES);
+			SpikePatternImpl result = new SpikePatternImpl(in.readInt());
+			while (true) {
+				float time;
+				try {
+					time = in.readFloat();
+				} catch (EOFException e) {
+					break;
+				}
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					result.addSpike(in.readInt(), time);
+				}
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	//checks magic number, version and type, and returns name
+	private static String readHeader(DataInputStream in, byte type) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a stream file");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported stream file version: " + version);
+		}
+		byte fileType = in.readByte();
+		if (fileType != type) {
+			throw new IOException("Expected record type " + type + " but file has type " + fileType);
+		}
+		return readString(in);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
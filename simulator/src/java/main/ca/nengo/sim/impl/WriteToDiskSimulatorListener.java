@@ -35,6 +35,8 @@ import java.io.IOException;
 import java.util.Calendar;
 
 import ca.nengo.util.Probe;
+import ca.nengo.util.TimeSeries;
+import ca.nengo.util.impl.ProbeImpl;
 import ca.nengo.sim.SimulatorEvent;
 import ca.nengo.sim.SimulatorListener;
 
@@ -91,14 +93,24 @@ public class WriteToDiskSimulatorListener implements SimulatorListener {
 	        	myStartTime = Calendar.getInstance().getTimeInMillis();
 	        	myWriter = new BufferedWriter(new FileWriter(myFile));
 	        } else if (event.getType() == SimulatorEvent.Type.STEP_TAKEN) {
-	            float[] times = myTargetProbe.getData().getTimes();
+	            float time;
+	            float[] sample;
+	            if (myTargetProbe instanceof ProbeImpl) {
+	            	//avoids copying the whole history at every step
+	            	ProbeImpl probe = (ProbeImpl) myTargetProbe;
+	            	sample = new float[Math.max(0, probe.getDimension())];
+	            	time = probe.getLatestSample(sample);
+	            } else {
+	            	TimeSeries data = myTargetProbe.getData();
+	            	float[] times = data.getTimes();
+	            	time = times[times.length - 1];
+	            	sample = data.getValues()[times.length - 1];
+	            }
 	            
-	            if (times[times.length - 1] >= myLastInterval) {
-	                float[][] data = myTargetProbe.getData().getValues();
-	
-	                myWriter.write(Float.toString(times[times.length-1]));
-	                for (int i=0; i < data[0].length; i++) {
-	                	myWriter.write("," + Float.toString(data[times.length-1][i]));
+	            if (time >= myLastInterval) {
+	                myWriter.write(Float.toString(time));
+	                for (int i=0; i < sample.length; i++) {
+	                	myWriter.write("," + Float.toString(sample[i]));
 	                }
 	                myWriter.newLine();
 	                myWriter.flush();
@@ -41,6 +41,7 @@ import ca.nengo.model.Ensemble;
 import ca.nengo.model.Node;
 import ca.nengo.model.nef.NEFEnsemble;
 import ca.nengo.model.neuron.impl.SpikingNeuron;
+import ca.nengo.util.impl.MappedTimeSeries;
 import ca.nengo.util.impl.SpikePatternImpl;
 import ca.nengo.util.impl.TimeSeries1DImpl;
 import ca.nengo.util.impl.TimeSeriesImpl;
@@ -93,6 +94,16 @@ public class DataUtils {
 					+ " is out of range; should be between 0 and " + (series.getDimension()-1));
 		}
 		
+		if (series instanceof MappedTimeSeries) {
+			MappedTimeSeries view = ((MappedTimeSeries) series).getDimensions(new int[]{dim});
+			float[][] values = view.getValues();
+			float[] result = new float[values.length];
+			for (int i = 0; i < values.length; i++) {
+				result[i] = values[i][0];
+			}
+			return new TimeSeries1DImpl(view.getTimes(), result, view.getUnits()[0]);
+		}
+		
 		return new TimeSeries1DImpl(series.getTimes(), MU.transpose(series.getValues())[dim], series.getUnits()[dim]);
 	}
 	
@@ -103,6 +114,10 @@ public class DataUtils {
 	 * @return A TimeSeries that includes any samples in the given TimeSeries between the start and end times
 	 */
 	public static TimeSeries extractTime(TimeSeries series, float start, float end) {
+		if (series instanceof MappedTimeSeries) {
+			return ((MappedTimeSeries) series).getWindow(start, end);
+		}
+		
 		MU.VectorExpander times = new MU.VectorExpander();
 		MU.MatrixExpander values = new MU.MatrixExpander();
 		
@@ -126,6 +141,10 @@ public class DataUtils {
 	 * @return New TimeSeries composed of one of every <code>period</code> samples in the original 
 	 */
 	public static TimeSeries subsample(TimeSeries series, int period) {
+		if (series instanceof MappedTimeSeries) {
+			return ((MappedTimeSeries) series).subsample(period);
+		}
+		
 		MU.VectorExpander times = new MU.VectorExpander();
 		MU.MatrixExpander values = new MU.MatrixExpander();
 		
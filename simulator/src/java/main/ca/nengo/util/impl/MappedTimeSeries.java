@@ -0,0 +1,317 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "MappedTimeSeries.java". Description:
+"A TimeSeries backed by a memory-mapped sample file"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.util.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ca.nengo.model.Units;
+import ca.nengo.sim.impl.StreamToDiskSimulatorListener;
+import ca.nengo.util.TimeSeries;
+
+/**
+ * A TimeSeries that reads samples from a memory-mapped file, as written by
+ * StreamToDiskSimulatorListener. Samples are only read (and paged in by the OS) as they are
+ * accessed, so recordings much larger than the heap can be examined.
+ *
+ * getTimes() and getValues() copy the series onto the heap, so for large recordings, first
+ * narrow it with getWindow(), getDimensions() and subsample(). These return views of the same
+ * file in constant or logarithmic time. DataUtils.extractTime(), extractDimension() and
+ * subsample() use these views for MappedTimeSeries. Individual samples can also be read with
+ * getTime() and getValue().
+ */
+public class MappedTimeSeries implements TimeSeries {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient MappedByteBuffer[] mySegments;
+	private final int myRowsPerSegment;
+	private final int myRowBytes;
+	private final String myName;
+	private final Units[] myAllUnits;
+
+	//view
+	private final int myStart;
+	private final int myLength;
+	private final int myStride;
+	private final int[] myDimensions;
+
+	/**
+	 * @param file A file of samples written by StreamToDiskSimulatorListener
+	 * @throws IOException If the file can't be read or is in the wrong format
+	 */
+	public MappedTimeSeries(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long headerBytes;
+		try {
+			if (in.readInt() != StreamToDiskSimulatorListener.MAGIC) {
+				throw new IOException("Not a stream file: " + file);
+			}
+			int version = in.readInt();
+			if (version != StreamToDiskSimulatorListener.VERSION) {
+				throw new IOException("Unsupported stream file version: " + version);
+			}
+			if (in.readByte() != StreamToDiskSimulatorListener.SAMPLES) {
+				throw new IOException("File doesn't contain samples: " + file);
+			}
+			byte[] name = new byte[in.readInt()];
+			in.readFully(name);
+			myName = new String(name, "UTF-8");
+			headerBytes = 17 + name.length;
+
+			myAllUnits = new Units[in.readInt()];
+			for (int i = 0; i < myAllUnits.length; i++) {
+				byte[] units = new byte[in.readInt()];
+				in.readFully(units);
+				myAllUnits[i] = Units.valueOf(new String(units, "UTF-8"));
+				headerBytes += 4 + units.length;
+			}
+		} finally {
+			in.close();
+		}
+
+		myRowBytes = 4 * (myAllUnits.length + 1);
+		myRowsPerSegment = Integer.MAX_VALUE / myRowBytes;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long rows = (channel.size() - headerBytes) / myRowBytes; //ignores a partly written row
+			if (rows > Integer.MAX_VALUE) {
+				throw new IOException("Too many samples in " + file);
+			}
+			myLength = (int) rows;
+
+			//mappings are limited to 2GB, so large files are split into segments of whole rows
+			mySegments = new MappedByteBuffer[(myLength + myRowsPerSegment - 1) / myRowsPerSegment];
+			for (int i = 0; i < mySegments.length; i++) {
+				int segmentRows = Math.min(myRowsPerSegment, myLength - i * myRowsPerSegment);
+				mySegments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						headerBytes + (long) i * myRowsPerSegment * myRowBytes, (long) segmentRows * myRowBytes);
+			}
+		} finally {
+			raf.close(); //mappings remain valid
+		}
+
+		myStart = 0;
+		myStride = 1;
+		myDimensions = new int[myAllUnits.length];
+		for (int i = 0; i < myDimensions.length; i++) {
+			myDimensions[i] = i;
+		}
+	}
+
+	private MappedTimeSeries(MappedTimeSeries series, int start, int length, int stride, int[] dimensions) {
+		mySegments = series.mySegments;
+		myRowsPerSegment = series.myRowsPerSegment;
+		myRowBytes = series.myRowBytes;
+		myName = series.myName;
+		myAllUnits = series.myAllUnits;
+
+		myStart = start;
+		myLength = length;
+		myStride = stride;
+		myDimensions = dimensions;
+	}
+
+	/**
+	 * @return Number of samples
+	 */
+	public int getLength() {
+		return myLength;
+	}
+
+	/**
+	 * @param index Index of a sample
+	 * @return Time of the sample
+	 */
+	public float getTime(int index) {
+		return read(index, 0);
+	}
+
+	/**
+	 * @param index Index of a sample
+	 * @param dimension Dimension of the sample to return
+	 * @return Value of the sample in the given dimension
+	 */
+	public float getValue(int index, int dimension) {
+		return read(index, myDimensions[dimension] + 1);
+	}
+
+	private float read(int index, int column) {
+		if (index < 0 || index >= myLength) {
+			throw new IndexOutOfBoundsException("Sample " + index + " is out of range; there are " + myLength);
+		}
+		int row = myStart + index * myStride;
+		return mySegments[row / myRowsPerSegment].getFloat((row % myRowsPerSegment) * myRowBytes + 4 * column);
+	}
+
+	/**
+	 * @param time A simulation time
+	 * @return Index of the first sample at or after the given time (getLength() if there is none)
+	 */
+	public int findIndex(float time) {
+		return search(time, false);
+	}
+
+	//binary search (times increase); finds first sample after (or at, if !inclusive) time
+	private int search(float time, boolean inclusive) {
+		int low = 0;
+		int high = myLength;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			float t = getTime(mid);
+			if (t < time || (inclusive && t == time)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param start Beginning of window
+	 * @param end End of window
+	 * @return A view of the samples between the start and end times (inclusive)
+	 */
+	public MappedTimeSeries getWindow(float start, float end) {
+		int first = search(start, false);
+		int last = Math.max(first, search(end, true));
+		return new MappedTimeSeries(this, myStart + first * myStride, last - first, myStride, myDimensions);
+	}
+
+	/**
+	 * @param dimensions Indices of dimensions of this series
+	 * @return A view of the given dimensions
+	 */
+	public MappedTimeSeries getDimensions(int[] dimensions) {
+		int[] mapped = new int[dimensions.length];
+		for (int i = 0; i < dimensions.length; i++) {
+			if (dimensions[i] < 0 || dimensions[i] >= myDimensions.length) {
+				throw new IllegalArgumentException("Dimension " + dimensions[i]
+						+ " is out of range; should be between 0 and " + (myDimensions.length-1));
+			}
+			mapped[i] = myDimensions[dimensions[i]];
+		}
+		return new MappedTimeSeries(this, myStart, myLength, myStride, mapped);
+	}
+
+	/**
+	 * @param period The sub-sampling period
+	 * @return A view of one of every <code>period</code> samples
+	 */
+	public MappedTimeSeries subsample(int period) {
+		if (period < 1) {
+			throw new IllegalArgumentException("Period must be at least 1");
+		}
+		return new MappedTimeSeries(this, myStart, (myLength + period - 1) / period, myStride * period, myDimensions);
+	}
+
+	/**
+	 * @see ca.nengo.util.TimeSeries#getName()
+	 */
+	public String getName() {
+		return myName;
+	}
+
+	/**
+	 * Copies times onto the heap.
+	 *
+	 * @see ca.nengo.util.TimeSeries#getTimes()
+	 */
+	public float[] getTimes() {
+		float[] result = new float[myLength];
+		for (int i = 0; i < myLength; i++) {
+			result[i] = getTime(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @see ca.nengo.util.TimeSeries#getDimension()
+	 */
+	public int getDimension() {
+		return myDimensions.length;
+	}
+
+	/**
+	 * Copies values onto the heap.
+	 *
+	 * @see ca.nengo.util.TimeSeries#getValues()
+	 */
+	public float[][] getValues() {
+		float[][] result = new float[myLength][];
+		for (int i = 0; i < myLength; i++) {
+			result[i] = new float[myDimensions.length];
+			for (int j = 0; j < myDimensions.length; j++) {
+				result[i][j] = getValue(i, j);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @see ca.nengo.util.TimeSeries#getUnits()
+	 */
+	public Units[] getUnits() {
+		Units[] result = new Units[myDimensions.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = myAllUnits[myDimensions[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * @see ca.nengo.util.TimeSeries#getLabels()
+	 */
+	public String[] getLabels() {
+		String[] result = new String[myDimensions.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = String.valueOf(myDimensions[i]+1);
+		}
+		return result;
+	}
+
+	@Override
+	public TimeSeries clone() throws CloneNotSupportedException {
+		return new MappedTimeSeries(this, myStart, myLength, myStride, myDimensions.clone());
+	}
+
+	//mappings can't be serialized, so the data are copied
+	private Object writeReplace() throws ObjectStreamException {
+		TimeSeriesImpl result = new TimeSeriesImpl(getTimes(), getValues(), getUnits(), getLabels());
+		result.setName(myName);
+		return result;
+	}
+
+}
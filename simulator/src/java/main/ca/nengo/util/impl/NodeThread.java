@@ -1,7 +1,10 @@
 package ca.nengo.util.impl;
 
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import ca.nengo.math.PDFTools;
 import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.Node;
 import ca.nengo.model.Projection;
@@ -11,25 +14,26 @@ import ca.nengo.util.ThreadTask;
 /**
  * A thread for running projections, nodes and tasks in. Projections are all runs before nodes, nodes before tasks.
  *
+ * Nodes are taken from the front of this thread's queue. A thread that empties its own queue
+ * takes (steals) remaining nodes from the queues of the other threads in the pool, so that a
+ * slow node doesn't leave the other threads idle.
+ *
  * @author Eric Crawford
  */
 public class NodeThread extends Thread {
 
 	private NodeThreadPool myNodeThreadPool;
 
+	// Each thread keeps its own copy of its share of the work, so that the threads don't read
+	// from the same arrays during a step.
 	private Node[] myNodes;
-	private int myStartIndexInNodes;
-	private int myEndIndexInNodes;
-
+	private int[] myNodeIndices; //indices of myNodes in the pool
+	private final AtomicInteger myNextNode;
 	private Projection[] myProjections;
-	private int myStartIndexInProjections;
-	private int myEndIndexInProjections;
-
 	private ThreadTask[] myTasks;
-	private int myStartIndexInTasks;
-	private int myEndIndexInTasks;
 
 	private boolean myCollectTimings;
+	private volatile long myIdleTime;
 
 	private double myAverageTimeOnProjectionsPerStep;
 	private double myAverageTimeOnNodesPerStep;
@@ -45,18 +49,14 @@ public class NodeThread extends Thread {
 
 		myNodeThreadPool = nodePool;
 
-		myNodes = nodes;
-		myProjections = projections;
-        myTasks = tasks;
-
-		myStartIndexInNodes = startIndexInNodes;
-		myEndIndexInNodes = endIndexInNodes;
-
-		myStartIndexInProjections = startIndexInProjections;
-		myEndIndexInProjections = endIndexInProjections;
-
-		myStartIndexInTasks = startIndexInTasks;
-		myEndIndexInTasks = endIndexInTasks;
+		myNodes = slice(nodes, startIndexInNodes, endIndexInNodes, Node.class);
+		myNodeIndices = new int[myNodes.length];
+		for (int i = 0; i < myNodeIndices.length; i++) {
+			myNodeIndices[i] = startIndexInNodes + i;
+		}
+		myNextNode = new AtomicInteger(myNodes.length);
+		myProjections = slice(projections, startIndexInProjections, endIndexInProjections, Projection.class);
+		myTasks = slice(tasks, startIndexInTasks, endIndexInTasks, ThreadTask.class);
 		
 		myNumSteps = 0;
 		myAverageTimeOnProjectionsPerStep = 0;
@@ -66,24 +66,55 @@ public class NodeThread extends Thread {
 	
 	
 
+	@SuppressWarnings("unchecked")
+	private static <T> T[] slice(T[] items, int startIndex, int endIndex, Class<T> type) {
+		//trailing threads may be given start indices past the end when there are few items
+		startIndex = Math.min(startIndex, items.length);
+		int length = Math.max(0, Math.min(endIndex, items.length) - startIndex);
+		T[] result = (T[]) java.lang.reflect.Array.newInstance(type, length);
+		System.arraycopy(items, startIndex, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Replaces this thread's queue of nodes. Must only be called between steps.
+	 * 
+	 * @param nodes The nodes to run in each step, in the order in which they should be started
+	 * @param indices The index of each node in the pool
+	 */
+	public void setNodes(Node[] nodes, int[] indices) {
+		myNodes = nodes;
+		myNodeIndices = indices;
+		myNextNode.set(nodes.length);
+	}
+
+	/**
+	 * @return The nodes in this thread's queue
+	 */
+	public Node[] getNodes() {
+		return myNodes;
+	}
+
 	public void waitForPool() {
-		try {
-			myNodeThreadPool.threadWait();
-		} catch (Exception e) {
-		}
+		myNodeThreadPool.threadWait();
 	}
 
 	public void finished() {
-		try {
-			myNodeThreadPool.threadFinished();
-		} catch (Exception e) {
-		}
+		long waitStart = System.nanoTime();
+		myNodeThreadPool.threadFinished();
+		myIdleTime += System.nanoTime() - waitStart;
+	}
+
+	public void finishedStep() {
+		long waitStart = System.nanoTime();
+		myNodeThreadPool.threadFinishedStep();
+		myIdleTime += System.nanoTime() - waitStart;
 	}
 
 	// might have to make these protected?
 	protected void runProjections(float startTime, float endTime) throws SimulationException{
 		
-		for (int i = myStartIndexInProjections; i < myEndIndexInProjections; i++) {
+		for (int i = 0; i < myProjections.length; i++) {
 			
 			InstantaneousOutput values = myProjections[i].getOrigin().getValues();
 			myProjections[i].getTermination().setValues(values);
@@ -93,77 +124,131 @@ public class NodeThread extends Thread {
 	
 	protected void runNodes(float startTime, float endTime) throws SimulationException{
 		
+		boolean measure = myNodeThreadPool.isCalibrating();
+		runQueue(this, startTime, endTime, measure);
 		
-		for (int i = myStartIndexInNodes; i < myEndIndexInNodes; i++) {
-			
-			myNodes[i].run(startTime, endTime);
+		// steal from the other threads, starting with the next one so that thieves spread out
+		NodeThread[] threads = myNodeThreadPool.getThreads();
+		int self = 0;
+		while (self < threads.length && threads[self] != this) {
+			self++;
+		}
+		for (int i = 1; i < threads.length; i++) {
+			runQueue(threads[(self + i) % threads.length], startTime, endTime, measure);
 		}
 		
 	}
 	
+	// Runs nodes from the given thread's queue until it is empty. Each node is claimed by exactly one thread,
+	// and is run with its own random stream.
+	private void runQueue(NodeThread owner, float startTime, float endTime, boolean measure) throws SimulationException {
+		Node[] nodes = owner.myNodes;
+		AtomicInteger next = owner.myNextNode;
+		int[] indices = owner.myNodeIndices;
+		Random[] streams = myNodeThreadPool.getNodeStreams();
+		
+		int i;
+		try {
+			if (measure) {
+				long[] costs = myNodeThreadPool.getNodeCosts();
+				while ((i = next.getAndIncrement()) < nodes.length) {
+					PDFTools.setCurrentStream(streams[indices[i]]);
+					long nodeStart = System.nanoTime();
+					nodes[i].run(startTime, endTime);
+					costs[indices[i]] += System.nanoTime() - nodeStart;
+				}
+			} else {
+				while ((i = next.getAndIncrement()) < nodes.length) {
+					PDFTools.setCurrentStream(streams[indices[i]]);
+					nodes[i].run(startTime, endTime);
+				}
+			}
+		} finally {
+			PDFTools.setCurrentStream(null);
+		}
+	}
+	
 	protected void runTasks(float startTime, float endTime) throws SimulationException {
 		
-		for (int i = myStartIndexInTasks; i < myEndIndexInTasks; i++) {
+		for (int i = 0; i < myTasks.length; i++) {
             myTasks[i].run(startTime, endTime);
         }
 	}
 	
 	public void run() {
-		try {
-			float startTime, endTime;
+		float startTime, endTime;
 
+		while (true) {
 			waitForPool();
-
-			while (true) {
-				startTime = myNodeThreadPool.getStartTime();
-				endTime = myNodeThreadPool.getEndTime();
-				
-				long projectionInterval, nodeInterval, taskInterval;
-				
-				projectionInterval = myCollectTimings ? new Date().getTime() : 0;
-				
+			
+			// This is the means of getting out of the loop. The pool releases the threads
+			// with runFinished set at the end of the run.
+			if (myNodeThreadPool.getRunFinished()) {
+				kill();
+				return;
+			}
+			
+			startTime = myNodeThreadPool.getStartTime();
+			endTime = myNodeThreadPool.getEndTime();
+			
+			// other threads can't see the reset queue until they pass the projection barrier
+			myNextNode.set(0);
+			
+			long projectionInterval, nodeInterval, taskInterval;
+			
+			projectionInterval = myCollectTimings ? new Date().getTime() : 0;
+			
+			try {
 				runProjections(startTime, endTime);
-				
-				projectionInterval = myCollectTimings ? new Date().getTime() - projectionInterval : 0;
+			} catch (Throwable e) {
+				fail(e);
+			}
+			
+			projectionInterval = myCollectTimings ? new Date().getTime() - projectionInterval : 0;
 
-				finished();
-				
-				nodeInterval = myCollectTimings ? new Date().getTime() : 0;
+			finished();
+			
+			nodeInterval = myCollectTimings ? new Date().getTime() : 0;
 
+			try {
 				runNodes(startTime, endTime);
-				
-				nodeInterval = myCollectTimings ? new Date().getTime() - nodeInterval : 0;
+			} catch (Throwable e) {
+				fail(e);
+			}
+			
+			nodeInterval = myCollectTimings ? new Date().getTime() - nodeInterval : 0;
 
-				finished();
-				
-				taskInterval = myCollectTimings ? new Date().getTime() : 0;
+			finished();
+			
+			taskInterval = myCollectTimings ? new Date().getTime() : 0;
 
-                runTasks(startTime, endTime);
-                
-                taskInterval = myCollectTimings ? new Date().getTime() - taskInterval : 0;
+			try {
+				runTasks(startTime, endTime);
+			} catch (Throwable e) {
+				fail(e);
+			}
+            
+            taskInterval = myCollectTimings ? new Date().getTime() - taskInterval : 0;
 
-                finished();
-                
-                if(myCollectTimings){
-	                myAverageTimeOnProjectionsPerStep = (myAverageTimeOnProjectionsPerStep * myNumSteps + projectionInterval) / (myNumSteps + 1);
-	                myAverageTimeOnNodesPerStep = (myAverageTimeOnNodesPerStep * myNumSteps + nodeInterval) / (myNumSteps + 1);
-	                myAverageTimeOnTasksPerStep = (myAverageTimeOnTasksPerStep * myNumSteps + taskInterval) / (myNumSteps + 1);
-	                
-	                myNumSteps++;
-                }
+            if(myCollectTimings){
+                myAverageTimeOnProjectionsPerStep = (myAverageTimeOnProjectionsPerStep * myNumSteps + projectionInterval) / (myNumSteps + 1);
+                myAverageTimeOnNodesPerStep = (myAverageTimeOnNodesPerStep * myNumSteps + nodeInterval) / (myNumSteps + 1);
+                myAverageTimeOnTasksPerStep = (myAverageTimeOnTasksPerStep * myNumSteps + taskInterval) / (myNumSteps + 1);
                 
-				// This is the means of getting out of the loop. The pool will interrupt
-				// this thread at the appropriate time.
-				if (Thread.currentThread().isInterrupted() || myNodeThreadPool.getRunFinished()) {
-					kill();
-					return;
-				}
-			}
-		} catch (SimulationException e) {
-			System.err.println(e);
+                myNumSteps++;
+            }
+
+            finishedStep();
 		}
 	}
 	
+	// a failing thread must keep reaching the barriers, otherwise the other threads would wait
+	// forever, so Errors are caught as well
+	private void fail(Throwable e) {
+		myNodeThreadPool.threadFailed(e instanceof SimulationException
+				? (SimulationException) e : new SimulationException(e));
+	}
+	
 	protected void kill(){
 		if(myCollectTimings){
 			StringBuffer timingOutput = new StringBuffer();
@@ -171,6 +256,7 @@ public class NodeThread extends Thread {
 			timingOutput.append("Average time processing projections per step: " + myAverageTimeOnProjectionsPerStep + " ms\n");
 			timingOutput.append("Average time processing nodes per step: " + myAverageTimeOnNodesPerStep + " ms\n");
 			timingOutput.append("Average time processing tasks per step: " + myAverageTimeOnTasksPerStep + " ms\n");
+			timingOutput.append("Total time waiting for other threads: " + getIdleTime() + " ms\n");
 			
 			System.out.print(timingOutput.toString());
 		}
@@ -191,4 +277,11 @@ public class NodeThread extends Thread {
 	public double getMyAverageTimeOnTasksPerStep() {
 		return myAverageTimeOnTasksPerStep;
 	}
+
+	/**
+	 * @return Total time (ms) this thread has spent waiting for other threads to finish a phase
+	 */
+	public double getIdleTime() {
+		return myIdleTime / 1e6;
+	}
 }
@@ -3,13 +3,20 @@ package ca.nengo.util.impl;
 //import ca.nengo.model.InstantaneousOutput;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
 
+import ca.nengo.math.PDFTools;
+import ca.nengo.model.Ensemble;
 import ca.nengo.model.Network;
 import ca.nengo.model.Node;
 import ca.nengo.model.Projection;
+import ca.nengo.model.SimulationException;
 import ca.nengo.model.impl.NetworkArrayImpl;
 import ca.nengo.util.TaskSpawner;
 import ca.nengo.util.ThreadTask;
@@ -24,23 +31,42 @@ public class NodeThreadPool {
 	protected static final int maxNumJavaThreads = 100;
 	protected static final int defaultNumJavaThreads = 8;
 
+	// Waiting threads spin for this many checks before parking. Spinning only helps if another core
+	// is free to finish the phase in the meantime.
+	protected static final int defaultSpinCount = Runtime.getRuntime().availableProcessors() > 1 ? 5000 : 0;
+	protected static final int defaultCalibrationSteps = 10;
 
 	// numThreads can change throughout a simulation run. Therefore, it should not be used during a run,
 	// only at the beginning of a run to create the threads.
 	protected static int myNumJavaThreads = defaultNumJavaThreads;
+	protected static int mySpinCount = defaultSpinCount;
+	protected static int myCalibrationSteps = defaultCalibrationSteps;
 	protected int myNumThreads;
 	protected NodeThread[] myThreads;
-	protected Object myLock;
+
+	// The step barrier includes the stepping thread and separates steps; the phase barrier
+	// includes only the pool threads and separates projections, nodes and tasks within a step.
+	protected SpinBarrier myStepBarrier;
+	protected SpinBarrier myPhaseBarrier;
 
 	protected Node[] myNodes;
 	protected Projection[] myProjections;
     protected ThreadTask[] myTasks;
 
-	protected volatile int numThreadsComplete;
-	protected volatile int numThreadsWaiting;
+	// Each node is run with its own random stream, indexed as myNodes
+	protected Random[] myNodeStreams;
+
+	// Streams of all nodes that have been run, replaced when the master seed changes
+	private static final Map<Node, Random> ourStreams = new WeakHashMap<Node, Random>();
+	private static int ourStreamSeedCount = -1;
+
+	// Nodes are timed for the first few steps of a run and then redistributed among the threads.
+	protected long[] myNodeCosts;
+	protected int myNumCalibrationSteps;
+	protected int myStepCount;
 
-	protected volatile boolean threadsRunning;
 	protected volatile boolean runFinished;
+	protected volatile SimulationException myException;
 	protected float myStartTime;
 	protected float myEndTime;
 	
@@ -60,8 +86,42 @@ public class NodeThreadPool {
 	public static int getMaxNumJavaThreads(){
 		return maxNumJavaThreads;
 	}
+
+	/**
+	 * @return Number of times a thread that has finished a phase checks whether the other threads
+	 * 		have finished, before it parks
+	 */
+	public static int getSpinCount(){
+		return mySpinCount;
+	}
+
+	/**
+	 * @param value Number of times a thread that has finished a phase checks whether the other threads
+	 * 		have finished, before it parks. Larger values reduce the latency between phases when there
+	 * 		are enough cores for all threads, at the cost of burning CPU time while waiting. Takes
+	 * 		effect at the start of the next run.
+	 */
+	public static void setSpinCount(int value){
+		mySpinCount = Math.max(0, value);
+	}
 	
 
+	/**
+	 * @return Number of steps at the start of each run over which the cost of each node is measured
+	 */
+	public static int getCalibrationSteps(){
+		return myCalibrationSteps;
+	}
+
+	/**
+	 * @param value Number of steps at the start of each run over which the cost of each node is
+	 * 		measured, after which nodes are redistributed among the threads according to their
+	 * 		measured cost. If 0, nodes are distributed according to estimated costs only.
+	 */
+	public static void setCalibrationSteps(int value){
+		myCalibrationSteps = Math.max(0, value);
+	}
+
 	public static boolean isMultithreading(){
 		return myNumJavaThreads != 0;
 	}
@@ -91,6 +151,99 @@ public class NodeThreadPool {
 		return runFinished;
 	}
 
+	/**
+	 * @return The threads in this pool
+	 */
+	public NodeThread[] getThreads(){
+		return myThreads;
+	}
+
+	/**
+	 * @return True if node costs are being measured in the current step
+	 */
+	public boolean isCalibrating(){
+		return myStepCount < myNumCalibrationSteps;
+	}
+
+	/**
+	 * @return Total run time (ns) of each node over the calibration steps so far, indexed as the
+	 * 		pool's nodes. Each entry is written only by the thread that ran the node.
+	 */
+	public long[] getNodeCosts(){
+		return myNodeCosts;
+	}
+
+	/**
+	 * @return Random stream with which to run each node, indexed as the pool's nodes
+	 */
+	public Random[] getNodeStreams(){
+		return myNodeStreams;
+	}
+
+	/**
+	 * Gives each node in a network (at any depth) its own random stream, derived from the master
+	 * seed (see PDFTools) and the node's full name, unless it already has one. Nodes are then run
+	 * with the same streams with or without multithreading, and with any number of threads, so
+	 * results don't depend on how nodes are assigned to threads.
+	 *
+	 * @param network A network that is about to be run
+	 */
+	public static void assignRandomStreams(Network network){
+		synchronized (ourStreams) {
+			checkStreamSeed();
+			assignRandomStreams(network, network.getName());
+		}
+	}
+
+	private static void assignRandomStreams(Node node, String path){
+		if (!ourStreams.containsKey(node)) {
+			ourStreams.put(node, PDFTools.createStream(path));
+		}
+		if (node instanceof Network) {
+			for (Node child : ((Network) node).getNodes()) {
+				assignRandomStreams(child, path + "/" + child.getName());
+			}
+		}
+	}
+
+	/**
+	 * @param nodes Some nodes
+	 * @return The random stream of each node (nodes without streams are given streams derived
+	 * 		from their names)
+	 */
+	public static Random[] getRandomStreams(Node[] nodes){
+		Random[] result = new Random[nodes.length];
+		synchronized (ourStreams) {
+			checkStreamSeed();
+			for (int i = 0; i < nodes.length; i++) {
+				result[i] = ourStreams.get(nodes[i]);
+				if (result[i] == null) {
+					result[i] = PDFTools.createStream(nodes[i].getName());
+					ourStreams.put(nodes[i], result[i]);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void checkStreamSeed(){
+		if (ourStreamSeedCount != PDFTools.getSeedCount()) {
+			ourStreams.clear();
+			ourStreamSeedCount = PDFTools.getSeedCount();
+		}
+	}
+
+	/**
+	 * @return Total time (ms) each thread has spent waiting for other threads to finish a phase
+	 */
+	public double[] getIdleTimes(){
+		double[] result = new double[myThreads.length];
+		for(int i = 0; i < myThreads.length; i++){
+			result[i] = myThreads[i].getIdleTime();
+		}
+		return result;
+	}
+
 	// Dummy default constructor.
 	protected NodeThreadPool(){
 	}
@@ -106,7 +259,8 @@ public class NodeThreadPool {
 	 * 
 	 * 2. Creates the appropriate number of java threads and assigns to each a fair number of
 	 * projections, nodes and tasks from those that remain after the GPU data has been dealt with.
-	 * Starts the Java threads.
+	 * Nodes are assigned according to their estimated cost (see estimateCost(Node)); they are 
+	 * reassigned according to measured costs after the calibration steps. Starts the Java threads.
 	 * 
 	 * 3. Initializes synchronization primitives and variables for collecting timing data if applicable.
 	 * 
@@ -114,8 +268,6 @@ public class NodeThreadPool {
 	 */
 	protected void initialize(Network network, List<ThreadTask> threadTasks){
 		
-		myLock = new Object();
-		
 		Node[] nodes = network.getNodes();
 		Projection[] projections = network.getProjections();
 		
@@ -128,10 +280,8 @@ public class NodeThreadPool {
 		myProjections = projList.toArray(new Projection[0]);
 		myTasks = taskList.toArray(new ThreadTask[0]);
 		
-		threadsRunning = false;
 		runFinished = false;
-		numThreadsWaiting = 0;
-		numThreadsComplete = 0;
+		myException = null;
 		
 		boolean useGPU = NEFGPUInterface.getUseGPU();
 		
@@ -144,6 +294,10 @@ public class NodeThreadPool {
 		
 		myThreads = new NodeThread[myNumThreads];
 		
+		// barriers must exist before any thread starts
+		myStepBarrier = new SpinBarrier(myNumThreads + 1, mySpinCount);
+		myPhaseBarrier = new SpinBarrier(Math.max(1, myNumThreads), mySpinCount);
+		
 		if(useGPU){ 
 			GPUThread gpuThread = new GPUThread(this);
 			
@@ -169,24 +323,27 @@ public class NodeThreadPool {
 		// "run" method of nodes which are members of classes which derive from the NetworkImpl class since 
 		// NetworkImpls create their own LocalSimulators when run.
 		myNodes = collectNodes(myNodes, true).toArray(new Node[0]);
+		myNodeStreams = getRandomStreams(myNodes);
 
-		int nodesPerJavaThread = (int) Math.ceil((float) myNodes.length / (float) myNumJavaThreads);
 		int projectionsPerJavaThread = (int) Math.ceil((float) myProjections.length / (float) myNumJavaThreads);
         int tasksPerJavaThread = (int) Math.ceil((float) myTasks.length / (float) myNumJavaThreads);
 
-		int nodeOffset = 0, projectionOffset = 0, taskOffset = 0;
-		int nodeStartIndex, nodeEndIndex, projectionStartIndex, projectionEndIndex, taskStartIndex, taskEndIndex;
+		int projectionOffset = 0, taskOffset = 0;
+		int projectionStartIndex, projectionEndIndex, taskStartIndex, taskEndIndex;
 
+		myNodeCosts = new long[myNodes.length];
+		myNumCalibrationSteps = myCalibrationSteps;
+		myStepCount = 0;
+		
+		double[] estimatedCosts = new double[myNodes.length];
+		for(int i = 0; i < myNodes.length; i++){
+			estimatedCosts[i] = estimateCost(myNodes[i]);
+		}
+		int[][] nodeAssignments = balance(estimatedCosts, myNumJavaThreads);
 		
-		// Evenly distribute projections, nodes and tasks to the java threads.
+		// Evenly distribute projections and tasks to the java threads.
 		for(int i = 0; i < myNumJavaThreads; i++){
 
-			nodeStartIndex = nodeOffset;
-			nodeEndIndex = myNodes.length - nodeOffset >= nodesPerJavaThread ?
-					nodeOffset + nodesPerJavaThread : myNodes.length;
-
-			nodeOffset += nodesPerJavaThread;
-
 			projectionStartIndex = projectionOffset;
 			projectionEndIndex = myProjections.length - projectionOffset >= projectionsPerJavaThread ?
 					projectionOffset + projectionsPerJavaThread : myProjections.length;
@@ -199,9 +356,9 @@ public class NodeThreadPool {
 
 			taskOffset += tasksPerJavaThread;
 
-			myThreads[i] = new NodeThread(this, myNodes, nodeStartIndex,
-					nodeEndIndex, myProjections, projectionStartIndex,
+			myThreads[i] = new NodeThread(this, myNodes, 0, 0, myProjections, projectionStartIndex,
 					projectionEndIndex, myTasks, taskStartIndex, taskEndIndex);
+			assignNodes(myThreads[i], nodeAssignments[i]);
 			
 			myThreads[i].setCollectTimings(myCollectTimings);
 			myThreads[i].setName("JavaThread" + i);
@@ -221,33 +378,29 @@ public class NodeThreadPool {
 	 * the next stage, so, for example, all threads must finish processing all of their projections 
 	 * before any thread starts processing its nodes.
 	 * 
+	 * @throws SimulationException if a projection, node or task failed in any thread during the step
 	 * @author Eric Crawford
 	 */
-	public void step(float startTime, float endTime){
+	public void step(float startTime, float endTime) throws SimulationException {
 		myStartTime = startTime;
 		myEndTime = endTime;
 		
 		
 		long stepInterval = myCollectTimings ? new Date().getTime() : 0;
 		
-		try
-		{
-			int oldPriority = Thread.currentThread().getPriority();
-			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-
-			// start the projection processing, wait for it to finish
-			startThreads();
-
-			// start the node processing, wait for it to finish
-			startThreads();
+		int oldPriority = Thread.currentThread().getPriority();
+		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
 
-			// start the task processing, wait for it to finish
-			startThreads();
+		// release the threads into the projection phase, then wait for them to finish the task phase
+		myStepBarrier.await();
+		myStepBarrier.await();
 
-			Thread.currentThread().setPriority(oldPriority);
-		}
-		catch(Exception e) {
-			System.err.println(e);
+		Thread.currentThread().setPriority(oldPriority);
+		
+		// the threads are all waiting for the next step, so their queues can be changed safely
+		myStepCount++;
+		if(myStepCount == myNumCalibrationSteps){
+			rebalance();
 		}
 		
 		if(myCollectTimings){
@@ -256,99 +409,168 @@ public class NodeThreadPool {
             
             myNumSteps++;
 		}
+		
+		if(myException != null){
+			SimulationException e = myException;
+			myException = null;
+			throw e;
+		}
 	}
 
 	/**
-	 * Tells the threads to run for one phase (projections, nodes or tasks). 
-	 * The threads should be waiting on myLock at the time this is called.
+	 * Redistributes nodes among the java threads according to their costs measured over the
+	 * calibration steps.
+	 */
+	protected void rebalance(){
+		double[] costs = new double[myNodeCosts.length];
+		for(int i = 0; i < costs.length; i++){
+			costs[i] = myNodeCosts[i];
+		}
+		
+		int[][] nodeAssignments = balance(costs, myNumJavaThreads);
+		for(int i = 0; i < myNumJavaThreads; i++){
+			assignNodes(myThreads[i], nodeAssignments[i]);
+		}
+	}
+	
+	private void assignNodes(NodeThread thread, int[] indices){
+		Node[] nodes = new Node[indices.length];
+		for(int i = 0; i < indices.length; i++){
+			nodes[i] = myNodes[indices[i]];
+		}
+		thread.setNodes(nodes, indices);
+	}
+
+	/**
+	 * @param node A node to be run by the pool
+	 * @return Estimated relative cost of running the node for a step, before it has been measured
+	 * 		(the number of neurons in an Ensemble, otherwise 1)
+	 */
+	public static double estimateCost(Node node){
+		if(node instanceof Ensemble){
+			return Math.max(1, ((Ensemble) node).getNodes().length);
+		}
+		return 1;
+	}
+
+	/**
+	 * Divides items among threads so that the threads have similar total costs. Items are 
+	 * taken from most to least costly and each is given to the thread with the lowest total 
+	 * so far (the longest-processing-time-first rule).
 	 * 
-	 * @author Eric Crawford
+	 * @param costs Cost of each item
+	 * @param numThreads Number of threads
+	 * @return Indices of the items assigned to each thread, most costly first
 	 */
-	private void startThreads() throws InterruptedException {
-		synchronized(myLock){
-			
-			numThreadsComplete = 0;
-			threadsRunning = true;
-			myLock.notifyAll();  //release all the threads from the threadWait() loop
-			
-			while(threadsRunning || numThreadsWaiting < myThreads.length) 
-				myLock.wait();  //we don't want the stepthread to be able to continue (and start threads) until all the threads are waiting to be started
+	public static int[][] balance(final double[] costs, int numThreads){
+		if(numThreads < 1){
+			return new int[0][];
+		}
+		
+		Integer[] order = new Integer[costs.length];
+		for(int i = 0; i < order.length; i++){
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(costs[b.intValue()], costs[a.intValue()]);
+			}
+		});
+		
+		double[] loads = new double[numThreads];
+		int[] counts = new int[numThreads];
+		int[] threadOfItem = new int[costs.length];
+		for(int i = 0; i < order.length; i++){
+			int lightest = 0;
+			for(int j = 1; j < numThreads; j++){
+				if(loads[j] < loads[lightest]) lightest = j;
+			}
+			threadOfItem[i] = lightest;
+			loads[lightest] += costs[order[i].intValue()];
+			counts[lightest]++;
+		}
+		
+		int[][] result = new int[numThreads][];
+		for(int j = 0; j < numThreads; j++){
+			result[j] = new int[counts[j]];
+			counts[j] = 0;
 		}
+		for(int i = 0; i < order.length; i++){
+			int thread = threadOfItem[i];
+			result[thread][counts[thread]++] = order[i].intValue();
+		}
+		return result;
 	}
 
 	/**
-	 * Called by the threads in this node pool. Called once they finish a phase (projections, nodes or tasks).
-	 * Forces them to wait on myLock.
+	 * Called by the threads in this pool before each step. Returns when the pool starts a step
+	 * (or is killed).
 	 * 
 	 * @author Eric Crawford
 	 */
-	public void threadWait() throws InterruptedException{
-		synchronized(myLock){
-			numThreadsWaiting++;
-			if(numThreadsWaiting == myThreads.length)
-				myLock.notifyAll(); //all the threads are done the step and in a waiting state, so free the stepthread
-			
-			while(!threadsRunning) {
-                myLock.wait();
-            }
-		}
+	public void threadWait(){
+		myStepBarrier.await();
 	}
 
 	/**
-	 * Called by the threads in this pool to signal that they are done a phase. 
+	 * Called by the threads in this pool to signal that they are done a phase (projections or
+	 * nodes). Returns when all threads in the pool are done the phase.
 	 * 
 	 * @author Eric Crawford
 	 */
-	public void threadFinished() throws InterruptedException{
-		
-		synchronized(myLock){
-			numThreadsComplete++;
+	public void threadFinished(){
+		myPhaseBarrier.await();
+	}
 
-			if(numThreadsComplete == myThreads.length){
-				threadsRunning = false;
-				numThreadsWaiting=0;
-				myLock.notifyAll(); //this is to move the threads into the threadwait loop
-			}
-			else{
-				while(threadsRunning) //threads wait here when they are finished, but others are still running (i.e. wait here until end of one step)
-					myLock.wait();
-			}
-	
-			threadWait(); //threads wait here when they're all finished (i.e. wait here between steps)
+	/**
+	 * Called by the threads in this pool to signal that they are done the last phase of a step
+	 * (tasks). Returns when all threads are done and the stepping thread has been released.
+	 */
+	public void threadFinishedStep(){
+		myStepBarrier.await();
+	}
+
+	/**
+	 * Called by a thread in this pool when a projection, node or task fails. The thread continues
+	 * to take part in the step, and the first failure is thrown from step().
+	 * 
+	 * @param e The failure
+	 */
+	public synchronized void threadFailed(SimulationException e){
+		if(myException == null){
+			myException = e;
 		}
 	}
 
 	/**
-	 * Kill the threads in the pool by interrupting them. Each thread will handle
-	 * the interrupt signal by ending its run method, which kills it.
+	 * Kill the threads in the pool. The threads are waiting for the next step; they are released
+	 * with runFinished set, which ends their run methods.
 	 * 
 	 * @author Eric Crawford
 	 */
 	public void kill(){
-		synchronized(myLock)
-		{
-			runFinished = true;
-
-			for(int i = 0; i < myThreads.length; i++){
-				myThreads[i].interrupt();
-			}
+		if(runFinished){
+			return;
+		}
+		runFinished = true;
+		myStepBarrier.await();
+		
+		if(myCollectTimings){
+			StringBuffer timingOutput = new StringBuffer();
+			timingOutput.append("Timings for NodeThreadPool:\n");
+			
+			long approxRunTime = new Date().getTime() - myRunStartTime;
+			timingOutput.append("Approximate total run time: " + approxRunTime + " ms\n");
 			
-			if(myCollectTimings){
-				StringBuffer timingOutput = new StringBuffer();
-				timingOutput.append("Timings for NodeThreadPool:\n");
-				
-				long approxRunTime = new Date().getTime() - myRunStartTime;
-				timingOutput.append("Approximate total run time: " + approxRunTime + " ms\n");
-				
-				timingOutput.append("Average time per step: " + myAverageTimePerStep + " ms\n");
-				
-				System.out.print(timingOutput.toString());
+			timingOutput.append("Average time per step: " + myAverageTimePerStep + " ms\n");
+			
+			double[] idleTimes = getIdleTimes();
+			for(int i = 0; i < idleTimes.length; i++){
+				timingOutput.append("Time " + myThreads[i].getName() + " spent waiting for other threads: " + idleTimes[i] + " ms\n");
 			}
-
-			myLock.notifyAll();
+			
+			System.out.print(timingOutput.toString());
 		}
-		
-		
 	}
 	
     /**
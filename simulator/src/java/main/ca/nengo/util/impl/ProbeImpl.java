@@ -27,6 +27,7 @@ package ca.nengo.util.impl;
 import java.util.ArrayList;
 import java.util.List;
 
+import ca.nengo.model.DirectProbeable;
 import ca.nengo.model.Node;
 import ca.nengo.model.Probeable;
 import ca.nengo.model.SimulationException;
@@ -37,6 +38,10 @@ import ca.nengo.util.TimeSeries;
 /**
  * <p>Collects information from <code>Probeable</code> objects.</p> 
  * 
+ * <p>Samples are stored by column (one float array per state dimension) in fixed-size chunks,
+ * so that long recordings don't hold a small array per sample, and storage grows without
+ * copying. States of a DirectProbeable are sampled into the chunks directly.</p>
+ * 
  * @author Bryan Tripp
  */
 public class ProbeImpl implements Probe, java.io.Serializable {
@@ -45,8 +50,15 @@ public class ProbeImpl implements Probe, java.io.Serializable {
 	private Probeable myTarget;
 	private String myStateName;
 	private boolean myRecord;
-	private float[] myTimes;
-	private List<float[]> myValues;
+	private static final int CHUNK_SIZE = 4096; //samples per chunk
+
+	private List<float[]> myTimes; //chunks of sample times
+	private List<float[][]> myValues; //chunks of samples, by dimension
+	private int mySize; //number of samples
+	private int myDimension; //-1 until first sample
+	private int myExpectedSize; //number of samples for which space should be allocated
+	private float[] mySample;
+	private boolean myDirect; //sample target directly (if it is a DirectProbeable)
 	private Units[] myUnits;
 	private float mySamplingPeriod = -1;
 	private float myLastSampleTime = -100000;
@@ -83,8 +95,27 @@ public class ProbeImpl implements Probe, java.io.Serializable {
 	 */
 	public void reset() {
 		myUnits = null; //will be reset on first doCollect()
-		myTimes = new float[1000];
-		myValues = new ArrayList<float[]>(1000);
+		myTimes = new ArrayList<float[]>(10);
+		myValues = new ArrayList<float[][]>(10);
+		mySize = 0;
+		myDimension = -1;
+		myExpectedSize = 0;
+		myDirect = myTarget instanceof DirectProbeable;
+	}
+
+	/**
+	 * Allocates space for the samples from a simulation of the given length, so that
+	 * storage doesn't have to be added during the simulation. This is optional.
+	 *
+	 * @param duration Length of simulation (s)
+	 * @param stepSize Network time step (s)
+	 */
+	public void reserve(float duration, float stepSize) {
+		float period = Math.max(stepSize, mySamplingPeriod);
+		myExpectedSize = myRecord ? mySize + (int) Math.ceil(duration / period) + 1 : 1;
+		if (myDimension >= 0) {
+			ensureCapacity(myExpectedSize);
+		}
 	}
 	
 	/**
@@ -106,6 +137,23 @@ public class ProbeImpl implements Probe, java.io.Serializable {
 			throw new IllegalStateException("This Recorder has not been connected to a Probeable");
 		}
 		
+		if (myDirect && myDimension >= 0) {
+			try {
+				float time = ((DirectProbeable) myTarget).sampleState(myStateName, mySample);
+				if (!Float.isNaN(time)) {
+					if (!myRecord) {
+						mySize = 0;
+					}
+					add(time, mySample);
+					return;
+				}
+				myDirect = false;
+			} catch (SimulationException e) {
+				throw new RuntimeException("Target appears not to have the state " 
+						+ myStateName + ", although this problem should have been detected on connect()", e);
+			}
+		}
+		
 		TimeSeries stepData;
 		try {
 			stepData = myTarget.getHistory(myStateName);
@@ -116,47 +164,137 @@ public class ProbeImpl implements Probe, java.io.Serializable {
 		
 		float[] times = stepData.getTimes();
 		float[][] values = stepData.getValues();
-		int len = times.length;		
 		
-		if (myRecord) {
-			if (myValues.size() + len >= myTimes.length) {
-				grow();
-			}		
-			System.arraycopy(times, 0, myTimes, myValues.size(), len); //don't move this to after the values update			
-		} else {
-			myTimes = times;
-			myValues = new ArrayList<float[]>(10);
+		if (!myRecord) {
+			mySize = 0;
 		}
-		
-		for (int i = 0; i < len; i++) {
-			myValues.add(values[i]);
+		for (int i = 0; i < times.length; i++) {
+			add(times[i], values[i]);
 		}
 		
 		if (myUnits == null) {
 			myUnits = stepData.getUnits();
 		}
+		
+		//only states with a single value per step can be sampled directly
+		if (times.length != 1) {
+			myDirect = false;
+		}
+	}
+	
+	private void add(float time, float[] values) {
+		if (myDimension < 0) {
+			myDimension = values.length;
+			mySample = new float[myDimension];
+			ensureCapacity(Math.max(1, myExpectedSize));
+		} else if (values.length != myDimension) {
+			throw new IllegalStateException("Dimension of state " + myStateName + " changed from " 
+					+ myDimension + " to " + values.length);
+		}
+		
+		ensureCapacity(mySize + 1);
+		int chunk = mySize / CHUNK_SIZE;
+		int index = mySize % CHUNK_SIZE;
+		myTimes.get(chunk)[index] = time;
+		float[][] columns = myValues.get(chunk);
+		for (int i = 0; i < myDimension; i++) {
+			columns[i][index] = values[i];
+		}
+		mySize++;
 	}
 	
-	private void grow() {
-		float[] newTimes = new float[myTimes.length + 1000];
-		System.arraycopy(myTimes, 0, newTimes, 0, myTimes.length);
-		myTimes = newTimes;
+	private void ensureCapacity(int size) {
+		if (myTimes.isEmpty()) {
+			addChunk(Math.min(CHUNK_SIZE, Math.max(size, 16)));
+		}
+		
+		//a short first chunk (for a short recording) grows to full size before more are added
+		while (myTimes.get(0).length < CHUNK_SIZE && myTimes.get(0).length < size) {
+			growFirstChunk();
+		}
+		while (myTimes.size() * CHUNK_SIZE < size) {
+			addChunk(CHUNK_SIZE);
+		}
+	}
+	
+	private void addChunk(int length) {
+		myTimes.add(new float[length]);
+		myValues.add(new float[myDimension][length]);
+	}
+	
+	private void growFirstChunk() {
+		float[] times = myTimes.get(0);
+		int length = Math.min(CHUNK_SIZE, times.length * 2);
+		float[] newTimes = new float[length];
+		System.arraycopy(times, 0, newTimes, 0, times.length);
+		myTimes.set(0, newTimes);
+		
+		float[][] columns = myValues.get(0);
+		float[][] newColumns = new float[myDimension][];
+		for (int i = 0; i < myDimension; i++) {
+			newColumns[i] = new float[length];
+			System.arraycopy(columns[i], 0, newColumns[i], 0, columns[i].length);
+		}
+		myValues.set(0, newColumns);
 	}
 	
 	/**
 	 * @see ca.nengo.util.Probe#getData()
 	 */
 	public TimeSeries getData() {
-		float[] times = new float[myValues.size()];
-		System.arraycopy(myTimes, 0, times, 0, myValues.size());
-		
-		float[][] values = myValues.toArray(new float[0][]);
+		float[] times = new float[mySize];
+		float[][] values = new float[mySize][];
+		for (int i = 0; i < mySize; i++) {
+			int chunk = i / CHUNK_SIZE;
+			int index = i % CHUNK_SIZE;
+			times[i] = myTimes.get(chunk)[index];
+			
+			float[][] columns = myValues.get(chunk);
+			values[i] = new float[myDimension];
+			for (int j = 0; j < myDimension; j++) {
+				values[i][j] = columns[j][index];
+			}
+		}
 		
 		TimeSeriesImpl result = new TimeSeriesImpl(times, values, (myUnits == null) ? new Units[]{Units.UNK} : myUnits);
 		result.setName(((myTarget instanceof Node) ? ((Node) myTarget).getName()+":" : "") + myStateName);
 		return result;
 	}
 
+	/**
+	 * @return Dimension of the probed state, or -1 if nothing has been collected
+	 */
+	public int getDimension() {
+		return myDimension;
+	}
+
+	/**
+	 * @return Units of the probed state, or null if nothing has been collected
+	 */
+	public Units[] getUnits() {
+		return myUnits;
+	}
+
+	/**
+	 * Provides the most recent sample without copying the rest of the data (as getData() does).
+	 *
+	 * @param values Array into which the most recent sample is copied (length must equal getDimension())
+	 * @return Time of the most recent sample, or Float.NaN if nothing has been collected
+	 */
+	public float getLatestSample(float[] values) {
+		if (mySize == 0) {
+			return Float.NaN;
+		}
+
+		int chunk = (mySize-1) / CHUNK_SIZE;
+		int index = (mySize-1) % CHUNK_SIZE;
+		float[][] columns = myValues.get(chunk);
+		for (int i = 0; i < myDimension; i++) {
+			values[i] = columns[i][index];
+		}
+		return myTimes.get(chunk)[index];
+	}
+
 	/**
 	 * @see ca.nengo.util.Probe#setSamplingRate(float)
 	 */
@@ -27,31 +27,48 @@ a recipient may use your version of this file under either the MPL or the GPL Li
  */
 package ca.nengo.util.impl;
 
-import ca.nengo.util.MU;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 import ca.nengo.util.SpikePattern;
 
 /**
  * Default implementation of SpikePattern. 
  * 
+ * Spikes of all neurons are appended to shared chunks of neuron indices, grouped into runs of 
+ * spikes at the same time, so storage is about four bytes per spike (plus eight per distinct 
+ * spike time and four per neuron). Spike times of each neuron are sorted out of these, for all 
+ * neurons at once, the first time they are requested after new spikes are added. 
+ * 
  * @author Bryan Tripp
  */
 public class SpikePatternImpl implements SpikePattern {
 
 	private static final long serialVersionUID = 1L;
 	
-	int[] myIndices;
-	float[][] mySpikeTimes;
+	private static final int CHUNK_SIZE = 8192;
+	
+	private int[] myCounts;
+	private List<int[]> myNeurons;
+	private int mySize;
+	private float[] myRunTimes;
+	private int[] myRunStarts;
+	private int myRuns;
+	
+	//spike times sorted by neuron, rebuilt when needed
+	private transient float[] mySortedTimes;
+	private transient int[] myOffsets;
 	
 	/**
 	 * @param neurons Number of neurons in the Ensemble that this SpikePattern belongs to
 	 */
 	public SpikePatternImpl(int neurons) {
-		myIndices = new int[neurons];
-		
-		mySpikeTimes = new float[neurons][];		
-		for (int i = 0; i < neurons; i++) {
-			mySpikeTimes[i] = new float[100];
-		}
+		myCounts = new int[neurons];
+		myNeurons = new ArrayList<int[]>();
+		myRunTimes = new float[16];
+		myRunStarts = new int[16];
 	}
 	
 	/**
@@ -59,44 +76,132 @@ public class SpikePatternImpl implements SpikePattern {
 	 * @param time Spike time
 	 */
 	public void addSpike(int neuron, float time) {
-		if (myIndices[neuron] == mySpikeTimes[neuron].length) {
-			mySpikeTimes[neuron] = expand(mySpikeTimes[neuron]);
+		myCounts[neuron]++; //fails fast on a bad index
+		
+		if (myRuns == 0 || myRunTimes[myRuns-1] != time) {
+			if (myRuns == myRunTimes.length) {
+				myRunTimes = expand(myRunTimes);
+				myRunStarts = expand(myRunStarts);
+			}
+			myRunTimes[myRuns] = time;
+			myRunStarts[myRuns] = mySize;
+			myRuns++;
+		}
+		
+		if (mySize == myNeurons.size() * CHUNK_SIZE) {
+			myNeurons.add(new int[CHUNK_SIZE]);
 		}
+		myNeurons.get(mySize / CHUNK_SIZE)[mySize % CHUNK_SIZE] = neuron;
+		mySize++;
 		
-		mySpikeTimes[neuron][myIndices[neuron]++] = time;
+		mySortedTimes = null;
 	}
 
 	/**
 	 * @see ca.nengo.util.SpikePattern#getNumNeurons()
 	 */
 	public int getNumNeurons() {
-		return myIndices.length;
+		return myCounts.length;
+	}
+	
+	/**
+	 * @param neuron Index of neuron
+	 * @return Number of times the neuron has spiked 
+	 */
+	public int getNumSpikes(int neuron) {
+		return myCounts[neuron];
+	}
+	
+	/**
+	 * @return Total number of spikes of all neurons
+	 */
+	public int getNumSpikes() {
+		return mySize;
 	}
 
 	/**
 	 * @see ca.nengo.util.SpikePattern#getSpikeTimes(int)
 	 */
 	public float[] getSpikeTimes(int neuron) {
-		return contract(mySpikeTimes[neuron], myIndices[neuron]);
+		sort();
+		float[] result = new float[myCounts[neuron]];
+		System.arraycopy(mySortedTimes, myOffsets[neuron], result, 0, result.length);
+		return result;
+	}
+	
+	private void sort() {
+		if (mySortedTimes != null) {
+			return;
+		}
+		
+		int[] offsets = new int[myCounts.length];
+		for (int i = 1; i < offsets.length; i++) {
+			offsets[i] = offsets[i-1] + myCounts[i-1];
+		}
+		
+		float[] sorted = new float[mySize];
+		int[] next = offsets.clone();
+		for (int run = 0; run < myRuns; run++) {
+			int end = (run == myRuns-1) ? mySize : myRunStarts[run+1];
+			float time = myRunTimes[run];
+			for (int i = myRunStarts[run]; i < end; i++) {
+				sorted[next[myNeurons.get(i / CHUNK_SIZE)[i % CHUNK_SIZE]]++] = time;
+			}
+		}
+		
+		myOffsets = offsets;
+		mySortedTimes = sorted;
 	}
 	
 	private static float[] expand(float[] list) {
-		float[] result = new float[Math.round((float) list.length * 1.5f)]; //grow by 50%
+		float[] result = new float[list.length * 2];
 		System.arraycopy(list, 0, result, 0, list.length);
 		return result;
 	}
 	
-	private static float[] contract(float[] list, int index) {
-		float[] result = new float[index];
-		System.arraycopy(list, 0, result, 0, index);
+	private static int[] expand(int[] list) {
+		int[] result = new int[list.length * 2];
+		System.arraycopy(list, 0, result, 0, list.length);
 		return result;
 	}
 
+	//also reads patterns saved before spikes were stored in chunks (with fields myIndices and mySpikeTimes)
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		int[] counts = (int[]) fields.get("myCounts", null);
+		if (counts != null) {
+			myCounts = counts;
+			myNeurons = (List<int[]>) fields.get("myNeurons", null);
+			mySize = fields.get("mySize", 0);
+			myRunTimes = (float[]) fields.get("myRunTimes", null);
+			myRunStarts = (int[]) fields.get("myRunStarts", null);
+			myRuns = fields.get("myRuns", 0);
+		} else {
+			int[] indices = (int[]) fields.get("myIndices", null);
+			float[][] spikeTimes = (float[][]) fields.get("mySpikeTimes", null);
+			myCounts = new int[indices.length];
+			myNeurons = new ArrayList<int[]>();
+			myRunTimes = new float[16];
+			myRunStarts = new int[16];
+			for (int i = 0; i < indices.length; i++) {
+				for (int j = 0; j < indices[i]; j++) {
+					addSpike(i, spikeTimes[i][j]);
+				}
+			}
+		}
+	}
+
 	@Override
 	public SpikePattern clone() throws CloneNotSupportedException {
 		SpikePatternImpl result = (SpikePatternImpl) super.clone();
-		result.myIndices = myIndices.clone();
-		result.mySpikeTimes = MU.clone(mySpikeTimes);
+		result.myCounts = myCounts.clone();
+		result.myNeurons = new ArrayList<int[]>(myNeurons.size());
+		for (int[] chunk : myNeurons) {
+			result.myNeurons.add(chunk.clone());
+		}
+		result.myRunTimes = myRunTimes.clone();
+		result.myRunStarts = myRunStarts.clone();
 		return result;
 	}
 
@@ -0,0 +1,125 @@
+/*
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS" basis, WITHOUT
+WARRANTY OF ANY KIND, either express or implied. See the License for the specific
+language governing rights and limitations under the License.
+
+The Original Code is "SpinBarrier.java". Description:
+"A reusable spin-then-park barrier for simulation threads"
+
+The Initial Developer of the Original Code is Bryan Tripp & Centre for Theoretical Neuroscience, University of Waterloo. Copyright (C) 2006-2008. All Rights Reserved.
+
+Alternatively, the contents of this file may be used under the terms of the GNU
+Public License license (the GPL License), in which case the provisions of GPL
+License are applicable  instead of those above. If you wish to allow use of your
+version of this file only under the terms of the GPL License and not to allow
+others to use your version of this file under the MPL, indicate your decision
+by deleting the provisions above and replace  them with the notice and other
+provisions required by the GPL License.  If you do not delete the provisions above,
+a recipient may use your version of this file under either the MPL or the GPL License.
+*/
+
+package ca.nengo.util.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reusable barrier for a fixed number of threads, used to separate the phases of a
+ * simulation step.
+ *
+ * Threads that arrive early first spin for a limited number of iterations, which is much
+ * cheaper than blocking when the other threads are only microseconds behind, and then park
+ * until the last thread arrives. The last thread to arrive starts the next phase and unparks
+ * any threads that stopped spinning.
+ */
+public class SpinBarrier {
+
+	private final int myParties;
+	private final int mySpinCount;
+	private final AtomicInteger myArrived;
+	private final AtomicReferenceArray<Thread> myParkedEven; //waiters in even phases
+	private final AtomicReferenceArray<Thread> myParkedOdd; //waiters in odd phases
+	private volatile int myPhase;
+
+	/**
+	 * @param parties Number of threads that must call await() before any of them proceed
+	 * @param spinCount Number of times a waiting thread checks for the end of the phase before
+	 * 		parking (0 means park immediately)
+	 */
+	public SpinBarrier(int parties, int spinCount) {
+		if (parties < 1) {
+			throw new IllegalArgumentException("A barrier needs at least one party");
+		}
+
+		myParties = parties;
+		mySpinCount = Math.max(0, spinCount);
+		myArrived = new AtomicInteger(0);
+		myParkedEven = new AtomicReferenceArray<Thread>(parties);
+		myParkedOdd = new AtomicReferenceArray<Thread>(parties);
+		myPhase = 0;
+	}
+
+	/**
+	 * @return Number of threads that must arrive to complete a phase
+	 */
+	public int getParties() {
+		return myParties;
+	}
+
+	/**
+	 * @return Number of phases completed so far
+	 */
+	public int getPhase() {
+		return myPhase;
+	}
+
+	/**
+	 * Waits until all parties have called this method in the current phase.
+	 */
+	public void await() {
+		int phase = myPhase;
+		int arrival = myArrived.incrementAndGet();
+
+		if (arrival == myParties) {
+			//the count must be cleared before the next phase is published
+			myArrived.set(0);
+			myPhase = phase + 1;
+
+			AtomicReferenceArray<Thread> parkedThreads = getParked(phase);
+			for (int i = 0; i < myParties - 1; i++) {
+				Thread parked = parkedThreads.get(i);
+				if (parked != null) {
+					LockSupport.unpark(parked);
+				}
+			}
+		} else {
+			for (int i = 0; i < mySpinCount; i++) {
+				if (myPhase != phase) {
+					return;
+				}
+			}
+
+			//Each waiter in a phase has a different arrival number, so slots aren't shared. Slots
+			//alternate between two arrays by phase, so that a late waiter can't overwrite a waiter
+			//from the next phase.
+			AtomicReferenceArray<Thread> parkedThreads = getParked(phase);
+			Thread current = Thread.currentThread();
+			int slot = arrival - 1;
+			parkedThreads.set(slot, current);
+			while (myPhase == phase) {
+				LockSupport.park(this);
+			}
+			parkedThreads.compareAndSet(slot, current, null);
+		}
+	}
+
+	private AtomicReferenceArray<Thread> getParked(int phase) {
+		return (phase & 1) == 0 ? myParkedEven : myParkedOdd;
+	}
+
+}
@@ -0,0 +1,130 @@
+package ca.nengo.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.nef.NEFEnsemble;
+import ca.nengo.model.nef.impl.DecodedOrigin;
+import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.util.TimeSeries;
+import ca.nengo.util.impl.TimeSeriesImpl;
+
+/**
+ * Unit tests for FileManager and BinaryModelFormat.
+ */
+public class FileManagerTest extends TestCase {
+
+	private File myFile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		myFile = new File("testFM.nef");
+	}
+
+	protected void tearDown() throws Exception {
+		assertTrue(myFile.delete());
+		super.tearDown();
+	}
+
+	public void testEnsemble() throws StructuralException, IOException, ClassNotFoundException {
+		NEFEnsemble ensemble = new NEFEnsembleFactoryImpl().make("test", 300, 2);
+		FileManager fm = new FileManager();
+		fm.save(ensemble, myFile);
+		assertTrue(BinaryModelFormat.isBinaryModel(myFile));
+
+		NEFEnsemble loaded = (NEFEnsemble) fm.load(myFile);
+		assertEquals("test", loaded.getName());
+		assertEquals(300, loaded.getNodes().length);
+		assertArrayEquals(ensemble.getEncoders(), loaded.getEncoders());
+		assertArrayEquals(((DecodedOrigin) ensemble.getOrigin(NEFEnsemble.X)).getDecoders(),
+				((DecodedOrigin) loaded.getOrigin(NEFEnsemble.X)).getDecoders());
+	}
+
+	public void testSharedArrays() throws IOException, ClassNotFoundException {
+		float[][] matrix = new float[100][];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i] = new float[]{i, -i, i / 3f};
+		}
+		float[] vector = new float[1000];
+		vector[999] = Float.NaN;
+		float[] small = new float[]{1, 2};
+		Holder holder = new Holder(new Object[]{matrix, matrix, vector, small, new float[0][], new float[300][]});
+
+		BinaryModelFormat.write(holder, myFile);
+		Object[] loaded = ((Holder) BinaryModelFormat.read(myFile)).myContents;
+		assertSame(loaded[0], loaded[1]);
+		assertArrayEquals(matrix, (float[][]) loaded[0]);
+		assertEquals(1000, ((float[]) loaded[2]).length);
+		assertTrue(Float.isNaN(((float[]) loaded[2])[999]));
+		assertEquals(2f, ((float[]) loaded[3])[1]);
+		assertEquals(0, ((float[][]) loaded[4]).length);
+		assertNull(((float[][]) loaded[5])[299]);
+	}
+
+	public void testSharedRows() throws IOException, ClassNotFoundException {
+		float[][] matrix = new float[100][];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i] = new float[]{i, -i, i / 3f};
+		}
+		float[][] other = new float[][]{matrix[5], new float[3], matrix[7]};
+		float[][] early = new float[100][];
+		for (int i = 0; i < early.length; i++) {
+			early[i] = new float[]{i, i, i};
+		}
+		Holder holder = new Holder(new Object[]{early[2], matrix, matrix[3], other, early});
+
+		BinaryModelFormat.write(holder, myFile);
+		Object[] loaded = ((Holder) BinaryModelFormat.read(myFile)).myContents;
+		float[][] loadedMatrix = (float[][]) loaded[1];
+		assertArrayEquals(matrix, loadedMatrix);
+		assertSame(loadedMatrix[3], loaded[2]);
+		assertSame(loadedMatrix[5], ((float[][]) loaded[3])[0]);
+		assertSame(loadedMatrix[7], ((float[][]) loaded[3])[2]);
+
+		//a matrix with a row that was written first is left in the structure
+		float[][] loadedEarly = (float[][]) loaded[4];
+		assertArrayEquals(early, loadedEarly);
+		assertSame(loaded[0], loadedEarly[2]);
+	}
+
+	public void testSerializedFile() throws IOException, ClassNotFoundException {
+		TimeSeries series = new TimeSeriesImpl(new float[]{1, 2}, new float[][]{new float[]{3}, new float[]{4}}, new Units[]{Units.UNK});
+		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(myFile));
+		oos.writeObject(series);
+		oos.close();
+
+		assertFalse(BinaryModelFormat.isBinaryModel(myFile));
+		TimeSeries loaded = (TimeSeries) new FileManager().load(myFile);
+		assertEquals(4f, loaded.getValues()[1][0]);
+
+		new FileManager().save(series, myFile);
+		assertTrue(BinaryModelFormat.isBinaryModel(myFile));
+		assertEquals(4f, ((TimeSeries) new FileManager().load(myFile)).getValues()[1][0]);
+	}
+
+	private static void assertArrayEquals(float[][] expected, float[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].length, actual[i].length);
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals(expected[i][j], actual[i][j]);
+			}
+		}
+	}
+
+	private static class Holder implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Object[] myContents;
+
+		public Holder(Object[] contents) {
+			myContents = contents;
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package ca.nengo.math.impl;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import ca.nengo.math.Function;
+
+/**
+ * Unit tests for DecoderCache.
+ */
+public class DecoderCacheTest extends TestCase {
+
+	private DecoderCache myCache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		myCache = new DecoderCache(new File("testDecoderCache"), 10000);
+		myCache.clear();
+	}
+
+	protected void tearDown() throws Exception {
+		myCache.clear();
+		assertTrue(myCache.getDirectory().delete());
+		super.tearDown();
+	}
+
+	public void testGetKey() {
+		float[][] values = new float[][]{new float[]{1, 2}, new float[]{3, 4}};
+		float[] weights = new float[]{1, 1};
+		String key = DecoderCache.getKey("a", values, weights, .1f, -1);
+		assertEquals(key, DecoderCache.getKey("a", new float[][]{new float[]{1, 2}, new float[]{3, 4}}, weights, .1f, -1));
+		assertFalse(key.equals(DecoderCache.getKey("b", values, weights, .1f, -1)));
+		assertFalse(key.equals(DecoderCache.getKey("a", values, weights, .2f, -1)));
+		assertFalse(key.equals(DecoderCache.getKey("a", values, weights, .1f, 1)));
+		assertFalse(key.equals(DecoderCache.getKey("a", values, new float[]{1, 2}, .1f, -1)));
+		values[1][1] = 5;
+		assertFalse(key.equals(DecoderCache.getKey("a", values, weights, .1f, -1)));
+	}
+
+	public void testGetPut() throws InterruptedException {
+		double[][] matrix = new double[][]{new double[]{1, 2}, new double[]{3, Math.PI}};
+		assertNull(myCache.get("a", 2));
+		myCache.put("a", matrix);
+		double[][] cached = myCache.get("a", 2);
+		assertEquals(3d, cached[1][0]);
+		assertEquals(Math.PI, cached[1][1]);
+		assertNull(myCache.get("a", 3));
+		assertNull(myCache.get("a", 2)); //removed because wrong size was requested
+
+		//each 20x20 matrix takes 3212 bytes, so the cache holds three
+		myCache.put("1", new double[20][20]);
+		myCache.put("2", new double[20][20]);
+		myCache.put("3", new double[20][20]);
+		new File(myCache.getDirectory(), "1.ginv").setLastModified(System.currentTimeMillis() - 3000);
+		new File(myCache.getDirectory(), "2.ginv").setLastModified(System.currentTimeMillis() - 2000);
+		new File(myCache.getDirectory(), "3.ginv").setLastModified(System.currentTimeMillis() - 1000);
+		assertNotNull(myCache.get("1", 20));
+		myCache.put("4", new double[20][20]);
+		assertNotNull(myCache.get("1", 20));
+		assertNull(myCache.get("2", 20));
+		assertNotNull(myCache.get("3", 20));
+		assertNotNull(myCache.get("4", 20));
+
+		myCache.put("big", new double[40][40]);
+		assertNull(myCache.get("big", 40));
+	}
+
+	public void testApproximator() {
+		float[][] evalPoints = new float[50][];
+		float[][] values = new float[20][50];
+		for (int j = 0; j < evalPoints.length; j++) {
+			evalPoints[j] = new float[]{-1 + j / 25f};
+			for (int i = 0; i < values.length; i++) {
+				values[i][j] = Math.max(0, (i % 2 == 0 ? 1 : -1) * evalPoints[j][0] * (1 + i) + i / 20f);
+			}
+		}
+		Function target = new IdentityFunction(1, 0);
+
+		float[] expected = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1), 0, -1, true).findCoefficients(target);
+
+		WeightedCostApproximator.setDecoderCache(myCache);
+		try {
+			float[] first = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1), 0, -1, true).findCoefficients(target);
+			assertEquals(1, myCache.getDirectory().listFiles().length);
+			float[] second = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1), 0, -1, true).findCoefficients(target);
+			assertEquals(1, myCache.getDirectory().listFiles().length);
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], first[i]);
+				assertEquals(expected[i], second[i]);
+			}
+		} finally {
+			WeightedCostApproximator.setDecoderCache(null);
+		}
+	}
+
+}
@@ -5,8 +5,12 @@ package ca.nengo.math.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
 
 import ca.nengo.TestUtil;
+import ca.nengo.math.Function;
 import ca.nengo.math.impl.PostfixFunction;
 import ca.nengo.math.impl.SineFunction;
 
@@ -65,6 +69,61 @@ public class PostfixFunctionTest extends TestCase {
 		TestUtil.assertClose(2f, values[1], .0001f);
 	}
 	
+	public void testCompiledOperators() {
+		String[] expressions = new String[]{"x0 + x1*2 - x2/3", "x0 % .3 - -x1", "x0^2 + pow(x1, 3)",
+				"x0 < x1 | !(x2 > .1) & x0 > 0", "sin(x0) + cos(x1) * tan(x2) - atan(x0)", "asin(x0/2) + acos(x1/2)",
+				"exp(x0) + ln(x1 + 2) + log2(x2 + 2) + log10(x1 + 3)", "sqrt(x0^2 + x1^2) + max(x0, x1) - min(x1, x2)",
+				"fold(x0 * 3) + Normal(0, 1, x0)"};
+
+		Random random = new Random(1);
+		float[][] from = new float[300][]; //more than one block
+		for (int i = 0; i < from.length; i++) {
+			from[i] = new float[]{2 * random.nextFloat() - 1, 2 * random.nextFloat() - 1, 2 * random.nextFloat() - 1};
+		}
+
+		for (int e = 0; e < expressions.length; e++) {
+			PostfixFunction f = new PostfixFunction(expressions[e], 3);
+			float[] values = f.multiMap(from);
+			for (int i = 0; i < from.length; i++) {
+				float expected = interpret(f.getExpressionList(), from[i]);
+				assertEquals(expressions[e], expected, f.map(from[i]));
+				assertEquals(expressions[e], expected, values[i]);
+			}
+		}
+	}
+
+	public void testMalformed() {
+		ArrayList<Serializable> l = new ArrayList<Serializable>();
+		l.add(Integer.valueOf(0));
+		l.add(new SineFunction(1));
+		l.add(new ConstantFunction(2, 1f));
+		PostfixFunction f = new PostfixFunction(l, "", 1);
+		try {
+			f.map(new float[]{1f});
+			fail("Should have thrown exception");
+		} catch (RuntimeException e) { } // exception is expected
+	}
+
+	//straightforward evaluation of a postfix expression list, for comparison
+	private static float interpret(List<Serializable> expression, float[] from) {
+		Stack<Float> stack = new Stack<Float>();
+		for (Serializable o : expression) {
+			if (o instanceof Float) {
+				stack.push((Float) o);
+			} else if (o instanceof Integer) {
+				stack.push(Float.valueOf(from[((Integer) o).intValue()]));
+			} else {
+				Function f = (Function) o;
+				float[] args = new float[f.getDimension()];
+				for (int i = args.length-1; i >= 0; i--) {
+					args[i] = stack.pop().floatValue();
+				}
+				stack.push(Float.valueOf(f.map(args)));
+			}
+		}
+		return stack.pop().floatValue();
+	}
+
 	public void testClone() throws CloneNotSupportedException {
 		PostfixFunction f1 = new PostfixFunction("x0 + x1^2", 2);
 		PostfixFunction f2 = (PostfixFunction) f1.clone();
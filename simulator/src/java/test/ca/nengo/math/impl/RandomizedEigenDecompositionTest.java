@@ -0,0 +1,100 @@
+package ca.nengo.math.impl;
+
+import java.util.Random;
+
+import ca.nengo.math.Function;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for RandomizedEigenDecomposition.
+ */
+public class RandomizedEigenDecompositionTest extends TestCase {
+
+	public void testEigenvalues() {
+		float[][] values = makeValues(150, 400, 30, 1);
+		float[] weights = new float[400];
+		for (int j = 0; j < weights.length; j++) {
+			weights[j] = .5f + (float) j / weights.length;
+		}
+
+		double[][] gamma = WeightedCostApproximator.findGamma(values, weights, 1);
+		SymmetricEigenDecomposition full = new SymmetricEigenDecomposition(gamma, 1);
+		RandomizedEigenDecomposition eig = new RandomizedEigenDecomposition(values, weights, 10, 10, 2, new Random(2), 2);
+
+		//gamma is built with float products, so errors are relative to the largest eigenvalue
+		double largest = full.getEigenvalues()[0];
+		assertEquals(10, eig.getEigenvalues().length);
+		for (int t = 0; t < 10; t++) {
+			double expected = full.getEigenvalues()[t];
+			assertEquals(expected, eig.getEigenvalues()[t], 1e-6 * largest);
+
+			//unit eigenvector: GAMMA v = lambda v
+			double[] v = eig.getEigenvectors()[t];
+			double norm = 0;
+			for (int i = 0; i < v.length; i++) {
+				norm += v[i] * v[i];
+				double gv = 0;
+				for (int j = 0; j < v.length; j++) {
+					gv += gamma[i][j] * v[j];
+				}
+				assertEquals(expected * v[i], gv, 1e-5 * largest);
+			}
+			assertEquals(1, norm, 1e-8);
+		}
+
+		assertEquals(10, eig.getNumSingularValues(0f, -1));
+		assertEquals(4, eig.getNumSingularValues(0f, 4));
+		assertEquals(0, eig.getNumSingularValues((float) (2 * full.getEigenvalues()[0]), -1));
+	}
+
+	public void testLowRankApproximator() {
+		float[][] evalPoints = new float[400][];
+		for (int j = 0; j < evalPoints.length; j++) {
+			evalPoints[j] = new float[]{2f * j / evalPoints.length - 1};
+		}
+		float[][] values = makeValues(150, evalPoints.length, 30, 3);
+		Function target = new IdentityFunction(1, 0);
+
+		boolean use = WeightedCostApproximator.getUseRandomizedSVD();
+		try {
+			WeightedCostApproximator.setUseRandomizedSVD(false);
+			float[] expected = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1f), 0f, 8, true).findCoefficients(target);
+			WeightedCostApproximator.setUseRandomizedSVD(true);
+			WeightedCostApproximator approximator = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1f), 0f, 8, true);
+			float[] actual = approximator.findCoefficients(target);
+			float[][] batch = approximator.findCoefficients(new Function[]{target});
+			float[] copy = ((WeightedCostApproximator) approximator.clone()).findCoefficients(target);
+
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], actual[i], 1e-3f * Math.max(1f, Math.abs(expected[i])));
+				assertEquals(actual[i], batch[i][0]);
+				assertEquals(actual[i], copy[i]);
+			}
+		} catch (CloneNotSupportedException e) {
+			fail(e.getMessage());
+		} finally {
+			WeightedCostApproximator.setUseRandomizedSVD(use);
+		}
+	}
+
+	//values with a quickly decaying spectrum, as neuron activities have
+	private static float[][] makeValues(int n, int m, int rank, long seed) {
+		Random random = new Random(seed);
+		float[][] result = new float[n][m];
+		for (int r = 0; r < rank; r++) {
+			double scale = Math.pow(.5, r);
+			double[] f = new double[n];
+			for (int i = 0; i < n; i++) {
+				f[i] = random.nextGaussian();
+			}
+			for (int j = 0; j < m; j++) {
+				double g = scale * random.nextGaussian();
+				for (int i = 0; i < n; i++) {
+					result[i][j] += f[i] * g;
+				}
+			}
+		}
+		return result;
+	}
+
+}
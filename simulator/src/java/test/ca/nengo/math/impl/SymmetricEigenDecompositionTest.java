@@ -0,0 +1,106 @@
+package ca.nengo.math.impl;
+
+import java.util.Random;
+
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for SymmetricEigenDecomposition.
+ */
+public class SymmetricEigenDecompositionTest extends TestCase {
+
+	public void testDecomposition() {
+		double[][] matrix = makeGamma(60, 100, 1);
+		for (int threads = 1; threads <= 3; threads++) {
+			SymmetricEigenDecomposition eig = new SymmetricEigenDecomposition(matrix, threads);
+			double[] values = eig.getEigenvalues();
+			Matrix v = new Matrix(eig.getEigenvectors());
+
+			//A = V D V' and V is orthogonal
+			Matrix reconstructed = v.times(Matrix.identity(60, 60).arrayTimes(diagonal(values))).times(v.transpose());
+			assertEquals(0, reconstructed.minus(new Matrix(matrix)).normInf(), 1e-9);
+			assertEquals(0, v.transpose().times(v).minus(Matrix.identity(60, 60)).normInf(), 1e-9);
+
+			for (int i = 1; i < values.length; i++) {
+				assertTrue(Math.abs(values[i-1]) >= Math.abs(values[i]));
+			}
+		}
+
+		SymmetricEigenDecomposition eig = new SymmetricEigenDecomposition(new double[][]{new double[]{2, 1}, new double[]{1, 2}}, 1);
+		assertEquals(3d, eig.getEigenvalues()[0], 1e-12);
+		assertEquals(1d, eig.getEigenvalues()[1], 1e-12);
+	}
+
+	public void testPseudoInverse() {
+		//rank deficient, as gamma often is
+		double[][] matrix = makeGamma(80, 50, 2);
+		SingularValueDecomposition svd = new Matrix(matrix).svd();
+
+		float minSV = (float) svd.getSingularValues()[30];
+		for (int nSV = -1; nSV <= 20; nSV += 21) {
+			Matrix sInv = svd.getS().inverse();
+			int expectedSV = 0;
+			while (svd.getS().get(expectedSV, expectedSV) > minSV && (nSV <= 0 || expectedSV < nSV)) {
+				expectedSV++;
+			}
+			for (int j = expectedSV; j < matrix.length; j++) {
+				sInv.set(j, j, 0d);
+			}
+			double[][] expected = svd.getV().times(sInv).times(svd.getU().transpose()).getArray();
+
+			SymmetricEigenDecomposition eig = new SymmetricEigenDecomposition(matrix, 2);
+			assertEquals(expectedSV, eig.getNumSingularValues(minSV, nSV));
+			double[][] inverse = eig.pseudoInverse(minSV, nSV, 2);
+			for (int i = 0; i < matrix.length; i++) {
+				for (int j = 0; j < matrix.length; j++) {
+					assertEquals(expected[i][j], inverse[i][j], 1e-6 * Math.abs(expected[i][j]) + 1e-9);
+				}
+			}
+		}
+	}
+
+	private static Matrix diagonal(double[] values) {
+		Matrix result = new Matrix(values.length, values.length);
+		for (int i = 0; i < values.length; i++) {
+			result.set(i, i, values[i]);
+		}
+		return result;
+	}
+
+	private static double[][] makeGamma(int n, int nEvalPoints, long seed) {
+		Random random = new Random(seed);
+		float[][] values = new float[n][nEvalPoints];
+		float[] weights = new float[nEvalPoints];
+		for (int k = 0; k < nEvalPoints; k++) {
+			weights[k] = 1;
+			for (int i = 0; i < n; i++) {
+				values[i][k] = random.nextFloat();
+			}
+		}
+		return WeightedCostApproximator.findGamma(values, weights, 1);
+	}
+
+	/**
+	 * Prints the time taken to find the pseudo-inverse of a gamma matrix with Jama's SVD and
+	 * with SymmetricEigenDecomposition.
+	 *
+	 * @param args Size of the matrix (eg 2000)
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		double[][] matrix = makeGamma(n, 2 * n, 1);
+
+		long start = System.currentTimeMillis();
+		new Matrix(matrix).svd();
+		System.out.println("Jama SVD: " + (System.currentTimeMillis() - start) + " ms");
+
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			start = System.currentTimeMillis();
+			new SymmetricEigenDecomposition(matrix, threads).pseudoInverse(0f, -1, threads);
+			System.out.println("Eigendecomposition, " + threads + " threads: " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+}
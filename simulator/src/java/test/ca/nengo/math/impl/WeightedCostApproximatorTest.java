@@ -3,6 +3,8 @@
  */
 package ca.nengo.math.impl;
 
+import java.util.Random;
+
 import ca.nengo.TestUtil;
 import ca.nengo.math.Function;
 import ca.nengo.math.LinearApproximator;
@@ -105,10 +107,186 @@ public class WeightedCostApproximatorTest extends TestCase {
 		
 	}
 	
+	/*
+	 * Test method for 'ca.nengo.math.impl.WeightedCostApproximator.findCoefficients(Function[])'
+	 */
+	public void testFindCoefficientsBatch() {
+		float[][] evalPoints = new float[200][];
+		for (int i = 0; i < evalPoints.length; i++) {
+			evalPoints[i] = new float[]{2f * i / evalPoints.length - 1};
+		}
+		float[][] values = makeValues(20, evalPoints.length, 3);
+		WeightedCostApproximator approximator = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1f), .1f, -1, true);
+
+		Function[] targets = new Function[]{new IdentityFunction(1, 0), new ConstantFunction(1, .5f),
+				new FourierFunction(new float[]{2}, new float[]{1}, new float[]{0})};
+		float[][] coefficients = approximator.findCoefficients(targets);
+		assertEquals(values.length, coefficients.length);
+		for (int j = 0; j < targets.length; j++) {
+			float[] single = approximator.findCoefficients(targets[j]);
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(single[i], coefficients[i][j]);
+			}
+		}
+	}
+
+	/*
+	 * Test method for 'ca.nengo.math.impl.WeightedCostApproximator.copyWithEvalPoints()'
+	 */
+	public void testCopyWithEvalPoints() {
+		float[][] evalPoints = new float[50][];
+		float[][] scaled = new float[evalPoints.length][];
+		for (int i = 0; i < evalPoints.length; i++) {
+			evalPoints[i] = new float[]{(float) i / evalPoints.length};
+			scaled[i] = new float[]{2 * evalPoints[i][0]};
+		}
+		float[][] values = makeValues(10, evalPoints.length, 4);
+
+		WeightedCostApproximator approximator = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1f), .1f, -1, true);
+		WeightedCostApproximator copy = approximator.copyWithEvalPoints(scaled);
+		assertNotNull(copy);
+		assertSame(scaled, copy.getEvalPoints());
+		assertSame(evalPoints, approximator.getEvalPoints());
+
+		//coefficients are found for the target at the new points
+		Function target = new IdentityFunction(1, 0);
+		Function scaledTarget = new LinearFunction(new float[]{.5f}, 0f, false);
+		float[] expected = approximator.findCoefficients(target);
+		float[] actual = copy.findCoefficients(scaledTarget);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], 1e-5f * Math.max(1f, Math.abs(expected[i])));
+		}
+
+		approximator = new WeightedCostApproximator(evalPoints, values, new IdentityFunction(1, 0), .1f, -1, true);
+		assertNull(approximator.copyWithEvalPoints(scaled));
+	}
+
+	/*
+	 * Test method for streaming constructor
+	 */
+	public void testStreaming() {
+		float[][] evalPoints = new float[300][];
+		for (int i = 0; i < evalPoints.length; i++) {
+			evalPoints[i] = new float[]{2f * i / evalPoints.length - 1};
+		}
+		final float[][] values = makeValues(20, evalPoints.length, 5);
+		final float[][] allPoints = evalPoints;
+		WeightedCostApproximator.ValueSource source = new WeightedCostApproximator.ValueSource() {
+			private static final long serialVersionUID = 1L;
+			public float[][] getValues(float[][] points) {
+				int start = 0;
+				while (allPoints[start] != points[0]) {
+					start++;
+				}
+				float[][] result = new float[values.length][points.length];
+				for (int i = 0; i < values.length; i++) {
+					System.arraycopy(values[i], start, result[i], 0, points.length);
+				}
+				return result;
+			}
+		};
+
+		Function[] targets = new Function[]{new IdentityFunction(1, 0), new ConstantFunction(1, .5f)};
+		float[][] expected = new WeightedCostApproximator(evalPoints, values, new ConstantFunction(1, 1f), 0f, -1, true).findCoefficients(targets);
+		WeightedCostApproximator streamed = new WeightedCostApproximator(evalPoints, source, 37, new ConstantFunction(1, 1f), 0f, -1, true);
+		float[][] actual = streamed.findCoefficients(targets);
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < targets.length; j++) {
+				assertEquals(expected[i][j], actual[i][j], 1e-3f * Math.max(1f, Math.abs(expected[i][j])));
+			}
+		}
+		float[][] streamedValues = streamed.getValues();
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < values[i].length; j++) {
+				assertEquals(values[i][j], streamedValues[i][j]);
+			}
+		}
+		assertNull(streamed.copyWithEvalPoints(evalPoints));
+
+		//noise is the same each time a block is generated
+		streamed = new WeightedCostApproximator(evalPoints, source, 37, new ConstantFunction(1, 1f), .1f, -1, true);
+		float[] first = streamed.findCoefficients(targets[0]);
+		float[] second = streamed.findCoefficients(targets[0]);
+		for (int i = 0; i < first.length; i++) {
+			assertEquals(first[i], second[i]);
+		}
+
+		WeightedCostApproximator.Factory factory = new WeightedCostApproximator.Factory(0f, true);
+		factory.setBlockSize(100);
+		assertNull(((WeightedCostApproximator) factory.getApproximator(evalPoints, source)).copyWithEvalPoints(evalPoints));
+		factory.setBlockSize(500);
+		assertNotNull(((WeightedCostApproximator) factory.getApproximator(evalPoints, source)).copyWithEvalPoints(evalPoints));
+	}
+
+	/*
+	 * Test method for 'ca.nengo.math.impl.WeightedCostApproximator.findGamma()'
+	 */
+	public void testFindGamma() {
+		float[][] values = makeValues(150, 1500, 1);
+		float[] weights = makeValues(1, 1500, 2)[0];
+
+		double[][] expected = new double[values.length][values.length];
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < values.length; j++) {
+				for (int k = 0; k < weights.length; k++) {
+					expected[i][j] += (double) values[i][k] * values[j][k] * weights[k];
+				}
+				expected[i][j] = expected[i][j] / weights.length;
+			}
+		}
+
+		for (int threads = 1; threads <= 3; threads++) {
+			double[][] gamma = WeightedCostApproximator.findGamma(values, weights, threads);
+			for (int i = 0; i < values.length; i++) {
+				for (int j = 0; j < values.length; j++) {
+					assertEquals(expected[i][j], gamma[i][j], 1e-5);
+					assertEquals(gamma[i][j], gamma[j][i]);
+				}
+			}
+		}
+	}
+
+	private static float[][] makeValues(int n, int m, long seed) {
+		Random random = new Random(seed);
+		float[][] result = new float[n][m];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < m; j++) {
+				result[i][j] = random.nextFloat();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Prints the time taken to find the gamma matrix with increasing numbers of threads.
+	 *
+	 * @param n Number of functions (eg neurons)
+	 * @param m Number of eval points
+	 */
+	public static void benchmarkFindGamma(int n, int m) {
+		float[][] values = makeValues(n, m, 1);
+		float[] weights = makeValues(1, m, 2)[0];
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			long start = System.currentTimeMillis();
+			WeightedCostApproximator.findGamma(values, weights, threads);
+			System.out.println(n + " x " + m + ", " + threads + " threads: " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * @param args Number of neurons and eval points to benchmark findGamma() (eg 3000 5000), or none
+	 * 		to run testFindCoefficients()
+	 */
 	public static void main(String[] args)
 	{
-		WeightedCostApproximatorTest t = new WeightedCostApproximatorTest();
-		t.testFindCoefficients();
+		if (args.length == 2) {
+			benchmarkFindGamma(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+		} else {
+			WeightedCostApproximatorTest t = new WeightedCostApproximatorTest();
+			t.testFindCoefficients();
+		}
 	}
 
 }
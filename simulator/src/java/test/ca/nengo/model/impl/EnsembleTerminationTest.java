@@ -3,7 +3,11 @@
  */
 package ca.nengo.model.impl;
 
+import java.util.Random;
+
 import ca.nengo.TestUtil;
+import ca.nengo.math.PDFTools;
+import ca.nengo.model.SimulationException;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Termination;
 import ca.nengo.model.impl.EnsembleTermination;
@@ -73,4 +77,46 @@ public class EnsembleTerminationTest extends TestCase {
 		TestUtil.assertClose(ourTau*2, myNodeTerminations[0].getTau(), ourTolerance);
 	}
 
+	/**
+	 * Plain SpikeOutputs are wrapped in a SpikeOutputImpl (whose spike indices are shared by the
+	 * nodes), which must give the same currents as giving each node the plain SpikeOutput.
+	 * @throws StructuralException
+	 * @throws SimulationException
+	 */
+	public void testSetValuesWrapsSpikes() throws StructuralException, SimulationException {
+		float[] probs = new float[]{.5f, .9f, .1f, 1f, .3f, .7f};
+		LinearExponentialTermination[] wrapped = makeTerminations(probs);
+		LinearExponentialTermination[] plain = makeTerminations(probs);
+		EnsembleTermination ensembleTermination = new EnsembleTermination(null, "test", wrapped);
+
+		Random random = new Random(3);
+		float dt = .001f;
+		for (int step = 0; step < 100; step++) {
+			boolean[] spikes = new boolean[probs.length];
+			for (int i = 0; i < spikes.length; i++) {
+				spikes[i] = random.nextFloat() < .4f;
+			}
+			ensembleTermination.setValues(new LinearExponentialTerminationTest.PlainSpikeOutput(spikes, step * dt));
+			for (int j = 0; j < plain.length; j++) {
+				plain[j].setValues(new LinearExponentialTerminationTest.PlainSpikeOutput(spikes, step * dt));
+				assertEquals(plain[j].updateCurrent(true, dt, dt), wrapped[j].updateCurrent(true, dt, dt), 0f);
+			}
+		}
+	}
+
+	//each call gives terminations with the same weights and random streams
+	private static LinearExponentialTermination[] makeTerminations(float[] probs) {
+		PDFTools.setSeed(11);
+		LinearExponentialTermination[] result = new LinearExponentialTermination[10];
+		for (int j = 0; j < result.length; j++) {
+			float[] weights = new float[probs.length];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = (i - j) * .37f;
+			}
+			result[j] = new LinearExponentialTermination(null, ""+j, weights, ourTau);
+			result[j].setWeightProbabilities(probs);
+		}
+		return result;
+	}
+
 }
@@ -4,7 +4,10 @@
 package ca.nengo.model.impl;
 
 import ca.nengo.math.Function;
+import ca.nengo.math.impl.AbstractFunction;
 import ca.nengo.math.impl.ConstantFunction;
+import ca.nengo.math.impl.FourierFunction;
+import ca.nengo.math.impl.PostfixFunction;
 import ca.nengo.model.Origin;
 import ca.nengo.model.RealOutput;
 import ca.nengo.model.SimulationException;
@@ -12,6 +15,7 @@ import ca.nengo.model.SimulationMode;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Units;
 import ca.nengo.model.impl.FunctionInput;
+import ca.nengo.util.TimeSeries;
 import junit.framework.TestCase;
 
 public class FunctionInputTest extends TestCase {
@@ -82,6 +86,91 @@ public class FunctionInputTest extends TestCase {
 		
 		assertEquals(1, input.getHistory(FunctionInput.STATE_NAME).getValues().length);
 		assertTrue(input.getHistory(FunctionInput.STATE_NAME).getValues()[0][0] > .5f);
+
+		//history isn't changed by later steps
+		FunctionInput ramp = new FunctionInput("ramp", new Function[]{new PostfixFunction("x0", 1)}, Units.UNK);
+		ramp.run(0f, 1f);
+		TimeSeries history = ramp.getHistory(FunctionInput.STATE_NAME);
+		ramp.run(1f, 2f);
+		assertEquals(1f, history.getValues()[0][0], 1e-6f);
+	}
+
+	/*
+	 * Test method for 'ca.nengo.model.impl.FunctionInput.precompute(float, float, float)'
+	 */
+	public void testPrecompute() throws StructuralException, SimulationException {
+		CountingFunction counter = new CountingFunction();
+		Function sine = new PostfixFunction("sin(x0*10)", 1);
+		FunctionInput input = new FunctionInput("test", new Function[]{sine, counter}, Units.UNK);
+		input.setUseTable(true);
+
+		float stepSize = .001f;
+		input.precompute(0f, .1f, stepSize);
+		int count = counter.myCount;
+		assertTrue(count > 0);
+
+		//step times as LocalSimulator computes them
+		Origin origin = input.getOrigin(FunctionInput.ORIGIN_NAME);
+		double step = Math.round(stepSize*1000000)/1000000.0;
+		double time = 0;
+		while (time < .1f) {
+			if (time + 1.5*step > .1f) {
+				step = .1f - time;
+			}
+			float endTime = (float) (time + step);
+			input.run((float) time, endTime);
+			float[] values = ((RealOutput) origin.getValues()).getValues();
+			assertEquals(sine.map(new float[]{endTime}), values[0], 1e-6f);
+			assertEquals(endTime, values[1], 1e-6f);
+			time += step;
+		}
+		assertEquals(count, counter.myCount);
+
+		//times that aren't in the table are evaluated directly
+		input.run(.5f, .6f);
+		assertEquals(count + 1, counter.myCount);
+		assertEquals(.6f, ((RealOutput) origin.getValues()).getValues()[1], 1e-6f);
+
+		input.setFunctions(new Function[]{new ConstantFunction(1, 2f), counter});
+		input.run(0f, stepSize);
+		assertEquals(2f, ((RealOutput) origin.getValues()).getValues()[0], 0f);
+		assertEquals(count + 2, counter.myCount);
+	}
+
+	/*
+	 * Functions that are changed in place between runs should be reflected in the next table.
+	 */
+	public void testPrecomputeChangedFunction() throws StructuralException, SimulationException {
+		FourierFunction function = new FourierFunction(new float[]{1f}, new float[]{1f}, new float[]{0f});
+		FunctionInput input = new FunctionInput("test", new Function[]{function}, Units.UNK);
+		input.setUseTable(true);
+		Origin origin = input.getOrigin(FunctionInput.ORIGIN_NAME);
+
+		input.precompute(0f, .01f, .001f);
+		input.run(0f, .001f);
+		float before = ((RealOutput) origin.getValues()).getValues()[0];
+
+		function.setAmplitudes(new float[]{2f});
+		input.precompute(0f, .01f, .001f);
+		input.run(0f, .001f);
+		assertEquals(2 * before, ((RealOutput) origin.getValues()).getValues()[0], 1e-6f);
+	}
+
+	private static class CountingFunction extends AbstractFunction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int myCount;
+
+		public CountingFunction() {
+			super(1);
+		}
+
+		@Override
+		public float map(float[] from) {
+			myCount++;
+			return from[0];
+		}
 	}
 
 }
@@ -3,13 +3,17 @@
  */
 package ca.nengo.model.impl;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Logger;
 
 import ca.nengo.TestUtil;
+import ca.nengo.math.PDFTools;
 import ca.nengo.model.InstantaneousOutput;
 import ca.nengo.model.SimulationException;
+import ca.nengo.model.SpikeOutput;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Units;
 
@@ -234,6 +238,69 @@ public class LinearExponentialTerminationTest extends TestCase {
         }
     }
 
+    /*
+     * SpikeOutputImpls are combined from their spike indices, other SpikeOutputs from their values
+     */
+    public void testSpikeOutputImplEquivalence() throws SimulationException {
+        float[] weights = new float[]{1f, -2f, .5f, 3f, .25f, -1f};
+        float[] probs = new float[]{.5f, .9f, .1f, 1f, .3f, .7f};
+
+        //same seed and stream number, so both terminations draw the same release probabilities
+        PDFTools.setSeed(7);
+        LinearExponentialTermination indexed = new LinearExponentialTermination(null, "indexed", weights, .01f);
+        indexed.setWeightProbabilities(probs);
+        PDFTools.setSeed(7);
+        LinearExponentialTermination plain = new LinearExponentialTermination(null, "plain", weights, .01f);
+        plain.setWeightProbabilities(probs);
+
+        Random random = new Random(3);
+        float dt = .001f;
+        for (int step = 0; step < 200; step++) {
+            boolean[] spikes = new boolean[weights.length];
+            for (int i = 0; i < spikes.length; i++) {
+                spikes[i] = random.nextFloat() < .4f;
+            }
+            indexed.setValues(new SpikeOutputImpl(spikes.clone(), Units.SPIKES, step * dt));
+            plain.setValues(new PlainSpikeOutput(spikes, step * dt));
+            assertEquals(indexed.updateCurrent(true, dt, dt), plain.updateCurrent(true, dt, dt), 0f);
+        }
+    }
+
+    /**
+     * A SpikeOutput that isn't a SpikeOutputImpl (so spikes are found from its values).
+     */
+    static class PlainSpikeOutput implements SpikeOutput {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean[] myValues;
+        private final float myTime;
+
+        public PlainSpikeOutput(boolean[] values, float time) {
+            myValues = values;
+            myTime = time;
+        }
+
+        public boolean[] getValues() {
+            return myValues;
+        }
+
+        public Units getUnits() {
+            return Units.SPIKES;
+        }
+
+        public int getDimension() {
+            return myValues.length;
+        }
+
+        public float getTime() {
+            return myTime;
+        }
+
+        public InstantaneousOutput clone() {
+            return new PlainSpikeOutput(myValues.clone(), myTime);
+        }
+    }
+
     private float[] getCurrents(LinearExponentialTermination let, InstantaneousOutput values, float time, int steps)
     throws SimulationException {
         let.setValues(values);
@@ -7,6 +7,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import ca.nengo.TestUtil;
+import ca.nengo.math.Function;
+import ca.nengo.math.impl.PostfixFunction;
 import ca.nengo.model.RealOutput;
 import ca.nengo.model.SimulationException;
 import ca.nengo.model.SpikeOutput;
@@ -58,4 +60,22 @@ public class PassthroughNodeTest extends TestCase {
 		TestUtil.assertClose(7, out3.getValues()[0], .001f);
 	}
 
+	public void testChain() throws SimulationException, StructuralException {
+		NetworkImpl network = new NetworkImpl();
+		FunctionInput input = new FunctionInput("input", new Function[]{new PostfixFunction("x0", 1)}, Units.UNK);
+		network.addNode(input);
+		PassthroughNode[] nodes = new PassthroughNode[3];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new PassthroughNode("p" + i, 1);
+			network.addNode(nodes[i]);
+			network.addProjection(i == 0 ? input.getOrigin(FunctionInput.ORIGIN_NAME) : nodes[i-1].getOrigin(PassthroughNode.ORIGIN),
+					nodes[i].getTermination(PassthroughNode.TERMINATION));
+		}
+
+		//each node delays its input by one step, even if its source reuses its outputs
+		network.run(0f, .008f);
+		RealOutput out = (RealOutput) nodes[2].getOrigin(PassthroughNode.ORIGIN).getValues();
+		TestUtil.assertClose(.005f, out.getValues()[0], .0001f);
+	}
+
 }
@@ -0,0 +1,36 @@
+package ca.nengo.model.impl;
+
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.Units;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for RealOutputBuffer.
+ */
+public class RealOutputBufferTest extends TestCase {
+
+	public void testPublish() {
+		RealOutputBuffer buffer = new RealOutputBuffer(2, Units.UNK);
+		assertEquals(2, buffer.getDimension());
+
+		buffer.getNextValues()[0] = 1f;
+		RealOutput first = buffer.publish(Units.SPIKES_PER_S, .001f);
+		assertSame(first, buffer.getCurrent());
+		assertEquals(1f, first.getValues()[0]);
+		assertEquals(Units.SPIKES_PER_S, first.getUnits());
+		assertEquals(.001f, first.getTime());
+
+		//filling the next output doesn't change the current one
+		buffer.getNextValues()[0] = 2f;
+		assertEquals(1f, first.getValues()[0]);
+		RealOutput second = buffer.publish(Units.UNK, .002f);
+		assertNotSame(first, second);
+		assertEquals(2f, second.getValues()[0]);
+		assertEquals(.001f, first.getTime());
+
+		//outputs alternate
+		assertSame(first.getValues(), buffer.getNextValues());
+		assertSame(first, buffer.publish(Units.UNK, .003f));
+	}
+
+}
@@ -44,4 +44,22 @@ public class SpikeOutputImplTest extends TestCase {
 		assertEquals(1, mySpikeOutput.getDimension());
 	}
 
+	public void testGetSpikeIndices() {
+		SpikeOutputImpl output = new SpikeOutputImpl(new boolean[]{false, true, false, true}, Units.SPIKES, 0);
+		int[] indices = output.getSpikeIndices();
+		assertEquals(2, indices.length);
+		assertEquals(1, indices[0]);
+		assertEquals(3, indices[1]);
+		assertSame(indices, output.getSpikeIndices());
+
+		//buffered outputs are reused, so indices are found again after each publish
+		SpikeOutputBuffer buffer = new SpikeOutputBuffer(3, Units.SPIKES);
+		buffer.getNextValues()[2] = true;
+		assertEquals(2, ((SpikeOutputImpl) buffer.publish(Units.SPIKES, 0)).getSpikeIndices()[0]);
+		buffer.publish(Units.SPIKES, 0);
+		buffer.getNextValues()[2] = false;
+		buffer.getNextValues()[0] = true;
+		assertEquals(0, ((SpikeOutputImpl) buffer.publish(Units.SPIKES, 0)).getSpikeIndices()[0]);
+	}
+
 }
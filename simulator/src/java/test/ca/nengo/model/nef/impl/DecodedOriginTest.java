@@ -3,9 +3,12 @@
  */
 package ca.nengo.model.nef.impl;
 
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.SimulationException;
 import ca.nengo.model.nef.NEFEnsemble;
 import ca.nengo.model.nef.impl.DecodedOrigin;
 import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.model.neuron.Neuron;
 //import ca.nengo.plot.Plotter;
 import ca.nengo.util.MU;
 import junit.framework.TestCase;
@@ -17,6 +20,7 @@ import junit.framework.TestCase;
  */
 public class DecodedOriginTest extends TestCase {
 
+	private NEFEnsemble myEnsemble;
 	private DecodedOrigin myOrigin;
 	
 	/**
@@ -33,9 +37,9 @@ public class DecodedOriginTest extends TestCase {
 		super.setUp();
 		
 		NEFEnsembleFactoryImpl ef = new NEFEnsembleFactoryImpl();
-		NEFEnsemble ensemble = ef.make("test", 100, 1);
-		myOrigin = (DecodedOrigin) ensemble.getOrigin(NEFEnsemble.X);
-//		Plotter.plot(ensemble, NEFEnsemble.X);
+		myEnsemble = ef.make("test", 100, 1);
+		myOrigin = (DecodedOrigin) myEnsemble.getOrigin(NEFEnsemble.X);
+//		Plotter.plot(myEnsemble, NEFEnsemble.X);
 	}
 
 	/**
@@ -44,6 +48,36 @@ public class DecodedOriginTest extends TestCase {
 	public void testGetError() {
 		System.out.println(MU.toString(new float[][]{myOrigin.getError()}, 10));
 	}
+
+	/**
+	 * Test method for {@link ca.nengo.model.nef.impl.DecodedOrigin#run(float[], float[], float, float)}.
+	 */
+	public void testRun() throws SimulationException {
+		float dt = .001f;
+		float[] nodeOutputs = new float[myEnsemble.getNodes().length];
+		float[][] decoders = myOrigin.getDecoders();
+		int spikes = 0;
+
+		for (int step = 0; step < 50; step++) {
+			myEnsemble.run(step * dt, (step+1) * dt);
+			float[] output = ((RealOutput) myOrigin.getValues()).getValues();
+
+			DecodedOrigin.gatherNodeOutputs(myEnsemble.getNodes(), Neuron.AXON, dt, nodeOutputs);
+			float expected = 0;
+			for (int i = 0; i < nodeOutputs.length; i++) {
+				expected += nodeOutputs[i] * decoders[i][0];
+				if (nodeOutputs[i] > 0) {
+					spikes++;
+				}
+			}
+			assertEquals(expected, output[0], 1e-3f);
+
+			//reading outputs from the nodes gives the same result as outputs gathered by the ensemble
+			myOrigin.run(null, step * dt, (step+1) * dt);
+			assertEquals(output[0], ((RealOutput) myOrigin.getValues()).getValues()[0], 1e-5f);
+		}
+		assertTrue(spikes > 0);
+	}
 	
 //	public static void main(String[] args) {
 //		DecodedOriginTest test = new DecodedOriginTest("");
@@ -0,0 +1,87 @@
+package ca.nengo.model.nef.impl;
+
+import ca.nengo.dynamics.LinearSystem;
+import ca.nengo.dynamics.impl.CanonicalModel;
+import ca.nengo.dynamics.impl.EulerIntegrator;
+import ca.nengo.dynamics.impl.SimpleLTISystem;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputImpl;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for DecodedTermination.
+ */
+public class DecodedTerminationTest extends TestCase {
+
+	private static final float TAU = .01f;
+
+	private DecodedTermination makeTermination(LinearSystem dynamics) throws StructuralException {
+		return new DecodedTermination(null, "test", new float[][]{new float[]{1f}, new float[]{-2f}},
+				dynamics, new EulerIntegrator(TAU / 10f));
+	}
+
+	private static SimpleLTISystem makePSC() {
+		return new SimpleLTISystem(new float[]{-1f/TAU}, new float[][]{new float[]{1f}},
+				new float[][]{new float[]{1f/TAU}}, new float[]{0f}, new Units[]{Units.UNK});
+	}
+
+	public void testFirstOrder() throws StructuralException, SimulationException {
+		DecodedTermination termination = makeTermination(makePSC());
+		termination.setValues(new RealOutputImpl(new float[]{1f}, Units.UNK, 0));
+
+		float dt = .001f;
+		float[] output = null;
+		for (int step = 0; step < 50; step++) {
+			termination.run(step * dt, (step+1) * dt);
+			output = termination.getOutput();
+
+			//exact step response of exponential PSC
+			float expected = 1f - (float) Math.exp(-(step+1) * dt / TAU);
+			assertEquals(expected, output[0], 1e-4f);
+			assertEquals(-2f * expected, output[1], 2e-4f);
+		}
+
+		float[] history = termination.getHistory(DecodedTermination.OUTPUT).getValues()[0];
+		assertEquals(output[0], history[0]);
+
+		termination.reset(false);
+		termination.setValues(new RealOutputImpl(new float[]{0f}, Units.UNK, 0));
+		termination.run(0, dt);
+		assertEquals(0f, termination.getOutput()[0]);
+	}
+
+	public void testClone() throws StructuralException, SimulationException, CloneNotSupportedException {
+		DecodedTermination termination = makeTermination(makePSC());
+		termination.setValues(new RealOutputImpl(new float[]{1f}, Units.UNK, 0));
+		termination.run(0, .001f);
+
+		DecodedTermination copy = termination.clone();
+		float before = termination.getOutput()[0];
+		copy.run(.001f, .002f);
+		copy.run(.002f, .003f);
+		assertEquals(before, termination.getOutput()[0]);
+
+		termination.run(.001f, .002f);
+		copy.reset(false);
+		termination.run(.002f, .003f);
+		assertTrue(termination.getOutput()[0] > before);
+	}
+
+	public void testHigherOrder() throws StructuralException, SimulationException {
+		//two poles at the same time constant, solved by the integrator
+		LinearSystem dynamics = CanonicalModel.getRealization(new float[]{0f, 1f/(TAU*TAU)},
+				new float[]{2f/TAU, 1f/(TAU*TAU)}, 0f);
+		DecodedTermination termination = makeTermination(dynamics);
+		termination.setValues(new RealOutputImpl(new float[]{1f}, Units.UNK, 0));
+
+		float dt = .001f;
+		for (int step = 0; step < 200; step++) {
+			termination.run(step * dt, (step+1) * dt);
+		}
+		assertEquals(1f, termination.getOutput()[0], .01f);
+		assertEquals(-2f, termination.getOutput()[1], .02f);
+	}
+
+}
@@ -3,23 +3,31 @@
  */
 package ca.nengo.model.nef.impl;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import ca.nengo.math.Function;
 import ca.nengo.math.impl.AbstractFunction;
 //import ca.nengo.math.impl.ConstantFunction;
 import ca.nengo.model.Network;
 import ca.nengo.model.Node;
 import ca.nengo.model.Projection;
+import ca.nengo.model.RealOutput;
 import ca.nengo.model.SimulationException;
+import ca.nengo.model.SimulationMode;
 import ca.nengo.model.StructuralException;
 import ca.nengo.model.Units;
 import ca.nengo.model.impl.FunctionInput;
 import ca.nengo.model.impl.NetworkImpl;
+import ca.nengo.model.impl.RealOutputImpl;
 import ca.nengo.model.nef.NEFEnsemble;
 import ca.nengo.model.nef.NEFEnsembleFactory;
+import ca.nengo.model.nef.NEFNode;
 import ca.nengo.model.nef.impl.BiasOrigin;
 //import ca.nengo.model.nef.impl.DecodedOrigin;
 //import ca.nengo.model.nef.impl.DecodedTermination;
 import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.model.neuron.Neuron;
 import ca.nengo.model.neuron.impl.SpikingNeuron;
 import ca.nengo.plot.Plotter;
 import ca.nengo.util.MU;
@@ -42,6 +50,44 @@ public class NEFEnsembleImplTest extends TestCase {
 		super.setUp();
 	}
 
+	public void testUsePopulation() throws StructuralException, SimulationException, CloneNotSupportedException {
+		NEFEnsembleFactory ef = new NEFEnsembleFactoryImpl();
+		NEFEnsembleImpl ensemble = (NEFEnsembleImpl) ef.make("ensemble", 100, 2);
+		ensemble.addDecodedTermination("input", MU.I(2), .005f, false);
+		NEFEnsembleImpl copy = ensemble.clone();
+		copy.setUsePopulation(true);
+		copy.collectSpikes(true);
+		ensemble.collectSpikes(true);
+		assertTrue(copy.getUsePopulation());
+
+		RealOutput input = new RealOutputImpl(new float[]{.5f, -.3f}, Units.UNK, 0);
+		ensemble.getTermination("input").setValues(input);
+		copy.getTermination("input").setValues(input);
+		for (int i = 0; i < 200; i++) {
+			ensemble.run(i * .001f, (i+1) * .001f);
+			copy.run(i * .001f, (i+1) * .001f);
+			float[] expected = ((RealOutput) ensemble.getOrigin(NEFEnsemble.X).getValues()).getValues();
+			float[] actual = ((RealOutput) copy.getOrigin(NEFEnsemble.X).getValues()).getValues();
+			assertEquals(expected[0], actual[0]);
+			assertEquals(expected[1], actual[1]);
+		}
+		assertNotNull(copy.getPopulation());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(ensemble.getSpikePattern().getSpikeTimes(i).length, copy.getSpikePattern().getSpikeTimes(i).length);
+		}
+
+		//switching mode hands state back to the neurons
+		copy.setMode(SimulationMode.RATE);
+		assertEquals(ensemble.getSpikePattern().getSpikeTimes(0).length, copy.getSpikePattern().getSpikeTimes(0).length);
+		copy.setMode(SimulationMode.DEFAULT);
+		copy.setUsePopulation(false);
+		ensemble.run(.2f, .201f);
+		copy.run(.2f, .201f);
+		assertNull(copy.getPopulation());
+		assertEquals(((RealOutput) ensemble.getOrigin(NEFEnsemble.X).getValues()).getValues()[0],
+				((RealOutput) copy.getOrigin(NEFEnsemble.X).getValues()).getValues()[0]);
+	}
+
 	public void functionalTestAddBiasOrigin() throws StructuralException, SimulationException {
 		NEFEnsembleFactory ef = new NEFEnsembleFactoryImpl();
 
@@ -235,6 +281,143 @@ public class NEFEnsembleImplTest extends TestCase {
 //		return biasEncoders;
 //	}
 	
+	public void testEncode() throws StructuralException {
+		NEFEnsembleImpl ensemble = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("test", 20, 2);
+		float[] state = new float[]{.5f, -.3f};
+		float[] input = new float[20];
+
+		ensemble.encode(state, input);
+		for (int i = 0; i < input.length; i++) {
+			assertEquals(ensemble.getRadialInput(state, i), input[i], 0f);
+		}
+
+		//same arithmetic as getRadialInput(), so the results are identical, also with radii
+		ensemble.setRadii(new float[]{2f, .5f});
+		ensemble.encode(state, input);
+		for (int i = 0; i < input.length; i++) {
+			assertEquals(ensemble.getRadialInput(state, i), input[i], 0f);
+		}
+
+		float[][] encoders = MU.uniform(20, 2, 1f);
+		ensemble.setEncoders(encoders);
+		ensemble.encode(state, input);
+		assertEquals(.5f/2f - .3f/.5f, input[0], 1e-6f);
+
+		//setting the same array again picks up changes made to it in place
+		encoders[0][1] = 0f;
+		ensemble.setEncoders(encoders);
+		ensemble.encode(state, input);
+		assertEquals(.5f/2f, input[0], 1e-6f);
+	}
+
+	public void testBiasInput() throws StructuralException, SimulationException {
+		NEFEnsembleImpl ensemble = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("test", 30, 1);
+		ensemble.setUsePopulation(true);
+		String[] baseNames = new String[]{"a", "b", "c"};
+		for (int k = 0; k < baseNames.length; k++) {
+			DecodedTermination base = (DecodedTermination) ensemble.addDecodedTermination(baseNames[k], new float[][]{{1f}}, .005f, false);
+			ensemble.addBiasTerminations(base, .01f, new float[][]{{.3f + k}, {.2f}}, new float[][]{{-1f}, {.7f}});
+		}
+
+		for (int step = 0; step < 5; step++) {
+			DecodedTermination[] dts = ensemble.getDecodedTerminations();
+			for (int k = 0; k < dts.length; k++) {
+				dts[k].setValues(new RealOutputImpl(new float[]{.37f * (k+1) + .11f * step}, Units.UNK, step * .001f));
+			}
+			ensemble.run(step * .001f, (step+1) * .001f);
+
+			//outputs of each base termination are summed first, then multiplied by the bias encoders
+			float[] state = new float[1];
+			Map<String, Float> bias = new HashMap<String, Float>(5);
+			for (DecodedTermination t : dts) {
+				if (t instanceof BiasTermination) {
+					String baseName = ((BiasTermination) t).getBaseTerminationName();
+					if (!bias.containsKey(baseName)) {
+						bias.put(baseName, new Float(0));
+					}
+					if (!t.getModulatory()) {
+						bias.put(baseName, new Float(bias.get(baseName).floatValue() + t.getOutput()[0]));
+					}
+				} else {
+					state = MU.sum(state, t.getOutput());
+				}
+			}
+			float[] input = ensemble.getPopulation().getInput();
+			for (int i = 0; i < input.length; i++) {
+				float sumBias = 0;
+				for (String baseName : bias.keySet()) {
+					BiasTermination t = (BiasTermination) ensemble.getTermination(baseName + NEFEnsembleImpl.BIAS_SUFFIX);
+					sumBias += bias.get(baseName).floatValue() * t.getBiasEncoders()[i];
+				}
+				assertEquals(ensemble.getRadialInput(state, i) + sumBias, input[i], 0f);
+			}
+		}
+	}
+
+	public void testGetConstantOutputs() throws StructuralException, SimulationException {
+		NEFEnsembleImpl ensemble = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("test", 50, 2);
+		ensemble.setRadii(new float[]{2f, .5f});
+		float[][] evalPoints = MU.uniform(30, 2, 1f);
+
+		//compare closed-form LIF rates with running each neuron in CONSTANT_RATE mode
+		float[][] expected = new float[50][30];
+		for (int i = 0; i < 50; i++) {
+			SpikingNeuron neuron = (SpikingNeuron) ensemble.getNodes()[i];
+			neuron.setMode(SimulationMode.CONSTANT_RATE);
+			for (int j = 0; j < 30; j++) {
+				neuron.setRadialInput(ensemble.getRadialInput(evalPoints[j], i));
+				neuron.run(0f, 0f);
+				expected[i][j] = ((RealOutput) neuron.getOrigin(Neuron.AXON).getValues()).getValues()[0];
+			}
+			neuron.setMode(SimulationMode.DEFAULT);
+		}
+
+		for (int threads = 1; threads <= 3; threads++) {
+			float[][] outputs = ensemble.getConstantOutputs(evalPoints, Neuron.AXON, threads);
+			for (int i = 0; i < 50; i++) {
+				for (int j = 0; j < 30; j++) {
+					assertEquals(expected[i][j], outputs[i][j]);
+				}
+			}
+		}
+
+		//other origins are found by running the neurons
+		float[][] currents = ensemble.getConstantOutputs(evalPoints, SpikingNeuron.CURRENT, 2);
+		assertEquals(ensemble.getRadialInput(evalPoints[3], 7), currents[7][3], 1e-6f);
+		assertEquals(SimulationMode.DEFAULT, ensemble.getNodes()[7].getMode());
+
+		try {
+			ensemble.getConstantOutputs(evalPoints, "missing", 2);
+			fail("Should have thrown exception");
+		} catch (StructuralException e) {} //exception is expected
+	}
+
+	public void testGetConstantOutputsFailure() throws StructuralException {
+		NEFEnsembleImpl ensemble = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("test", 50, 1);
+		NEFNode[] nodes = new NEFNode[50];
+		System.arraycopy(ensemble.getNodes(), 0, nodes, 0, 50);
+		NEFEnsembleImpl failing = new NEFEnsembleImpl("failing", nodes, ensemble.getEncoders(),
+				ensemble.getApproximatorFactory(), ensemble.getEvalPoints(), ensemble.getRadii()) {
+			private static final long serialVersionUID = 1L;
+			protected float[] getConstantOutput(int nodeIndex, float[][] evalPoints, String origin) {
+				if (nodeIndex == 40) {
+					throw new IllegalStateException("node " + nodeIndex);
+				}
+				return new float[evalPoints.length];
+			}
+		};
+
+		//unchecked failures on any thread (including the calling one) reach the caller
+		for (int threads = 1; threads <= 4; threads++) {
+			try {
+				failing.getConstantOutputs(new float[][]{{0f}}, Neuron.AXON, threads);
+				fail("Should have thrown exception");
+			} catch (IllegalStateException e) {
+				assertEquals("node 40", e.getMessage());
+			}
+		}
+	}
+
 	public void testClone() throws StructuralException, CloneNotSupportedException {
 		NEFEnsembleFactory ef = new NEFEnsembleFactoryImpl();
 		NEFEnsemble ensemble = ef.make("test", 100, 1);
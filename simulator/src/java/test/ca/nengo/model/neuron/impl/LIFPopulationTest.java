@@ -0,0 +1,128 @@
+package ca.nengo.model.neuron.impl;
+
+import java.util.Random;
+
+import ca.nengo.model.Node;
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.SimulationMode;
+import ca.nengo.model.SpikeOutput;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.impl.NoiseFactory;
+import ca.nengo.model.neuron.Neuron;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for LIFPopulation.
+ */
+public class LIFPopulationTest extends TestCase {
+
+	private Node[] myNeurons;
+	private Node[] myCopies;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		LIFNeuronFactory factory = new LIFNeuronFactory();
+		myNeurons = new Node[50];
+		myCopies = new Node[myNeurons.length];
+		for (int i = 0; i < myNeurons.length; i++) {
+			myNeurons[i] = factory.make("neuron" + i);
+			myCopies[i] = myNeurons[i].clone();
+		}
+	}
+
+	public void testCanSimulate() throws StructuralException {
+		assertTrue(LIFPopulation.canSimulate(myNeurons));
+		assertFalse(LIFPopulation.canSimulate(new Node[0]));
+
+		((SpikingNeuron) myNeurons[3]).setNoise(NoiseFactory.makeNullNoise());
+		assertFalse(LIFPopulation.canSimulate(myNeurons));
+
+		myCopies[5] = new LIFNeuronFactory().make("expanded");
+		((ExpandableSpikingNeuron) myCopies[5]).addTermination("input", new float[][]{new float[]{1f}}, .005f, false);
+		assertFalse(LIFPopulation.canSimulate(myCopies));
+
+		try {
+			new LIFPopulation(myCopies);
+			fail("Should have thrown exception");
+		} catch (StructuralException e) {} //exception is expected
+	}
+
+	public void testRunSpiking() throws StructuralException, SimulationException {
+		LIFPopulation population = new LIFPopulation(myCopies);
+		assertEquals(myNeurons.length, population.getSize());
+
+		Random random = new Random(1);
+		float dt = .001f;
+		int spikes = 0;
+		for (int step = 0; step < 1000; step++) {
+			float startTime = step * dt;
+			float endTime = (step+1) * dt;
+			for (int i = 0; i < myNeurons.length; i++) {
+				float input = 2f * random.nextFloat() - 1f;
+				((SpikingNeuron) myNeurons[i]).setRadialInput(input);
+				population.getInput()[i] = input;
+				myNeurons[i].run(startTime, endTime);
+			}
+			population.run(startTime, endTime);
+
+			for (int i = 0; i < myNeurons.length; i++) {
+				boolean expected = ((SpikeOutput) myNeurons[i].getOrigin(Neuron.AXON).getValues()).getValues()[0];
+				boolean actual = ((SpikeOutput) myCopies[i].getOrigin(Neuron.AXON).getValues()).getValues()[0];
+				assertEquals(expected, actual);
+				assertEquals(expected, population.getSpikes()[i]);
+				assertEquals(expected ? 1f / (endTime - startTime) : 0f, population.getOutput()[i]);
+				if (expected) {
+					spikes++;
+				}
+			}
+		}
+		assertTrue(spikes > 0);
+	}
+
+	public void testRunRate() throws StructuralException, SimulationException {
+		for (int i = 0; i < myNeurons.length; i++) {
+			myNeurons[i].setMode(SimulationMode.RATE);
+			myCopies[i].setMode(SimulationMode.RATE);
+		}
+		LIFPopulation population = new LIFPopulation(myCopies);
+		assertEquals(SimulationMode.RATE, population.getMode());
+
+		for (int i = 0; i < myNeurons.length; i++) {
+			float input = -1f + 2f * i / myNeurons.length;
+			((SpikingNeuron) myNeurons[i]).setRadialInput(input);
+			population.getInput()[i] = input;
+			myNeurons[i].run(0, .001f);
+		}
+		population.run(0, .001f);
+
+		for (int i = 0; i < myNeurons.length; i++) {
+			float expected = ((RealOutput) myNeurons[i].getOrigin(Neuron.AXON).getValues()).getValues()[0];
+			assertEquals(expected, population.getOutput()[i]);
+			assertEquals(expected, ((RealOutput) myCopies[i].getOrigin(Neuron.AXON).getValues()).getValues()[0]);
+		}
+	}
+
+	public void testSaveState() throws StructuralException, SimulationException {
+		LIFPopulation population = new LIFPopulation(myCopies);
+		float dt = .001f;
+		for (int step = 0; step < 20; step++) {
+			for (int i = 0; i < myNeurons.length; i++) {
+				((SpikingNeuron) myNeurons[i]).setRadialInput(.5f);
+				population.getInput()[i] = .5f;
+				myNeurons[i].run(step * dt, (step+1) * dt);
+			}
+			population.run(step * dt, (step+1) * dt);
+		}
+		population.saveState();
+
+		for (int i = 0; i < myNeurons.length; i++) {
+			LIFSpikeGenerator expected = (LIFSpikeGenerator) ((SpikingNeuron) myNeurons[i]).getGenerator();
+			LIFSpikeGenerator actual = (LIFSpikeGenerator) ((SpikingNeuron) myCopies[i]).getGenerator();
+			assertEquals(expected.getVoltage(), actual.getVoltage());
+			assertEquals(expected.getTimeSinceLastSpike(), actual.getTimeSinceLastSpike());
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package ca.nengo.model.plasticity.impl;
+
+import junit.framework.TestCase;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.RealOutputImpl;
+import ca.nengo.model.impl.SpikeOutputImpl;
+import ca.nengo.model.nef.NEFEnsemble;
+import ca.nengo.model.nef.impl.DecodedOrigin;
+import ca.nengo.model.nef.impl.DecodedTermination;
+import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.model.nef.impl.NEFEnsembleImpl;
+import ca.nengo.model.neuron.impl.SpikingNeuron;
+import ca.nengo.util.MU;
+
+/**
+ * Unit tests for DecodedPESTermination.
+ */
+public class DecodedPESTerminationTest extends TestCase {
+
+	public void testUpdateDecoders() throws Exception {
+		NEFEnsembleFactoryImpl factory = new NEFEnsembleFactoryImpl();
+		NEFEnsemble pre = factory.make("pre", 20, 1);
+		NEFEnsembleImpl post = (NEFEnsembleImpl) factory.make("post", 10, new float[]{2f});
+
+		float tau = .005f;
+		float[][] decoders = MU.transpose(((DecodedOrigin) pre.getOrigin(NEFEnsemble.X)).getDecoders());
+		DecodedTermination error = (DecodedTermination) post.addDecodedTermination("error", new float[][]{{1f}}, tau, true);
+		DecodedPESTermination term = post.addDecodedPESTermination("learn", decoders, tau, "error");
+		term.setLearningRate(1e-3f);
+
+		//implied weights are gain * encoder . decoder / radius
+		float[][] before = term.getWeights();
+		float[][] encoders = post.getEncoders();
+		for (int i = 0; i < before.length; i++) {
+			float gain = ((SpikingNeuron) post.getNodes()[i]).getScale();
+			for (int j = 0; j < before[i].length; j++) {
+				assertEquals(gain * encoders[i][0] * decoders[0][j] / 2f, before[i][j], 1e-5f);
+			}
+		}
+
+		boolean[] spikes = new boolean[20];
+		spikes[3] = true;
+		spikes[7] = true;
+		float dt = .001f;
+		term.setValues(new SpikeOutputImpl(spikes, Units.SPIKES, dt));
+		error.setValues(new RealOutputImpl(new float[]{.5f}, Units.UNK, dt));
+		post.run(0f, dt);
+
+		//change in implied weights is the PES change, as in PESTermination
+		float update = 1f - (float) Math.exp(-dt / tau);
+		float e = error.getOutput()[0] * update;
+		float[][] after = term.getWeights();
+		for (int i = 0; i < after.length; i++) {
+			float gain = ((SpikingNeuron) post.getNodes()[i]).getScale();
+			for (int j = 0; j < after[i].length; j++) {
+				float x = spikes[j] ? dt * update : 0f;
+				float expected = term.getLearningRate() * x * e * encoders[i][0] * gain;
+				assertEquals(expected, after[i][j] - before[i][j], 1e-6f * Math.max(1f, Math.abs(before[i][j])));
+			}
+		}
+		assertTrue(term.getDecoders()[0][3] != decoders[0][3]);
+		assertEquals(decoders[0][4], term.getDecoders()[0][4]);
+
+		//a clone starts from the learned decoders, but resets to the initial ones
+		DecodedPESTermination copy = term.clone(post);
+		assertEquals(term.getDecoders()[0][3], copy.getDecoders()[0][3]);
+		copy.reset(false);
+		assertEquals(decoders[0][3], copy.getDecoders()[0][3]);
+		assertTrue(term.getDecoders()[0][3] != decoders[0][3]);
+
+		post.reset(false);
+		assertEquals(decoders[0][3], term.getDecoders()[0][3]);
+	}
+
+}
@@ -0,0 +1,148 @@
+package ca.nengo.model.plasticity.impl;
+
+import junit.framework.TestCase;
+import ca.nengo.math.Function;
+import ca.nengo.math.impl.ConstantFunction;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.FunctionInput;
+import ca.nengo.model.impl.LinearExponentialTermination;
+import ca.nengo.model.impl.NetworkImpl;
+import ca.nengo.model.impl.RealOutputImpl;
+import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.model.nef.impl.NEFEnsembleImpl;
+import ca.nengo.model.neuron.impl.SpikingNeuron;
+
+/**
+ * Unit tests for PESTermination.
+ */
+public class PESTerminationTest extends TestCase {
+
+	private static final int N = 10;
+
+	private NEFEnsembleImpl myEnsemble;
+	private PESTermination myTermination;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		myEnsemble = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("post", N, 2);
+		LinearExponentialTermination[] nodeTerms = new LinearExponentialTermination[N];
+		for (int i = 0; i < N; i++) {
+			nodeTerms[i] = new LinearExponentialTermination(new SpikingNeuron(null, null, 1f + i, 0f, null), null,
+					new float[]{.1f * i, -.2f, .3f}, .005f);
+		}
+		myTermination = new PESTermination(myEnsemble, "pes", nodeTerms);
+		myTermination.setModTermName("error");
+		myTermination.setLearningRate(1e-2f);
+	}
+
+	public void testUpdateTransform() throws StructuralException {
+		myTermination.myFilteredInput = new float[]{.5f, -1f, 2f};
+		myTermination.myFilteredModInput = new float[]{.3f, -.7f};
+		myTermination.myOutput = new float[]{1f, 2f};
+
+		for (int oja = 0; oja < 2; oja++) {
+			myTermination.setOja(oja == 1);
+
+			float[][] expected = copy(myTermination.getTransform());
+			for (int i = 0; i < N; i++) {
+				for (int j = 0; j < expected[i].length; j++) {
+					expected[i][j] += myTermination.deltaOmega(i, j, expected[i][j]);
+				}
+			}
+
+			myTermination.updateTransform(0f, 0, N/2);
+			myTermination.updateTransform(0f, N/2, N);
+			assertClose(expected, myTermination.getTransform());
+		}
+	}
+
+	public void testBatchUpdates() throws StructuralException {
+		myTermination.setBatchUpdates(true);
+		float[][] initial = copy(myTermination.getTransform());
+		float[][] encoders = myEnsemble.getEncoders();
+
+		float[][] expected = copy(initial);
+		for (int step = 0; step < 3; step++) {
+			myTermination.myFilteredInput = new float[]{step, 1f, -step};
+			myTermination.setModTerminationState("error", new RealOutputImpl(new float[]{1f, -step}, Units.UNK, step), step);
+			addUpdate(expected, encoders, myTermination.myFilteredInput, myTermination.myFilteredModInput);
+		}
+
+		myTermination.updateTransform(3f, 0, N);
+		assertClose(expected, myTermination.getTransform());
+
+		//steps that have been applied are cleared on the next step
+		myTermination.setModTerminationState("error", new RealOutputImpl(new float[]{1f, 1f}, Units.UNK, 4f), 4f);
+		addUpdate(expected, encoders, myTermination.myFilteredInput, myTermination.myFilteredModInput);
+		myTermination.updateTransform(4f, 0, N);
+		assertClose(expected, myTermination.getTransform());
+
+		myTermination.reset(false);
+		assertClose(initial, myTermination.getTransform());
+	}
+
+	public void testBatchUpdatesWithInterval() throws StructuralException, SimulationException {
+		NEFEnsembleImpl post = (NEFEnsembleImpl) new NEFEnsembleFactoryImpl().make("post", N, 1);
+		post.addDecodedTermination("error", new float[][]{{1f}}, .005f, true);
+		float[][] weights = new float[N][];
+		for (int i = 0; i < N; i++) {
+			weights[i] = new float[]{1f};
+		}
+		PESTermination term = (PESTermination) post.addPESTermination("learn", weights, .005f, false);
+		term.setModTermName("error");
+		term.setLearningRate(1e-2f);
+		term.setBatchUpdates(true);
+		post.setPlasticityInterval(.01f);
+
+		NetworkImpl network = new NetworkImpl();
+		network.addNode(post);
+		FunctionInput input = new FunctionInput("input", new Function[]{new ConstantFunction(1, 1f)}, Units.UNK);
+		FunctionInput error = new FunctionInput("error", new Function[]{new ConstantFunction(1, .5f)}, Units.UNK);
+		network.addNode(input);
+		network.addNode(error);
+		network.addProjection(input.getOrigin(FunctionInput.ORIGIN_NAME), term);
+		network.addProjection(error.getOrigin(FunctionInput.ORIGIN_NAME), post.getTermination("error"));
+		network.run(0f, .1f);
+
+		//weights are updated every interval, and the batch only holds the steps since the last update
+		boolean changed = false;
+		for (int i = 0; i < N; i++) {
+			changed |= ((LinearExponentialTermination) term.getNodeTerminations()[i]).getWeights()[0] != 1f;
+		}
+		assertTrue(changed);
+		assertTrue(term.myBatchSize <= 11);
+	}
+
+	private void addUpdate(float[][] weights, float[][] encoders, float[] input, float[] error) {
+		for (int i = 0; i < N; i++) {
+			float e = 0f;
+			for (int k = 0; k < error.length; k++) {
+				e += error[k] * encoders[i][k];
+			}
+			for (int j = 0; j < input.length; j++) {
+				weights[i][j] += myTermination.getLearningRate() * input[j] * e * myTermination.myGain[i];
+			}
+		}
+	}
+
+	private static float[][] copy(float[][] matrix) {
+		float[][] result = new float[matrix.length][];
+		for (int i = 0; i < matrix.length; i++) {
+			result[i] = matrix[i].clone();
+		}
+		return result;
+	}
+
+	private static void assertClose(float[][] expected, float[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals(expected[i][j], actual[i][j], 1e-6f * Math.max(1f, Math.abs(expected[i][j])));
+			}
+		}
+	}
+
+}
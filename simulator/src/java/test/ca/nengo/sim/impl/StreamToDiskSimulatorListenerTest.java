@@ -0,0 +1,86 @@
+package ca.nengo.sim.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import ca.nengo.model.Network;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.impl.NetworkImpl;
+import ca.nengo.model.nef.NEFEnsemble;
+import ca.nengo.model.nef.NEFEnsembleFactory;
+import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.util.Probe;
+import ca.nengo.util.SpikePattern;
+import ca.nengo.util.TimeSeries;
+
+/**
+ * Unit tests for StreamToDiskSimulatorListener.
+ */
+public class StreamToDiskSimulatorListenerTest extends TestCase {
+
+	public void testSamples() throws StructuralException, SimulationException, IOException {
+		Network network = new NetworkImpl();
+		NEFEnsembleFactory factory = new NEFEnsembleFactoryImpl();
+		NEFEnsemble ensemble = factory.make("Ensemble",100,2);
+		network.addNode(ensemble);
+		File file = new File("testSTDSL.bin");
+
+		Probe probe = network.getSimulator().addProbe("Ensemble", "X", true);
+		StreamToDiskSimulatorListener listener = new StreamToDiskSimulatorListener(file,probe,0f);
+		network.getSimulator().addSimulatorListener(listener);
+		network.getSimulator().run(0.0f, 1.0f, 0.001f);
+
+		TimeSeries expected = probe.getData();
+		TimeSeries data = StreamToDiskSimulatorListener.readSamples(file);
+		assertEquals("X", data.getName());
+		assertEquals(2, data.getDimension());
+		assertEquals(expected.getTimes().length, data.getTimes().length);
+		for (int i = 0; i < data.getTimes().length; i++) {
+			assertEquals(expected.getTimes()[i], data.getTimes()[i]);
+			assertEquals(expected.getValues()[i][0], data.getValues()[i][0]);
+			assertEquals(expected.getValues()[i][1], data.getValues()[i][1]);
+		}
+
+		//a second run overwrites the file
+		network.getSimulator().run(0.0f, 0.1f, 0.001f);
+		assertEquals(100, StreamToDiskSimulatorListener.readSamples(file).getTimes().length);
+
+		network.getSimulator().removeSimulatorListener(listener);
+		assertTrue(file.delete());
+	}
+
+	public void testSpikes() throws StructuralException, SimulationException, IOException {
+		Network network = new NetworkImpl();
+		NEFEnsembleFactory factory = new NEFEnsembleFactoryImpl();
+		NEFEnsemble ensemble = factory.make("Ensemble",100,1);
+		ensemble.collectSpikes(true);
+		network.addNode(ensemble);
+		File file = new File("testSTDSL-spikes.bin");
+
+		StreamToDiskSimulatorListener listener = new StreamToDiskSimulatorListener(file,ensemble);
+		network.getSimulator().addSimulatorListener(listener);
+		network.getSimulator().run(0.0f, 0.5f, 0.001f);
+
+		SpikePattern expected = ensemble.getSpikePattern();
+		SpikePattern spikes = StreamToDiskSimulatorListener.readSpikes(file);
+		assertEquals(100, spikes.getNumNeurons());
+		int total = 0;
+		for (int i = 0; i < 100; i++) {
+			float[] expectedTimes = expected.getSpikeTimes(i);
+			float[] times = spikes.getSpikeTimes(i);
+			assertEquals(expectedTimes.length, times.length);
+			for (int j = 0; j < times.length; j++) {
+				assertEquals(expectedTimes[j], times[j]);
+			}
+			total += times.length;
+		}
+		assertTrue(total > 0);
+
+		network.getSimulator().removeSimulatorListener(listener);
+		assertTrue(file.delete());
+	}
+
+}
@@ -0,0 +1,104 @@
+package ca.nengo.util.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+import ca.nengo.model.Units;
+import ca.nengo.sim.impl.StreamToDiskSimulatorListener;
+import ca.nengo.util.DataUtils;
+import ca.nengo.util.TimeSeries;
+
+/**
+ * Unit tests for MappedTimeSeries.
+ */
+public class MappedTimeSeriesTest extends TestCase {
+
+	private File myFile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		//samples at .001, .002, ... with value i in dimension 0 and -i in dimension 1, and a partial last row
+		myFile = new File("testMTS.bin");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(myFile));
+		out.writeInt(StreamToDiskSimulatorListener.MAGIC);
+		out.writeInt(StreamToDiskSimulatorListener.VERSION);
+		out.writeByte(StreamToDiskSimulatorListener.SAMPLES);
+		writeString(out, "X");
+		out.writeInt(2);
+		writeString(out, Units.UNK.name());
+		writeString(out, Units.AVU.name());
+		for (int i = 1; i <= 1000; i++) {
+			out.writeFloat(i * .001f);
+			out.writeFloat(i);
+			out.writeFloat(-i);
+		}
+		out.writeFloat(1.001f);
+		out.close();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeInt(s.length());
+		out.writeBytes(s);
+	}
+
+	protected void tearDown() throws Exception {
+		assertTrue(myFile.delete());
+		super.tearDown();
+	}
+
+	public void testAccess() throws IOException {
+		MappedTimeSeries series = new MappedTimeSeries(myFile);
+		assertEquals("X", series.getName());
+		assertEquals(1000, series.getLength());
+		assertEquals(2, series.getDimension());
+		assertEquals(Units.AVU, series.getUnits()[1]);
+		assertEquals(.5f, series.getTime(499));
+		assertEquals(-500f, series.getValue(499, 1));
+		assertEquals(1000, series.getTimes().length);
+		assertEquals(1000f, series.getValues()[999][0]);
+
+		try {
+			series.getTime(1000);
+			fail("Should have thrown exception");
+		} catch (IndexOutOfBoundsException e) {} //exception is expected
+
+		assertEquals(0, series.findIndex(0f));
+		assertEquals(99, series.findIndex(.1f));
+		assertEquals(1000, series.findIndex(2f));
+	}
+
+	public void testViews() throws IOException, CloneNotSupportedException {
+		MappedTimeSeries series = new MappedTimeSeries(myFile);
+
+		TimeSeries window = DataUtils.extractTime(series, .1005f, .2f);
+		assertEquals(100, window.getTimes().length);
+		assertEquals(101f, window.getValues()[0][0]);
+		assertEquals(200f, window.getValues()[99][0]);
+		assertEquals(0, series.getWindow(3f, 4f).getLength());
+
+		TimeSeries sub = DataUtils.subsample(window, 3);
+		assertEquals(34, sub.getTimes().length);
+		assertEquals(104f, sub.getValues()[1][0]);
+
+		MappedTimeSeries dim = ((MappedTimeSeries) sub).getDimensions(new int[]{1});
+		assertEquals(1, dim.getDimension());
+		assertEquals(Units.AVU, dim.getUnits()[0]);
+		assertEquals(-104f, dim.getValue(1, 0));
+		assertEquals(-200f, DataUtils.extractDimension(window, 1).getValues()[99][0]);
+		assertEquals(-104f, dim.clone().getValues()[1][0]);
+	}
+
+	public void testSerialize() throws IOException {
+		MappedTimeSeries series = new MappedTimeSeries(myFile).getWindow(0f, .01f);
+		ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream());
+		out.writeObject(series);
+		out.close();
+	}
+
+}
@@ -0,0 +1,189 @@
+package ca.nengo.util.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import ca.nengo.math.Function;
+import ca.nengo.math.PDFTools;
+import ca.nengo.math.impl.ConstantFunction;
+import ca.nengo.math.impl.GaussianPDF;
+import ca.nengo.model.Node;
+import ca.nengo.model.RealOutput;
+import ca.nengo.model.SimulationException;
+import ca.nengo.model.StructuralException;
+import ca.nengo.model.Units;
+import ca.nengo.model.impl.FunctionInput;
+import ca.nengo.model.impl.NetworkImpl;
+import ca.nengo.model.impl.NoiseFactory;
+import ca.nengo.model.nef.NEFEnsemble;
+import ca.nengo.model.nef.impl.DecodedOrigin;
+import ca.nengo.model.nef.impl.NEFEnsembleFactoryImpl;
+import ca.nengo.util.ThreadTask;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for NodeThreadPool.
+ */
+public class NodeThreadPoolTest extends TestCase {
+
+	public void testBalance() {
+		int[][] assignments = NodeThreadPool.balance(new double[]{1, 10, 2, 3, 9, 5}, 2);
+		assertEquals(2, assignments.length);
+
+		//LPT gives {10, 3, 2} and {9, 5, 1}
+		assertEquals(1, assignments[0][0]);
+		assertEquals(4, assignments[1][0]);
+		assertEquals(15d, sum(new double[]{1, 10, 2, 3, 9, 5}, assignments[0]));
+		assertEquals(15d, sum(new double[]{1, 10, 2, 3, 9, 5}, assignments[1]));
+
+		assignments = NodeThreadPool.balance(new double[]{1, 1}, 4);
+		assertEquals(4, assignments.length);
+		assertEquals(0, assignments[3].length);
+
+		assertEquals(0, NodeThreadPool.balance(new double[]{1}, 0).length);
+	}
+
+	private static double sum(double[] costs, int[] indices) {
+		double result = 0;
+		for (int i = 0; i < indices.length; i++) {
+			result += costs[indices[i]];
+		}
+		return result;
+	}
+
+	public void testEstimateCost() throws StructuralException {
+		NEFEnsemble ensemble = new NEFEnsembleFactoryImpl().make("ensemble", 30, 1);
+		assertEquals(30d, NodeThreadPool.estimateCost(ensemble));
+
+		FunctionInput input = new FunctionInput("input", new Function[]{new ConstantFunction(1, 0)}, Units.UNK);
+		assertEquals(1d, NodeThreadPool.estimateCost(input));
+	}
+
+	public void testRandomStreams() throws StructuralException, SimulationException {
+		NetworkImpl network = new NetworkImpl();
+		NEFEnsembleFactoryImpl factory = new NEFEnsembleFactoryImpl();
+		NEFEnsemble[] ensembles = new NEFEnsemble[]{factory.make("a", 20, 1), factory.make("b", 20, 1), factory.make("c", 20, 1)};
+		for (NEFEnsemble ensemble : ensembles) {
+			((DecodedOrigin) ensemble.getOrigin(NEFEnsemble.X)).setNoise(NoiseFactory.makeRandomNoise(1000, new GaussianPDF(0, 1)));
+			network.addNode(ensemble);
+		}
+
+		int oldThreads = NodeThreadPool.getNumJavaThreads();
+		try {
+			float[] expected = runWithSeed(network, ensembles, 0, 5);
+			assertFalse(Arrays.equals(expected, runWithSeed(network, ensembles, 0, 6)));
+
+			//same results whichever threads run the nodes
+			for (int threads = 1; threads <= 3; threads++) {
+				assertTrue(Arrays.equals(expected, runWithSeed(network, ensembles, threads, 5)));
+			}
+		} finally {
+			NodeThreadPool.setNumJavaThreads(oldThreads);
+		}
+	}
+
+	private static float[] runWithSeed(NetworkImpl network, NEFEnsemble[] ensembles, int threads, long seed)
+			throws StructuralException, SimulationException {
+		NodeThreadPool.setNumJavaThreads(threads);
+		PDFTools.setSeed(seed);
+		network.reset(false);
+		network.run(0, .02f);
+
+		float[] result = new float[ensembles.length];
+		for (int i = 0; i < ensembles.length; i++) {
+			result[i] = ((RealOutput) ensembles[i].getOrigin(NEFEnsemble.X).getValues()).getValues()[0];
+		}
+		return result;
+	}
+
+	public void testRebalance() throws StructuralException, SimulationException {
+		int oldThreads = NodeThreadPool.getNumJavaThreads();
+		int oldCalibration = NodeThreadPool.getCalibrationSteps();
+		NodeThreadPool.setNumJavaThreads(3);
+		NodeThreadPool.setCalibrationSteps(5);
+
+		NodeThreadPool pool = null;
+		try {
+			NetworkImpl network = new NetworkImpl();
+			NEFEnsembleFactoryImpl factory = new NEFEnsembleFactoryImpl();
+			network.addNode(factory.make("a", 200, 1));
+			network.addNode(factory.make("b", 20, 1));
+			network.addNode(factory.make("c", 20, 1));
+			network.addNode(new FunctionInput("input", new Function[]{new ConstantFunction(1, 0)}, Units.UNK));
+
+			pool = new NodeThreadPool(network, new ArrayList<ThreadTask>());
+			for (int step = 0; step < 10; step++) {
+				assertEquals(step < 5, pool.isCalibrating());
+				pool.step(step * .001f, (step+1) * .001f);
+
+				//each node is in exactly one queue
+				Set<Node> assigned = new HashSet<Node>();
+				int count = 0;
+				for (NodeThread thread : pool.getThreads()) {
+					for (Node node : thread.getNodes()) {
+						assigned.add(node);
+						count++;
+					}
+				}
+				assertEquals(4, count);
+				assertEquals(4, assigned.size());
+			}
+
+			for (int i = 0; i < 3; i++) {
+				assertTrue(pool.getNodeCosts()[i] > 0);
+			}
+			assertEquals(3, pool.getIdleTimes().length);
+			assertTrue(pool.getIdleTimes()[0] >= 0);
+		} finally {
+			if (pool != null) {
+				pool.kill();
+			}
+			NodeThreadPool.setNumJavaThreads(oldThreads);
+			NodeThreadPool.setCalibrationSteps(oldCalibration);
+		}
+	}
+
+	public void testError() throws StructuralException, SimulationException {
+		int oldThreads = NodeThreadPool.getNumJavaThreads();
+		NodeThreadPool.setNumJavaThreads(2);
+
+		NodeThreadPool pool = null;
+		try {
+			NetworkImpl network = new NetworkImpl();
+			network.addNode(new FunctionInput("input", new Function[]{new ConstantFunction(1, 0)}, Units.UNK));
+			ArrayList<ThreadTask> tasks = new ArrayList<ThreadTask>();
+			tasks.add(new FailingTask());
+
+			//an Error in one thread is reported, rather than leaving the other threads waiting for it
+			pool = new NodeThreadPool(network, tasks);
+			try {
+				pool.step(0f, .001f);
+				fail("Should have thrown exception");
+			} catch (SimulationException e) {
+				assertTrue(e.getCause() instanceof AssertionError);
+			}
+		} finally {
+			if (pool != null) {
+				pool.kill();
+			}
+			NodeThreadPool.setNumJavaThreads(oldThreads);
+		}
+	}
+
+	private static class FailingTask implements ThreadTask {
+		public boolean isFinished() {
+			return false;
+		}
+		public void run(float startTime, float endTime) {
+			throw new AssertionError("task failed");
+		}
+		public void reset(boolean randomize) {
+		}
+		public ThreadTask clone() {
+			return this;
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ package ca.nengo.util.impl;
 
 import java.util.Properties;
 
+import ca.nengo.model.DirectProbeable;
 import ca.nengo.model.Probeable;
 import ca.nengo.model.SimulationException;
 import ca.nengo.model.Units;
@@ -81,6 +82,54 @@ public class RecorderImplTest extends TestCase {
 		ts = myRecorder.getData();
 		assertEquals(1, ts.getValues().length);
 	}
+	public void testLongRecording() throws SimulationException {
+		MockDirectProbeable target = new MockDirectProbeable();
+		ProbeImpl probe = new ProbeImpl();
+		probe.connect(target, "x", true);
+		probe.reserve(5f, .001f);
+		
+		for (int i = 0; i < 10000; i++) { //more than reserved 
+			target.myTime = i;
+			probe.collect(i);
+		}
+		assertEquals(2, target.myHistoryCount); //after connect() and the first sample, state is sampled directly
+		
+		TimeSeries ts = probe.getData();
+		assertEquals(10000, ts.getTimes().length);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals((float) i, ts.getTimes()[i]);
+			assertEquals((float) i, ts.getValues()[i][0]);
+			assertEquals(-(float) i, ts.getValues()[i][1]);
+		}
+		assertEquals(Units.SPIKES_PER_S, ts.getUnits()[0]);
+		
+		probe.reset();
+		assertEquals(0, probe.getData().getTimes().length);
+	}
+ 
+	private static class MockDirectProbeable implements DirectProbeable {
+		
+		private float myTime;
+		private int myHistoryCount;
+
+		public TimeSeries getHistory(String stateName) throws SimulationException {
+			myHistoryCount++;
+			return new TimeSeriesImpl(new float[]{myTime}, new float[][]{new float[]{myTime, -myTime}}, 
+					new Units[]{Units.SPIKES_PER_S, Units.SPIKES_PER_S});
+		}
+
+		public float sampleState(String stateName, float[] values) throws SimulationException {
+			values[0] = myTime;
+			values[1] = -myTime;
+			return myTime;
+		}
+
+		public Properties listStates() {
+			Properties result = new Properties();
+			result.setProperty("x", "example state");
+			return result;
+		}
+	}
  
 	private static class MockProbeable implements Probeable {
 
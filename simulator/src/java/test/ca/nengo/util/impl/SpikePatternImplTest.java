@@ -3,6 +3,12 @@
  */
 package ca.nengo.util.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import ca.nengo.util.impl.SpikePatternImpl;
 import junit.framework.TestCase;
 
@@ -43,4 +49,96 @@ public class SpikePatternImplTest extends TestCase {
 		}
 	}
 
+	public void testInterleavedSpikes() throws CloneNotSupportedException {
+		SpikePatternImpl sp = new SpikePatternImpl(1000);
+		for (int step = 0; step < 100; step++) {
+			for (int i = step % 3; i < 1000; i += 3) {
+				sp.addSpike(i, step * .001f);
+			}
+		}
+		assertEquals(100 * 1000 / 3, sp.getNumSpikes(), 100);
+		assertEquals(34, sp.getNumSpikes(0));
+		assertEquals(33, sp.getSpikeTimes(2).length);
+		assertEquals(5 * .001f, sp.getSpikeTimes(2)[1]);
+
+		//spikes added after reading, out of time order, and to a clone
+		SpikePatternImpl copy = (SpikePatternImpl) sp.clone();
+		sp.addSpike(2, 1f);
+		sp.addSpike(1, .5f);
+		copy.addSpike(2, 2f);
+		assertEquals(34, sp.getSpikeTimes(2).length);
+		assertEquals(1f, sp.getSpikeTimes(2)[33]);
+		assertEquals(.5f, sp.getSpikeTimes(1)[33]);
+		assertEquals(2f, copy.getSpikeTimes(2)[33]);
+		assertEquals(33, copy.getSpikeTimes(1).length);
+
+		try {
+			sp.addSpike(1000, 1f);
+			fail("Should have thrown exception");
+		} catch (ArrayIndexOutOfBoundsException e) {} //exception is expected
+	}
+
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		SpikePatternImpl sp = new SpikePatternImpl(2);
+		sp.addSpike(0, .001f);
+		sp.addSpike(1, .001f);
+		sp.addSpike(1, .003f);
+		sp.addSpike(0, .002f);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(sp);
+		oos.close();
+		checkPattern(read(bos.toByteArray()));
+
+		//the same pattern, saved before spikes were stored in chunks
+		String legacy = "aced00057372002363612e6e656e676f2e7574696c2e696d706c2e5370696b655061747465726e496d706c0000000000"
+			+ "0000010200025b00096d79496e64696365737400025b495b000c6d795370696b6554696d65737400035b5b4678707572"
+			+ "00025b494dba602676eab2a50200007870000000020000000200000002757200035b5b4677aa8d1669fe197602000078"
+			+ "7000000002757200025b460b9c818922e00c420200007870000000643a83126f3b03126f000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "00000000000000000000000000000000000000000000000000000000000000000000000000000000000000007571007e"
+			+ "0008000000643a83126f3b449ba600000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+			+ "00000000000000000000000000000000000000000000";
+		byte[] bytes = new byte[legacy.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(legacy.substring(2*i, 2*i+2), 16);
+		}
+		SpikePatternImpl loaded = read(bytes);
+		checkPattern(loaded);
+		loaded.addSpike(0, .004f);
+		assertEquals(.004f, loaded.getSpikeTimes(0)[2]);
+	}
+
+	private static SpikePatternImpl read(byte[] bytes) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (SpikePatternImpl) ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+
+	private static void checkPattern(SpikePatternImpl sp) {
+		assertEquals(2, sp.getNumNeurons());
+		assertEquals(4, sp.getNumSpikes());
+		assertEquals(.001f, sp.getSpikeTimes(0)[0]);
+		assertEquals(.002f, sp.getSpikeTimes(0)[1]);
+		assertEquals(.001f, sp.getSpikeTimes(1)[0]);
+		assertEquals(.003f, sp.getSpikeTimes(1)[1]);
+	}
+
 }
@@ -0,0 +1,63 @@
+package ca.nengo.util.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for SpinBarrier.
+ */
+public class SpinBarrierTest extends TestCase {
+
+	public void testSingleParty() {
+		SpinBarrier barrier = new SpinBarrier(1, 10);
+		barrier.await();
+		barrier.await();
+		assertEquals(2, barrier.getPhase());
+
+		try {
+			new SpinBarrier(0, 10);
+			fail("Should have thrown exception");
+		} catch (IllegalArgumentException e) {} //exception is expected
+	}
+
+	public void testPhases() throws InterruptedException {
+		checkPhases(0); //always parks
+		checkPhases(100);
+		checkPhases(5000); //usually spins on a multi-core machine
+	}
+
+	//no thread may start a phase until all threads have finished the previous one
+	private void checkPhases(int spinCount) throws InterruptedException {
+		final int parties = 4;
+		final int phases = 2000;
+		final SpinBarrier barrier = new SpinBarrier(parties, spinCount);
+		final AtomicInteger counter = new AtomicInteger(0);
+		final AtomicInteger errors = new AtomicInteger(0);
+
+		Thread[] threads = new Thread[parties];
+		for (int i = 0; i < parties; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int phase = 0; phase < phases; phase++) {
+						counter.incrementAndGet();
+						barrier.await();
+						if (counter.get() != parties * (phase+1)) {
+							errors.incrementAndGet();
+						}
+						barrier.await();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < parties; i++) {
+			threads[i].join(60000);
+			assertFalse(threads[i].isAlive());
+		}
+
+		assertEquals(0, errors.get());
+		assertEquals(2 * phases, barrier.getPhase());
+	}
+
+}